@@ -0,0 +1,196 @@
+"""
+Genera el modelo de paridad del test JUnit TreeEnsembleParityTest
+
+backend/src/test/resources/scoring/tree_ensemble_parity.json es un
+RandomForest pequeño entrenado aquí con sklearn sobre datos sintéticos y
+exportado con export_model() de src/export_tree_model.py (el mismo exportador
+que el modelo de producción):
+
+- probability_raw: predict_proba del propio pipeline de sklearn
+  (ColumnSelector → StandardScaler → RandomForestClassifier)
+- main_factor / next_best_action y codigo_postal_to_numeric: las funciones
+  REALES de src/main.py y src/xai_utils.py (se extraen del código fuente para
+  no cargar el .pkl de producción)
+
+Cubre lo que el modelo de producción no garantiza: features faltantes (NaN),
+valores justo en un umbral aprendido y códigos postales no numéricos (CRC32).
+
+Requiere las versiones de requirements.txt (scikit-learn, pandas, numpy).
+
+Uso (desde ai-ml/):
+    python scripts/build_parity_fixture.py
+"""
+import ast
+import json
+import random
+import sys
+import zlib
+from pathlib import Path
+
+import numpy as np
+import pandas as pd
+import sklearn
+from sklearn.base import BaseEstimator, TransformerMixin
+from sklearn.ensemble import RandomForestClassifier
+from sklearn.pipeline import Pipeline
+from sklearn.preprocessing import StandardScaler
+
+ROOT = Path(__file__).parent.parent
+sys.path.insert(0, str(ROOT))
+
+from src.export_tree_model import export_model  # noqa: E402
+
+OUTPUT = ROOT.parent / "backend" / "src" / "test" / "resources" / "scoring" / "tree_ensemble_parity.json"
+
+FEATURES = [line.strip() for line in
+            (ROOT / "models" / "champion" / "11_production_features.txt").read_text().splitlines()
+            if line.strip()]
+
+NON_NUMERIC_POSTAL_CODES = ["SW1A 1AA", "NY-10001", "10001-2345", "", " 10002 ", "N/A"]
+
+
+def load_service_functions():
+    """ColumnSelector, codigo_postal_to_numeric, generate_explanation_simple,
+    select_best_actionable_factor (main.py) y generate_action (xai_utils.py),
+    tal cual están en el servicio"""
+    namespace = {"zlib": zlib, "BaseEstimator": BaseEstimator, "TransformerMixin": TransformerMixin}
+    wanted = {
+        ROOT / "src" / "main.py": {"ColumnSelector", "codigo_postal_to_numeric", "generate_explanation_simple",
+                                   "select_best_actionable_factor"},
+        ROOT / "src" / "xai_utils.py": {"generate_action"},
+    }
+    for path, names in wanted.items():
+        tree = ast.parse(path.read_text(encoding="utf-8"))
+        functions = [node for node in tree.body
+                     if isinstance(node, (ast.FunctionDef, ast.ClassDef)) and node.name in names]
+        exec(compile(ast.Module(body=functions, type_ignores=[]), str(path), "exec"), namespace)
+    return namespace
+
+
+def synthetic_inputs(n, seed=42):
+    rng = random.Random(seed)
+    inputs = []
+    for i in range(n):
+        conexiones = rng.randint(0, 119)
+        promedio = round(rng.uniform(0, 90), 2)
+        cargo = round(rng.uniform(10, 150), 2)
+        ingresos = round(rng.uniform(0, 9000), 2)
+        inputs.append({
+            "dias_activos_semanales": rng.randint(0, 7),
+            "promedio_conexion": promedio,
+            "conexiones_mensuales": conexiones,
+            "caracteristicas_usadas": rng.randint(0, 14),
+            "dias_ultima_conexion": rng.randint(0, 89),
+            "intensidad_uso": conexiones * promedio,
+            "tickets_soporte": rng.randint(0, 11),
+            "puntuacion_nps": float(rng.randint(0, 100)),
+            "tasa_crecimiento_uso": round(rng.uniform(-50, 50), 2),
+            "puntuacion_csat": round(rng.uniform(1, 5), 1),
+            "ratio_carga_financiera": cargo / ingresos if ingresos > 0 else 0.0,
+            "tasa_apertura_email": round(rng.uniform(0, 1), 2),
+            "errores_pago": rng.randint(0, 5),
+            "antiguedad": rng.randint(1, 72),
+            "ingresos_totales": ingresos,
+            "latitud": round(rng.uniform(40.5, 40.9), 6),
+            "cargo_mensual": cargo,
+            "tiempo_resolucion": round(rng.uniform(1, 96), 1),
+            "longitud": round(rng.uniform(-74.25, -73.7), 6),
+            "codigo_postal": (NON_NUMERIC_POSTAL_CODES[(i // 10) % len(NON_NUMERIC_POSTAL_CODES)]
+                              if i % 10 == 9 else str(rng.randint(10001, 11697))),
+            "edad": rng.randint(18, 84),
+            "dias_desde_ultimo_contacto": rng.randint(0, 364),
+            "tiempo_sesion_promedio": round(rng.uniform(0, 60), 1),
+        })
+    return inputs
+
+
+def to_frame(service, inputs):
+    """Entradas del servicio → DataFrame con las columnas del modelo (NaN si faltan)"""
+    rows = []
+    for data in inputs:
+        row = dict(data)
+        row["codigo_postal"] = service["codigo_postal_to_numeric"](str(data["codigo_postal"]))
+        rows.append(row)
+    return rows, pd.DataFrame(rows).reindex(columns=FEATURES).astype(float)
+
+
+def training_set(service, n=400, seed=7):
+    """Datos sintéticos con score_riesgo (como el histórico) y un 10% sin NPS"""
+    rng = random.Random(seed)
+    inputs = synthetic_inputs(n, seed)
+    for data in inputs:
+        data["score_riesgo"] = round(rng.uniform(0, 1), 3)
+        if rng.random() < 0.1:
+            del data["puntuacion_nps"]
+    _, X = to_frame(service, inputs)
+    labels = []
+    for data in inputs:
+        risk = (0.4 * data["score_riesgo"] + 0.03 * data["tickets_soporte"]
+                + 0.004 * data["dias_ultima_conexion"] - 0.003 * data.get("puntuacion_nps", 50.0)
+                + 0.05 * data["errores_pago"])
+        labels.append(1 if risk + rng.gauss(0, 0.1) > 0.35 else 0)
+    return X, np.array(labels)
+
+
+def threshold_edge_case(pipe, base):
+    """Entrada cuyo valor escalado cae en el primer umbral aprendido sobre una
+    feature de la entrada V2 (x <= threshold va a la izquierda)"""
+    scaler = pipe.named_steps["scaler"]
+    for estimator in pipe.named_steps["model"].estimators_:
+        tree = estimator.tree_
+        for node in range(tree.node_count):
+            index = int(tree.feature[node])
+            if index < 0 or FEATURES[index] not in base or FEATURES[index] == "codigo_postal":
+                continue
+            raw = float(tree.threshold[node]) * float(scaler.scale_[index]) + float(scaler.mean_[index])
+            return dict(base, **{FEATURES[index]: raw})
+    raise ValueError("Ningún árbol divide por una feature de la entrada V2")
+
+
+def main():
+    service = load_service_functions()
+    pipe = Pipeline([
+        ("selector", service["ColumnSelector"](FEATURES)),
+        ("scaler", StandardScaler()),
+        ("model", RandomForestClassifier(n_estimators=5, max_depth=4, random_state=42)),
+    ])
+    pipe.fit(*training_set(service))
+
+    # V2 no trae score_riesgo: siempre va por la rama de faltantes
+    inputs = synthetic_inputs(60)
+    inputs.append(threshold_edge_case(pipe, inputs[0]))
+    inputs.append({k: v for k, v in inputs[1].items() if k != "puntuacion_nps"})
+    customer_dicts, X = to_frame(service, inputs)
+    probabilities = pipe.predict_proba(X)[:, list(pipe.classes_).index(1)]
+    importances = pipe.named_steps["model"].feature_importances_
+
+    fixtures = []
+    for data, customer_dict, probability in zip(inputs, customer_dicts, probabilities):
+        # Igual que score_like_service (export_tree_model.py)
+        feature_importance_list = [(feat, float(imp), float(customer_dict.get(feat, 0)))
+                                   for feat, imp in zip(FEATURES, importances)]
+        feature_importance_list.sort(key=lambda x: x[1], reverse=True)
+        main_feat, _, main_value = service["select_best_actionable_factor"](feature_importance_list, customer_dict)
+        main_factor = service["generate_explanation_simple"](main_feat, main_value)
+
+        fixtures.append({
+            "input": data,
+            "probability_raw": float(probability),
+            "probability": round(float(probability), 4),
+            "main_factor": main_factor,
+            "next_best_action": service["generate_action"](main_factor, customer_dict),
+        })
+
+    export = export_model(pipe, FEATURES)
+    export["exported_at"] = "parity-fixture"
+    export["sklearn_version"] = sklearn.__version__
+    export["parity_fixtures"] = fixtures
+
+    OUTPUT.parent.mkdir(parents=True, exist_ok=True)
+    with open(OUTPUT, "w", encoding="utf-8") as f:
+        json.dump(export, f, ensure_ascii=False, indent=1)
+    print(f"✅ Modelo de paridad: {OUTPUT} ({len(fixtures)} fixtures, sklearn {sklearn.__version__})")
+
+
+if __name__ == "__main__":
+    main()
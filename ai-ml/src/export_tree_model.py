@@ -0,0 +1,223 @@
+"""
+Exportador del modelo de producción a JSON para el motor de scoring Java (in-JVM)
+
+Vuelca el pipeline 11_production_pipeline.pkl (selector → scaler → Random Forest)
+a un JSON con arrays planos por árbol, más un conjunto de "parity fixtures":
+entradas de ejemplo con la salida EXACTA de este servicio (/predict). El backend
+Java (TreeEnsembleScorer) carga el JSON, reproduce las fixtures al arrancar y
+solo se habilita si coinciden. El mismo JSON lo verifica el test JUnit
+TreeEnsembleParityTest (backend/src/test).
+
+Uso (desde ai-ml/):
+    python -m src.export_tree_model
+    python -m src.export_tree_model --output models/champion/tree_ensemble.json --fixtures 500
+    python -m src.export_tree_model --fixtures-csv data/muestra_inputs.csv
+
+Formato de salida:
+    features            -> columnas del selector, en orden
+    scaler              -> {"mean": [...], "scale": [...]} (StandardScaler) o null
+    feature_importances -> importancias del modelo (para main_factor)
+    trees[]             -> feature / threshold / left / right / value / missing_left
+                           (value = probabilidad de churn en cada nodo; hoja = left -1)
+    parity_fixtures[]   -> {"input": {...}, "probability_raw", "probability",
+                            "main_factor", "next_best_action"}
+
+export_model() no carga el modelo de producción: scripts/build_parity_fixture.py
+lo usa con un pipeline pequeño entrenado al vuelo.
+"""
+import argparse
+import json
+from datetime import datetime
+from pathlib import Path
+
+import numpy as np
+import pandas as pd
+from sklearn.ensemble import ExtraTreesClassifier, RandomForestClassifier
+from sklearn.preprocessing import StandardScaler
+from sklearn.tree import DecisionTreeClassifier
+
+MODEL_PATH = Path(__file__).parent.parent / "models" / "champion"
+DEFAULT_OUTPUT = MODEL_PATH / "tree_ensemble.json"
+
+# Pasos del pipeline que no transforman valores (se ignoran en la exportación)
+PASSTHROUGH_STEPS = {"FeatureEngineer", "ColumnSelector"}
+
+
+def export_scaler(pipe, n):
+    """Devuelve mean/scale del StandardScaler del pipeline (o None si no hay)"""
+    for name, step in pipe.named_steps.items():
+        if isinstance(step, StandardScaler):
+            mean = step.mean_ if step.with_mean and step.mean_ is not None else np.zeros(n)
+            scale = step.scale_ if step.with_std and step.scale_ is not None else np.ones(n)
+            return {"mean": [float(v) for v in mean], "scale": [float(v) for v in scale]}
+        if name != "model" and type(step).__name__ not in PASSTHROUGH_STEPS:
+            raise ValueError(f"Paso de pipeline no soportado por el exportador: {name} ({type(step).__name__})")
+    return None
+
+
+def export_tree(estimator, positive_index):
+    """Aplana un DecisionTreeClassifier: arrays por nodo + probabilidad de churn"""
+    tree = estimator.tree_
+    counts = tree.value[:, 0, :]  # (n_nodes, n_classes) - fracciones o conteos según versión
+    totals = counts.sum(axis=1)
+    totals[totals == 0] = 1.0
+    proba = counts[:, positive_index] / totals
+
+    exported = {
+        "feature": [int(f) for f in tree.feature],
+        "threshold": [float(t) for t in tree.threshold],
+        "left": [int(c) for c in tree.children_left],
+        "right": [int(c) for c in tree.children_right],
+        "value": [float(p) for p in proba],
+    }
+    # sklearn >= 1.3: soporte de NaN (hacia qué lado va un valor faltante)
+    if hasattr(tree, "missing_go_to_left"):
+        exported["missing_left"] = [int(m) for m in tree.missing_go_to_left]
+    return exported
+
+
+def export_model(pipe, features):
+    """Pipeline (selector → scaler → árboles) → JSON del formato, sin fixtures"""
+    model = pipe.named_steps["model"]
+    if not isinstance(model, (RandomForestClassifier, ExtraTreesClassifier, DecisionTreeClassifier)):
+        raise ValueError(f"Modelo no soportado: {type(model).__name__}")
+
+    classes = [int(c) for c in model.classes_]
+    positive_index = classes.index(1)
+    estimators = model.estimators_ if hasattr(model, "estimators_") else [model]
+    return {
+        "format": "retainai-tree-ensemble",
+        "version": 1,
+        "model_type": type(model).__name__,
+        "features": list(features),
+        "scaler": export_scaler(pipe, len(features)),
+        "feature_importances": [float(v) for v in model.feature_importances_],
+        "classes": classes,
+        "trees": [export_tree(estimator, positive_index) for estimator in estimators],
+    }
+
+
+def score_like_service(inputs):
+    """Réplica de /predict/batch: probabilidad + main_factor + next_best_action"""
+    # Reutiliza EXACTAMENTE la lógica del servicio (carga el pipeline y el XAI)
+    from src.main import (
+        codigo_postal_to_numeric,
+        feature_names,
+        generate_explanation_simple,
+        pipeline,
+        select_best_actionable_factor,
+    )
+    from src.xai_utils import generate_action
+
+    dicts = []
+    for data in inputs:
+        input_dict = dict(data)
+        input_dict["codigo_postal"] = codigo_postal_to_numeric(str(data["codigo_postal"]))
+        dicts.append(input_dict)
+
+    probabilities = pipeline.predict_proba(pd.DataFrame(dicts))
+    importances = pipeline.named_steps["model"].feature_importances_
+
+    results = []
+    for probs, customer_dict in zip(probabilities, dicts):
+        feature_importance_list = []
+        for feat, imp in zip(feature_names, importances):
+            value = customer_dict.get(feat, 0)
+            feature_importance_list.append((feat, imp, float(value)))
+        feature_importance_list.sort(key=lambda x: x[1], reverse=True)
+
+        main_feat, _, main_value = select_best_actionable_factor(feature_importance_list, customer_dict)
+        main_factor = generate_explanation_simple(main_feat, main_value)
+
+        results.append({
+            "probability_raw": float(probs[1]),
+            "probability": round(float(probs[1]), 4),
+            "main_factor": main_factor,
+            "next_best_action": generate_action(main_factor, customer_dict),
+        })
+    return results
+
+
+# Códigos postales no numéricos: cubren el fallback CRC32 de codigo_postal_to_numeric
+NON_NUMERIC_POSTAL_CODES = ["SW1A 1AA", "NY-10001", "10001-2345", "", " 10002 ", "N/A"]
+
+
+def synthetic_inputs(n, seed=42):
+    """Entradas deterministas en rangos realistas (incluye bordes de los umbrales)"""
+    rng = np.random.default_rng(seed)
+    inputs = []
+    for i in range(n):
+        conexiones = int(rng.integers(0, 120))
+        promedio = float(np.round(rng.uniform(0, 90), 2))
+        cargo = float(np.round(rng.uniform(10, 150), 2))
+        ingresos = float(np.round(rng.uniform(0, 9000), 2))
+        inputs.append({
+            "dias_activos_semanales": int(rng.integers(0, 8)),
+            "promedio_conexion": promedio,
+            "conexiones_mensuales": conexiones,
+            "caracteristicas_usadas": int(rng.integers(0, 15)),
+            "dias_ultima_conexion": int(rng.integers(0, 90)),
+            "intensidad_uso": conexiones * promedio,
+            "tickets_soporte": int(rng.integers(0, 12)),
+            "puntuacion_nps": float(rng.integers(0, 101)),
+            "tasa_crecimiento_uso": float(np.round(rng.uniform(-50, 50), 2)),
+            "puntuacion_csat": float(np.round(rng.uniform(1, 5), 1)),
+            "ratio_carga_financiera": cargo / ingresos if ingresos > 0 else 0.0,
+            "tasa_apertura_email": float(np.round(rng.uniform(0, 1), 2)),
+            "errores_pago": int(rng.integers(0, 6)),
+            "antiguedad": int(rng.integers(1, 73)),
+            "ingresos_totales": ingresos,
+            "latitud": float(np.round(rng.uniform(40.5, 40.9), 6)),
+            "cargo_mensual": cargo,
+            "tiempo_resolucion": float(np.round(rng.uniform(1, 96), 1)),
+            "longitud": float(np.round(rng.uniform(-74.25, -73.7), 6)),
+            "codigo_postal": (NON_NUMERIC_POSTAL_CODES[(i // 10) % len(NON_NUMERIC_POSTAL_CODES)]
+                              if i % 10 == 9 else str(int(rng.integers(10001, 11698)))),
+            "edad": int(rng.integers(18, 85)),
+            "dias_desde_ultimo_contacto": int(rng.integers(0, 365)),
+            "tiempo_sesion_promedio": float(np.round(rng.uniform(0, 60), 1)),
+        })
+    return inputs
+
+
+def csv_inputs(path):
+    """Entradas reales desde un CSV con las columnas de PredictionInput (snake_case)"""
+    from src.main import PredictionInput
+
+    df = pd.read_csv(path)
+    fields = list(PredictionInput.model_fields.keys())
+    missing = [f for f in fields if f not in df.columns]
+    if missing:
+        raise ValueError(f"Faltan columnas en {path}: {missing}")
+    return [PredictionInput(**row).model_dump() for row in df[fields].to_dict(orient="records")]
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Exporta el Random Forest de producción a JSON para Java")
+    parser.add_argument("--output", type=Path, default=DEFAULT_OUTPUT)
+    parser.add_argument("--fixtures", type=int, default=200, help="Entradas sintéticas de paridad")
+    parser.add_argument("--fixtures-csv", type=Path, help="CSV con entradas reales de paridad (opcional)")
+    args = parser.parse_args()
+
+    from src.main import feature_names, pipeline
+
+    inputs = csv_inputs(args.fixtures_csv) if args.fixtures_csv else []
+    inputs += synthetic_inputs(args.fixtures)
+    outputs = score_like_service(inputs)
+
+    export = export_model(pipeline, feature_names)
+    export["exported_at"] = datetime.now().isoformat(timespec="seconds")
+    export["parity_fixtures"] = [{"input": i, **o} for i, o in zip(inputs, outputs)]
+
+    args.output.parent.mkdir(parents=True, exist_ok=True)
+    with open(args.output, "w", encoding="utf-8") as f:
+        json.dump(export, f, ensure_ascii=False)
+
+    n_nodes = sum(len(t["feature"]) for t in export["trees"])
+    print(f"✅ Modelo exportado: {args.output}")
+    print(f"   - {len(export['trees'])} árboles, {n_nodes} nodos, {len(export['features'])} features")
+    print(f"   - {len(export['parity_fixtures'])} fixtures de paridad")
+
+
+if __name__ == "__main__":
+    main()
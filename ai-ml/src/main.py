@@ -3,7 +3,8 @@ RetainAI - Prediction Engine (Production)
 Modelo: 11_production_pipeline.pkl (24 features, sin data leakage)
 """
 
-from fastapi import FastAPI, HTTPException
+from fastapi import FastAPI, HTTPException, Request
+from fastapi.concurrency import run_in_threadpool
 from fastapi.middleware.cors import CORSMiddleware
 from pydantic import BaseModel
 import joblib
@@ -12,6 +13,7 @@ import numpy as np
 from pathlib import Path
 from typing import Optional, List
 import sys
+import zlib
 from sklearn.base import BaseEstimator, TransformerMixin
 
 # IMPORTANTE: Definir clases custom ANTES de cargar el modelo
@@ -118,6 +120,13 @@ class PredictionInput(BaseModel):
     tiempo_sesion_promedio: float
 
 
+# ========== FORMATO COMPACTO (/predict/batch/compact) ==========
+# Columnas del lote compacto: mismo orden que PredictionInput, codigo_postal ya numérico.
+# Debe coincidir con FeatureMatrix.COLUMNS del backend Java.
+COMPACT_COLUMNS = list(PredictionInput.model_fields.keys())
+COMPACT_INT_COLUMNS = [name for name, field in PredictionInput.model_fields.items() if field.annotation is int]
+
+
 class PredictionOutput(BaseModel):
     probability: float
     main_factor: str
@@ -130,9 +139,11 @@ def codigo_postal_to_numeric(codigo_postal: str) -> float:
     """Convierte codigo postal a valor numérico"""
     try:
         return float(codigo_postal)
-    except:
-        # Si no se puede convertir, usar hash o valor default
-        return float(abs(hash(codigo_postal)) % 100000)
+    except ValueError:
+        # No numérico: CRC32 de los bytes UTF-8 (estable entre procesos, igual
+        # que FeatureMatrix.codigoPostalToNumeric en Java). hash() de Python
+        # lleva semilla aleatoria y daba un valor distinto en cada arranque.
+        return float(zlib.crc32(codigo_postal.encode("utf-8")) % 100000)
 
 
 # ========== EXPLICACIÓN DINÁMICA SIMPLIFICADA ==========
@@ -213,6 +224,55 @@ def select_best_actionable_factor(feature_importances: list, input_data: dict) -
     return feature_importances[0]
 
 
+def score_batch(df: pd.DataFrame, customer_dicts: list) -> list:
+    """
+    Predicción + XAI para un lote ya convertido a DataFrame.
+    Compartido por /predict/batch y /predict/batch/compact.
+    """
+    probabilities = pipeline.predict_proba(df)
+
+    # Feature importances del modelo
+    model = pipeline.named_steps['model']
+    importances = model.feature_importances_
+
+    results = []
+    for idx, (probs, customer_dict) in enumerate(zip(probabilities, customer_dicts)):
+        prob_churn = probs[1]
+
+        # Nota: nivel_riesgo se calcula en el backend Java (@PrePersist)
+        # Python solo devuelve la probabilidad
+
+        # Seleccionar main factor
+        feature_importance_list = []
+        for feat, imp in zip(feature_names, importances):
+            value = customer_dict.get(feat, 0)
+            if isinstance(value, str):
+                value = codigo_postal_to_numeric(value)
+            feature_importance_list.append((feat, imp, float(value)))
+
+        feature_importance_list.sort(key=lambda x: x[1], reverse=True)
+
+        main_feat, main_imp, main_value = select_best_actionable_factor(
+            feature_importance_list,
+            customer_dict
+        )
+
+        main_factor = generate_explanation_simple(main_feat, main_value)
+        next_best_action = generate_action(main_factor, customer_dict)
+
+        results.append({
+            "probability": round(prob_churn, 4),
+            "main_factor": main_factor,
+            "next_best_action": next_best_action
+        })
+
+        # Log cada 1000 clientes
+        if (idx + 1) % 1000 == 0:
+            print(f"   ✅ Procesados {idx + 1}/{len(customer_dicts)} clientes")
+
+    return results
+
+
 # ========== ENDPOINTS ==========
 
 @app.get("/")
@@ -349,57 +409,59 @@ def predict_churn_batch(customers: List[PredictionInput]):
         df = pd.DataFrame(customer_dicts)
 
         # 2. Predicción batch (MUCHO más rápido que una por una)
-        predictions = pipeline.predict(df)
-        probabilities = pipeline.predict_proba(df)
+        results = score_batch(df, customer_dicts)
 
-        # 3. Obtener feature importances del modelo
-        model = pipeline.named_steps['model']
-        importances = model.feature_importances_
+        print(f"✅ [BATCH] Completado: {len(results)} predicciones generadas")
+        return results
+
+    except Exception as e:
+        print(f"❌ [BATCH ERROR] {str(e)}")
+        import traceback
+        traceback.print_exc()
+        raise HTTPException(status_code=500, detail=f"Error en predicción batch: {str(e)}")
 
-        # 4. Procesar cada resultado
-        results = []
-        for idx, (pred_class, probs, customer_dict) in enumerate(zip(predictions, probabilities, customer_dicts)):
-            prob_churn = probs[1]
 
-            # Nota: nivel_riesgo se calcula en el backend Java (@PrePersist)
-            # Python solo devuelve la probabilidad
+@app.post("/predict/batch/compact")
+async def predict_churn_batch_compact(request: Request):
+    """
+    Predicción batch con payload binario (sin JSON por cliente).
 
-            # Seleccionar main factor
-            feature_importance_list = []
-            for feat, imp in zip(feature_names, importances):
-                value = customer_dict.get(feat, 0)
-                if isinstance(value, str):
-                    value = codigo_postal_to_numeric(value)
-                feature_importance_list.append((feat, imp, float(value)))
+    Body: float64 little-endian, fila a fila (row-major), columnas en el orden
+    de COMPACT_COLUMNS (GET /features -> compact_columns). La cabecera
+    X-Feature-Columns debe traer ese mismo orden separado por comas.
 
-            feature_importance_list.sort(key=lambda x: x[1], reverse=True)
+    Returns:
+        Lista de predicciones (mismo formato que /predict/batch), en el orden de las filas
+    """
+    columns = request.headers.get("x-feature-columns")
+    if columns is not None and columns.split(",") != COMPACT_COLUMNS:
+        raise HTTPException(status_code=400, detail=f"Orden de columnas distinto al esperado: {COMPACT_COLUMNS}")
 
-            main_feat, main_imp, main_value = select_best_actionable_factor(
-                feature_importance_list,
-                customer_dict
-            )
+    body = await request.body()
+    row_bytes = 8 * len(COMPACT_COLUMNS)
+    if len(body) % row_bytes != 0:
+        raise HTTPException(status_code=400,
+                            detail=f"Tamaño de payload inválido: {len(body)} bytes no es múltiplo de {row_bytes}")
 
-            main_factor = generate_explanation_simple(main_feat, main_value)
-            next_best_action = generate_action(main_factor, customer_dict)
+    try:
+        matrix = np.frombuffer(body, dtype="<f8").reshape(-1, len(COMPACT_COLUMNS))
+        print(f"🚀 [BATCH COMPACT] Procesando {len(matrix)} clientes ({len(body)} bytes)...")
 
-            results.append({
-                "probability": round(prob_churn, 4),
-                "main_factor": main_factor,
-                "next_best_action": next_best_action
-            })
+        df = pd.DataFrame(matrix, columns=COMPACT_COLUMNS)
+        # Mismos tipos que el camino JSON (los enteros llegan como float64)
+        df[COMPACT_INT_COLUMNS] = df[COMPACT_INT_COLUMNS].astype(np.int64)
 
-            # Log cada 1000 clientes
-            if (idx + 1) % 1000 == 0:
-                print(f"   ✅ Procesados {idx + 1}/{len(customers)} clientes")
+        # El scoring es CPU: fuera del event loop para no bloquear otras peticiones en vuelo
+        results = await run_in_threadpool(score_batch, df, df.to_dict(orient="records"))
 
-        print(f"✅ [BATCH] Completado: {len(results)} predicciones generadas")
+        print(f"✅ [BATCH COMPACT] Completado: {len(results)} predicciones generadas")
         return results
 
     except Exception as e:
-        print(f"❌ [BATCH ERROR] {str(e)}")
+        print(f"❌ [BATCH COMPACT ERROR] {str(e)}")
         import traceback
         traceback.print_exc()
-        raise HTTPException(status_code=500, detail=f"Error en predicción batch: {str(e)}")
+        raise HTTPException(status_code=500, detail=f"Error en predicción batch compacta: {str(e)}")
 
 
 @app.get("/health")
@@ -414,5 +476,6 @@ def get_features():
     return {
         "features": list(feature_names),
         "count": len(feature_names),
+        "compact_columns": COMPACT_COLUMNS,
         "model_version": "11_production_pipeline"
     }
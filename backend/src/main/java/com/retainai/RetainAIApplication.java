@@ -3,9 +3,11 @@ package com.retainai;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableCaching // ✅ Habilita el sistema de caché
+@EnableScheduling // ⏰ Tareas programadas (retención del historial)
 public class RetainAIApplication {
     public static void main(String[] args) {
         SpringApplication.run(RetainAIApplication.class, args);
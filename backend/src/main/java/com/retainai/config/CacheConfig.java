@@ -0,0 +1,93 @@
+package com.retainai.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 🗄️ Cachés en memoria (Caffeine) con tamaño máximo, TTL y estadísticas
+ *
+ * Sin CacheManager propio, @EnableCaching usa ConcurrentHashMap: sin límite
+ * ni expiración. Aquí cada caché tiene su propia configuración:
+ *
+ * - predictions: near-cache acotada delante de customer_latest_prediction
+ *   (la BD es el segundo nivel, lectura por PK). Solo guarda los clientes
+ *   calientes; con millones de clientes el resto se lee de la BD. Las
+ *   escrituras de predicciones la invalidan (PredictionsWrittenEvent).
+ * - dashboardStats: una entrada que DashboardService recalcula y reemplaza
+ *   en segundo plano (al arrancar, periódicamente y tras cambios masivos),
+ *   nunca se invalida. ttl solo la descarta si el recálculo lleva mucho
+ *   tiempo fallando.
+ * - priorityInsights: pocas entradas (una por "limit"), 15 minutos.
+ * - mapTiles: vector tiles (MVT) ya codificados por z/x/y. MapTileService
+ *   invalida los tiles de los clientes con predicciones nuevas.
+ *
+ * Las estadísticas (hits, misses, evictions) se ven en GET /api/cache/stats.
+ */
+@Configuration
+public class CacheConfig {
+
+    public static final String PREDICTIONS = "predictions";
+    public static final String DASHBOARD_STATS = "dashboardStats";
+    public static final String PRIORITY_INSIGHTS = "priorityInsights";
+    public static final String MAP_TILES = "mapTiles";
+
+    @Value("${app.cache.predictions.max-size:200000}")
+    private long predictionsMaxSize;
+
+    @Value("${app.cache.predictions.ttl:30m}")
+    private Duration predictionsTtl;
+
+    @Value("${app.cache.dashboard-stats.ttl:1h}")
+    private Duration dashboardStatsTtl;
+
+    @Value("${app.cache.priority-insights.max-size:50}")
+    private long priorityInsightsMaxSize;
+
+    @Value("${app.cache.priority-insights.ttl:15m}")
+    private Duration priorityInsightsTtl;
+
+    @Value("${app.cache.map-tiles.max-size:20000}")
+    private long mapTilesMaxSize;
+
+    @Value("${app.cache.map-tiles.ttl:1h}")
+    private Duration mapTilesTtl;
+
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCache predictions = new CaffeineCache(PREDICTIONS, Caffeine.newBuilder()
+                .maximumSize(predictionsMaxSize)
+                .expireAfterWrite(predictionsTtl)
+                .recordStats()
+                .build());
+
+        CaffeineCache dashboardStats = new CaffeineCache(DASHBOARD_STATS, Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(dashboardStatsTtl)
+                .recordStats()
+                .build());
+
+        CaffeineCache priorityInsights = new CaffeineCache(PRIORITY_INSIGHTS, Caffeine.newBuilder()
+                .maximumSize(priorityInsightsMaxSize)
+                .expireAfterWrite(priorityInsightsTtl)
+                .recordStats()
+                .build());
+
+        CaffeineCache mapTiles = new CaffeineCache(MAP_TILES, Caffeine.newBuilder()
+                .maximumSize(mapTilesMaxSize)
+                .expireAfterWrite(mapTilesTtl)
+                .recordStats()
+                .build());
+
+        SimpleCacheManager cacheManager = new SimpleCacheManager();
+        cacheManager.setCaches(List.of(predictions, dashboardStats, priorityInsights, mapTiles));
+        return cacheManager;
+    }
+}
@@ -0,0 +1,62 @@
+package com.retainai.config;
+
+import com.retainai.service.QueryPlanChecker;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+/**
+ * 🗂️ Migraciones versionadas (Flyway, src/main/resources/db/migration)
+ *
+ * Las tablas las sigue creando Hibernate (ddl-auto=update), así que Flyway
+ * no puede ir antes que JPA como hace Spring Boot por defecto: en una BD
+ * vacía los CREATE INDEX fallarían. La estrategia solo guarda la instancia
+ * y la migración se aplica al arrancar la aplicación, antes que el resto de
+ * listeners de ApplicationReadyEvent.
+ *
+ * Una BD existente sin flyway_schema_history se marca con la versión 0
+ * (spring.flyway.baseline-*), de modo que V1 también se aplica en ella.
+ */
+@Slf4j
+@Configuration
+public class SchemaMigrationConfig {
+
+    private volatile Flyway flyway;
+
+    @Bean
+    public FlywayMigrationStrategy deferredFlywayMigrationStrategy() {
+        return deferred -> this.flyway = deferred;
+    }
+
+    /**
+     * Registra el StatementInspector con el que QueryPlanChecker obtiene el
+     * SQL de las consultas JPQL
+     */
+    @Bean
+    public HibernatePropertiesCustomizer sqlCaptureCustomizer() {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR,
+                QueryPlanChecker.SQL_CAPTURE);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void migrateAfterHibernate() {
+        if (flyway == null) {
+            return;
+        }
+        MigrateResult result = flyway.migrate();
+        if (result.migrationsExecuted > 0) {
+            log.info("🗂️ Migraciones aplicadas: {} (esquema en versión {})",
+                    result.migrationsExecuted, result.targetSchemaVersion);
+        }
+    }
+}
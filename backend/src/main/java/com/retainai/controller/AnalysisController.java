@@ -25,6 +25,8 @@ public class AnalysisController {
      * 2. Llama al modelo de IA para predecir cada uno
      * 3. Guarda los resultados en ai_predictions con timestamp
      * 4. Retorna estadísticas del análisis
+     *
+     * ⚠️ Síncrono: para no bloquear la petición usar POST /api/batch-jobs/analyze-all
      */
     @PostMapping("/analyze-all")
     public ResponseEntity<AnalysisResponseDto> analyzeAllCustomers() {
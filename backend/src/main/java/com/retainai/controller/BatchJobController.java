@@ -0,0 +1,111 @@
+package com.retainai.controller;
+
+import com.retainai.dto.BatchJobStatusDTO;
+import com.retainai.service.BatchJobService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * ⏳ Jobs de predicción masiva (asíncronos)
+ *
+ * Alternativa a /api/customers/predict/batch-all y /api/predictions/analyze-all
+ * que no bloquea la petición: devuelve 202 + jobId y el progreso se consulta
+ * por polling. Los resultados por cliente quedan en ai_predictions.
+ * Si ya hay un job del mismo tipo pendiente o en curso, se devuelve ese.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/batch-jobs")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
+public class BatchJobController {
+
+    private final BatchJobService batchJobService;
+
+    /**
+     * POST: /api/batch-jobs/predict-all
+     * POST: /api/batch-jobs/predict-all?mode=delta - solo clientes con cambios
+     */
+    @PostMapping("/predict-all")
+    public ResponseEntity<BatchJobStatusDTO> submitPredictAll(
+            @RequestParam(defaultValue = "full") String mode) {
+        boolean delta = "delta".equalsIgnoreCase(mode);
+        log.info("⏳ [API] Nuevo job de predicción masiva ({})", delta ? "delta" : "completa");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(batchJobService.submit(delta
+                        ? BatchJobService.JobType.PREDICT_DELTA
+                        : BatchJobService.JobType.PREDICT_ALL));
+    }
+
+    /**
+     * POST: /api/batch-jobs/analyze-all
+     */
+    @PostMapping("/analyze-all")
+    public ResponseEntity<BatchJobStatusDTO> submitAnalyzeAll() {
+        log.info("⏳ [API] Nuevo job de análisis completo");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(batchJobService.submit(BatchJobService.JobType.ANALYZE_ALL));
+    }
+
+    /**
+     * POST: /api/batch-jobs/backfill-latest - reconstruye customer_latest_prediction
+     * desde el historial de ai_predictions
+     */
+    @PostMapping("/backfill-latest")
+    public ResponseEntity<BatchJobStatusDTO> submitBackfillLatest() {
+        log.info("⏳ [API] Nuevo job de backfill de última predicción");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(batchJobService.submit(BatchJobService.JobType.BACKFILL_LATEST));
+    }
+
+    /**
+     * POST: /api/batch-jobs/compact-history - aplica la retención de ai_predictions
+     * (últimas N, una por día / semana en lo antiguo, particiones)
+     */
+    @PostMapping("/compact-history")
+    public ResponseEntity<BatchJobStatusDTO> submitCompactHistory() {
+        log.info("⏳ [API] Nuevo job de retención del historial de predicciones");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(batchJobService.submit(BatchJobService.JobType.COMPACT_HISTORY));
+    }
+
+    /**
+     * POST: /api/batch-jobs/populate-coordinates - ubicaciones reales de NY y
+     * predicción sintética por bloques (igual que /api/geo/populate, con progreso)
+     */
+    @PostMapping("/populate-coordinates")
+    public ResponseEntity<BatchJobStatusDTO> submitPopulateCoordinates() {
+        log.info("⏳ [API] Nuevo job de población de coordenadas");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(batchJobService.submit(BatchJobService.JobType.POPULATE_COORDINATES));
+    }
+
+    /**
+     * GET: /api/batch-jobs
+     */
+    @GetMapping
+    public ResponseEntity<List<BatchJobStatusDTO>> listJobs() {
+        return ResponseEntity.ok(batchJobService.listJobs());
+    }
+
+    /**
+     * GET: /api/batch-jobs/{jobId} - progreso, contadores y throughput
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<BatchJobStatusDTO> getStatus(@PathVariable String jobId) {
+        return ResponseEntity.ok(batchJobService.getStatus(jobId));
+    }
+
+    /**
+     * DELETE: /api/batch-jobs/{jobId} - cancela el job
+     */
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<BatchJobStatusDTO> cancel(@PathVariable String jobId) {
+        return ResponseEntity.ok(batchJobService.cancel(jobId));
+    }
+}
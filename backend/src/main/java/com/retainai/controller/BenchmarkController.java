@@ -0,0 +1,77 @@
+package com.retainai.controller;
+
+import com.retainai.service.BenchmarkService;
+import com.retainai.service.QueryPlanChecker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * ⏱️ Endpoints de benchmark (uso interno / admin)
+ */
+@RestController
+@RequestMapping("/api/benchmarks")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
+public class BenchmarkController {
+
+    private final BenchmarkService benchmarkService;
+    private final QueryPlanChecker queryPlanChecker;
+
+    /**
+     * Extracción de features: entidades JPA (N+1) vs JOIN JDBC
+     * Llama a: curl http://localhost:8080/api/benchmarks/feature-extraction?customers=5000
+     */
+    @GetMapping("/feature-extraction")
+    public ResponseEntity<Map<String, Object>> featureExtraction(
+            @RequestParam(defaultValue = "5000") int customers) {
+        int limit = Math.max(1, Math.min(customers, 50000));
+        return ResponseEntity.ok(benchmarkService.benchmarkFeatureExtraction(limit));
+    }
+
+    /**
+     * Lote de scoring: DTOs + JSON vs FeatureMatrix + float64 (memoria y bytes)
+     * Llama a: curl http://localhost:8080/api/benchmarks/feature-matrix?customers=5000
+     */
+    @GetMapping("/feature-matrix")
+    public ResponseEntity<Map<String, Object>> featureMatrix(
+            @RequestParam(defaultValue = "5000") int customers) {
+        int limit = Math.max(1, Math.min(customers, 50000));
+        return ResponseEntity.ok(benchmarkService.benchmarkFeatureMatrix(limit));
+    }
+
+    /**
+     * Última predicción por cliente: historial completo vs ROW_NUMBER() vs proyección
+     * Llama a: curl http://localhost:8080/api/benchmarks/latest-lookup?customers=1000
+     */
+    @GetMapping("/latest-lookup")
+    public ResponseEntity<Map<String, Object>> latestLookup(
+            @RequestParam(defaultValue = "1000") int customers) {
+        int limit = Math.max(1, Math.min(customers, 10000));
+        return ResponseEntity.ok(benchmarkService.benchmarkLatestLookup(limit));
+    }
+
+    /**
+     * EXPLAIN de las @Query de Customer/Prediction/SubscriptionRepository
+     * (full scans marcados)
+     * Llama a: curl http://localhost:8080/api/benchmarks/query-plans
+     */
+    @GetMapping("/query-plans")
+    public ResponseEntity<Map<String, Object>> queryPlans() {
+        return ResponseEntity.ok(queryPlanChecker.report());
+    }
+
+    /**
+     * Motor de scoring JVM: paridad con Python (fixtures del modelo exportado)
+     * y latencia por predicción
+     * Llama a: curl http://localhost:8080/api/benchmarks/scoring?iterations=100000
+     */
+    @GetMapping("/scoring")
+    public ResponseEntity<Map<String, Object>> scoring(
+            @RequestParam(defaultValue = "100000") int iterations) {
+        int limit = Math.max(1, Math.min(iterations, 10_000_000));
+        return ResponseEntity.ok(benchmarkService.benchmarkScoring(limit));
+    }
+}
@@ -0,0 +1,68 @@
+package com.retainai.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 🗄️ Estado de las cachés Caffeine (uso interno / admin)
+ */
+@RestController
+@RequestMapping("/api/cache")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
+public class CacheController {
+
+    private final CacheManager cacheManager;
+
+    /**
+     * Tamaño, hits, misses, evictions y cargas de cada caché
+     * Llama a: curl http://localhost:8080/api/cache/stats
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String name : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache instanceof CaffeineCache caffeineCache) {
+                com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache = caffeineCache.getNativeCache();
+                CacheStats stats = nativeCache.stats();
+
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("size", nativeCache.estimatedSize());
+                entry.put("hits", stats.hitCount());
+                entry.put("misses", stats.missCount());
+                entry.put("hitRate", stats.hitRate());
+                entry.put("evictions", stats.evictionCount());
+                entry.put("loads", stats.loadSuccessCount());
+                entry.put("loadFailures", stats.loadFailureCount());
+                entry.put("avgLoadMs", stats.averageLoadPenalty() / 1_000_000.0);
+                nativeCache.policy().eviction()
+                        .ifPresent(eviction -> entry.put("maxSize", eviction.getMaximum()));
+                result.put(name, entry);
+            }
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Vacía una caché por nombre
+     * Llama a: curl -X DELETE http://localhost:8080/api/cache/predictions
+     */
+    @DeleteMapping("/{name}")
+    public ResponseEntity<Map<String, Object>> clear(@PathVariable String name) {
+        Cache cache = cacheManager.getCache(name);
+        if (cache == null) {
+            return ResponseEntity.notFound().build();
+        }
+        cache.clear();
+        return ResponseEntity.ok(Map.of("cache", name, "cleared", true));
+    }
+}
@@ -3,18 +3,24 @@ package com.retainai.controller;
 import com.retainai.dto.ContractAnalysisDTO;
 import com.retainai.dto.CustomerSegmentDTO;
 import com.retainai.dto.DashboardStatsDto;
-import com.retainai.dto.HeatmapPointDto;
+import com.retainai.dto.GeoClusterDto;
 import com.retainai.dto.SupportAnalysisDTO;
+import com.retainai.service.BiCubeService;
 import com.retainai.service.BiDashboardService;
 import com.retainai.service.DashboardService;
+import com.retainai.service.GeoClusterService;
 import com.retainai.service.InsightsService;
+import com.retainai.service.KpiCounterService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,6 +33,9 @@ public class DashboardStatsController {
     private final BiDashboardService biService;
     private final InsightsService insightsService;
     private final com.retainai.service.AlertsService alertsService;
+    private final KpiCounterService kpiCounterService;
+    private final BiCubeService biCubeService;
+    private final GeoClusterService geoClusterService;
 
     @GetMapping("/stats")
     public ResponseEntity<DashboardStatsDto> getDashBoardStats() {
@@ -36,19 +45,32 @@ public class DashboardStatsController {
     /**
      * Endpoint para obtener datos geográficos del heatmap de churn
      * GET /api/dashboard/heatmap
-     * Retorna lista de puntos con coordenadas y nivel de riesgo
+     * Retorna lista de puntos con coordenadas y nivel de riesgo (última
+     * predicción), escrita en la respuesta según se lee de la BD
      */
-    @GetMapping("/heatmap")
-    public ResponseEntity<List<HeatmapPointDto>> getHeatmapData(
+    @GetMapping(value = "/heatmap", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getHeatmapData(
             @RequestParam(required = false) String city) {
 
         // Si se especifica ciudad, filtrar por esa ciudad
-        if (city != null && !city.isEmpty()) {
-            return ResponseEntity.ok(stats.getHeatmapDataByCity(city));
-        }
+        String cityFilter = city != null && !city.isEmpty() ? city : null;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> stats.writeHeatmap(cityFilter, out));
+    }
 
-        // Si no, retornar todos los clientes
-        return ResponseEntity.ok(stats.getHeatmapData());
+    /**
+     * Heatmap agregado por zoom y viewport (mismo motor que /api/geo/clusters)
+     * GET /api/dashboard/heatmap/clusters?zoom=11&minLat=..&minLng=..&maxLat=..&maxLng=..
+     */
+    @GetMapping("/heatmap/clusters")
+    public ResponseEntity<List<GeoClusterDto>> getHeatmapClusters(
+            @RequestParam int zoom,
+            @RequestParam(required = false) Double minLat,
+            @RequestParam(required = false) Double minLng,
+            @RequestParam(required = false) Double maxLat,
+            @RequestParam(required = false) Double maxLng) {
+        return ResponseEntity.ok(geoClusterService.clusters(zoom, minLat, minLng, maxLat, maxLng));
     }
 
     /**
@@ -58,9 +80,8 @@ public class DashboardStatsController {
     @GetMapping("/heatmap/count")
     public ResponseEntity<Map<String, Object>> getHeatmapCount() {
         try {
-            List<HeatmapPointDto> data = stats.getHeatmapData();
             return ResponseEntity.ok(Map.of(
-                    "count", data.size(),
+                    "count", stats.countHeatmapPoints(),
                     "message", "Clientes con coordenadas encontrados"));
         } catch (Exception e) {
             return ResponseEntity.ok(Map.of(
@@ -72,13 +93,23 @@ public class DashboardStatsController {
     /**
      * Endpoint para obtener alertas críticas dinámicas
      * GET /api/dashboard/alerts
-     * Retorna lista de alertas calculadas desde la BD
+     * Retorna lista de alertas calculadas desde contadores en memoria
      */
     @GetMapping("/alerts")
     public ResponseEntity<List<com.retainai.dto.CriticalAlertDto>> getCriticalAlerts() {
         return ResponseEntity.ok(alertsService.getCriticalAlerts());
     }
 
+    /**
+     * Estado de los contadores de alertas: valores, última reconciliación con
+     * la BD y la deriva que corrigió
+     * GET /api/dashboard/kpi-counters
+     */
+    @GetMapping("/kpi-counters")
+    public ResponseEntity<Map<String, Object>> getKpiCounters() {
+        return ResponseEntity.ok(kpiCounterService.status());
+    }
+
     // ========== ENDPOINTS DE BI - DEPRECADOS ==========
     // ⚠️ ESTOS ENDPOINTS LLAMABAN A api_dashboard.py (ELIMINADO POR DATOS FALSOS)
     // TODO: Reimplementar con consultas MySQL reales o eliminar si no se usan
@@ -124,12 +155,11 @@ public class DashboardStatsController {
     // return ResponseEntity.ok(biService.getTopRiskCustomers(limit));
     // }
 
-    // ========== NUEVOS ENDPOINTS (consultan MySQL directamente) ==========
+    // ========== NUEVOS ENDPOINTS (cortes del cubo BI en memoria) ==========
 
     /**
      * Obtiene análisis de contratos (Mensual vs Anual vs Bienal)
      * GET /api/dashboard/bi/contracts
-     * Consulta MySQL directamente
      */
     @GetMapping("/bi/contracts")
     public ResponseEntity<Map<String, List<ContractAnalysisDTO>>> getContractAnalysis() {
@@ -140,7 +170,6 @@ public class DashboardStatsController {
     /**
      * Obtiene análisis de soporte por tickets
      * GET /api/dashboard/bi/support
-     * Consulta MySQL directamente
      */
     @GetMapping("/bi/support")
     public ResponseEntity<Map<String, List<SupportAnalysisDTO>>> getSupportAnalysis() {
@@ -151,11 +180,35 @@ public class DashboardStatsController {
     /**
      * Obtiene segmentación de clientes por revenue y riesgo
      * GET /api/dashboard/bi/segmentation
-     * Consulta MySQL directamente
      */
     @GetMapping("/bi/segmentation")
     public ResponseEntity<Map<String, List<CustomerSegmentDTO>>> getCustomerSegmentation() {
         List<CustomerSegmentDTO> segments = insightsService.getCustomerSegmentation();
         return ResponseEntity.ok(Map.of("segments", segments));
     }
+
+    /**
+     * Corte libre del cubo BI
+     * GET /api/dashboard/bi/cube?groupBy=contract,borough&churned=true&tickets=6%2B
+     * Dimensiones: contract, tickets, segment, churned, borough. El resto de
+     * parámetros filtran por valor exacto.
+     */
+    @GetMapping("/bi/cube")
+    public ResponseEntity<Map<String, Object>> getCubeSlice(
+            @RequestParam(required = false) List<String> groupBy,
+            @RequestParam Map<String, String> params) {
+        List<BiCubeService.Dimension> dimensions = groupBy == null ? List.of()
+                : groupBy.stream().map(BiCubeService.Dimension::fromParam).toList();
+
+        Map<BiCubeService.Dimension, String> filters = new EnumMap<>(BiCubeService.Dimension.class);
+        params.forEach((name, value) -> {
+            if (!name.equals("groupBy")) {
+                filters.put(BiCubeService.Dimension.fromParam(name), value);
+            }
+        });
+
+        return ResponseEntity.ok(Map.of(
+                "rows", biCubeService.slice(dimensions, filters),
+                "cube", biCubeService.status()));
+    }
 }
\ No newline at end of file
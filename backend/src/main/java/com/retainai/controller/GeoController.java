@@ -1,7 +1,15 @@
 package com.retainai.controller;
 
+import com.retainai.dto.GeoClusterDto;
 import com.retainai.dto.GeoCustomerDto;
+import com.retainai.dto.GeoNeighborDto;
+import com.retainai.service.CustomerSpatialIndex;
+import com.retainai.service.GeoClusterService;
 import com.retainai.service.GeoLocationService;
+import com.retainai.service.MapTileService;
+import com.retainai.util.MvtEncoder;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -14,9 +22,16 @@ import java.util.Map;
 public class GeoController {
 
     private final GeoLocationService geoService;
+    private final GeoClusterService geoClusterService;
+    private final CustomerSpatialIndex spatialIndex;
+    private final MapTileService mapTileService;
 
-    public GeoController(GeoLocationService geoService) {
+    public GeoController(GeoLocationService geoService, GeoClusterService geoClusterService,
+            CustomerSpatialIndex spatialIndex, MapTileService mapTileService) {
         this.geoService = geoService;
+        this.geoClusterService = geoClusterService;
+        this.spatialIndex = spatialIndex;
+        this.mapTileService = mapTileService;
     }
 
     /**
@@ -65,4 +80,95 @@ public class GeoController {
 
         return ResponseEntity.ok(geoService.getCustomersForMap(safeLimit));
     }
+
+    /**
+     * 🗺️ MAPBOX ENDPOINT - Clusters precalculados
+     * Celdas agregadas (cantidad, churn medio, ingresos en riesgo, riesgo
+     * dominante) del zoom del mapa dentro del viewport: el tamaño de la
+     * respuesta depende del viewport, no del número de clientes.
+     * Llama a: GET /api/geo/clusters?zoom=12&minLat=40.5&minLng=-74.3&maxLat=40.9&maxLng=-73.7
+     */
+    @GetMapping("/clusters")
+    public ResponseEntity<List<GeoClusterDto>> getGeoClusters(
+            @RequestParam int zoom,
+            @RequestParam(required = false) Double minLat,
+            @RequestParam(required = false) Double minLng,
+            @RequestParam(required = false) Double maxLat,
+            @RequestParam(required = false) Double maxLng) {
+        return ResponseEntity.ok(geoClusterService.clusters(zoom, minLat, minLng, maxLat, maxLng));
+    }
+
+    /**
+     * 📍 Clientes dentro del viewport (índice espacial en memoria)
+     * Llama a: GET /api/geo/customers/bbox?minLat=40.70&minLng=-74.02&maxLat=40.75&maxLng=-73.97
+     *
+     * @param limit Máximo de puntos a devolver (default: 1000, max: 5000)
+     */
+    @GetMapping("/customers/bbox")
+    public ResponseEntity<List<GeoCustomerDto>> getCustomersInBoundingBox(
+            @RequestParam double minLat,
+            @RequestParam double minLng,
+            @RequestParam double maxLat,
+            @RequestParam double maxLng,
+            @RequestParam(defaultValue = "1000") int limit) {
+        return ResponseEntity.ok(spatialIndex.boundingBox(minLat, minLng, maxLat, maxLng, Math.min(limit, 5000)));
+    }
+
+    /**
+     * 📍 Los k clientes más cercanos a un punto, con su distancia en metros
+     * Llama a: GET /api/geo/customers/nearest?lat=40.7484&lng=-73.9857&k=10
+     *
+     * @param k Número de vecinos (default: 10, max: 1000)
+     */
+    @GetMapping("/customers/nearest")
+    public ResponseEntity<List<GeoNeighborDto>> getNearestCustomers(
+            @RequestParam double lat,
+            @RequestParam double lng,
+            @RequestParam(defaultValue = "10") int k) {
+        return ResponseEntity.ok(spatialIndex.nearest(lat, lng, Math.min(k, 1000)));
+    }
+
+    /**
+     * 📍 Clientes a menos de radius metros de un punto (del más cercano al más lejano)
+     * Llama a: GET /api/geo/customers/within?lat=40.7484&lng=-73.9857&radius=500
+     *
+     * @param limit Máximo de puntos a devolver (default: 1000, max: 5000)
+     */
+    @GetMapping("/customers/within")
+    public ResponseEntity<List<GeoNeighborDto>> getCustomersWithinRadius(
+            @RequestParam double lat,
+            @RequestParam double lng,
+            @RequestParam double radius,
+            @RequestParam(defaultValue = "1000") int limit) {
+        return ResponseEntity.ok(spatialIndex.withinRadius(lat, lng, radius, Math.min(limit, 5000)));
+    }
+
+    /**
+     * Estado del índice espacial: clientes indexados y última reconstrucción
+     */
+    @GetMapping("/index/status")
+    public ResponseEntity<Map<String, Object>> getSpatialIndexStatus() {
+        return ResponseEntity.ok(spatialIndex.status());
+    }
+
+    /**
+     * 🧱 MAPBOX ENDPOINT - Vector tiles (MVT)
+     * Fuente "vector" de Mapbox GL: tiles: ["http://localhost:8080/api/geo/tiles/{z}/{x}/{y}"]
+     * Capas: "clusters" (zoom bajo) y "customers" (un punto por cliente)
+     */
+    @GetMapping("/tiles/{z}/{x}/{y}")
+    public ResponseEntity<byte[]> getTile(@PathVariable int z, @PathVariable long x, @PathVariable long y) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(MvtEncoder.CONTENT_TYPE))
+                .cacheControl(CacheControl.noCache()) // Se revalida: cambia con cada predicción
+                .body(mapTileService.getTile(z, x, y));
+    }
+
+    /**
+     * Estado de la agregación: celdas por zoom y última reconstrucción
+     */
+    @GetMapping("/clusters/status")
+    public ResponseEntity<Map<String, Object>> getGeoClustersStatus() {
+        return ResponseEntity.ok(geoClusterService.status());
+    }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import com.retainai.dto.BatchPredictionResponseDTO;
 import com.retainai.dto.PredictionResponseDto;
 import com.retainai.service.CsvService;
 import com.retainai.service.PythonIntegrationService;
+import com.retainai.service.ScoringEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -12,7 +13,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @Slf4j
@@ -27,11 +27,16 @@ public class PredictionController {
     /**
      * Predicción individual
      * POST: /api/customers/{id}/predict
+     * POST: /api/customers/{id}/predict?engine=jvm - motor en proceso (sin HTTP a Python)
      */
     @PostMapping("/{id}/predict")
-    public ResponseEntity<PredictionResponseDto> predictChurn(@PathVariable String id) {
+    public ResponseEntity<PredictionResponseDto> predictChurn(@PathVariable String id,
+            @RequestParam(required = false) String engine) {
         log.info("🔮 Predicción individual para cliente: {}", id);
-        PredictionResponseDto response = pythonIntegrationService.predictChurnForCustomer(id);
+        PredictionResponseDto response = engine == null
+                ? pythonIntegrationService.predictChurnForCustomer(id)
+                : pythonIntegrationService.predictChurnForCustomer(id,
+                        ScoringEngine.from(engine, ScoringEngine.PYTHON));
         return ResponseEntity.ok(response);
     }
 
@@ -61,58 +66,11 @@ public class PredictionController {
             List<String> customerIds = csvService.parseCustomerIds(file);
             log.info("📋 Procesando {} clientes", customerIds.size());
 
-            // 3. Obtener predicciones para cada cliente
-            List<BatchPredictionResponseDTO.PredictionResult> results = new ArrayList<>();
-            int successCount = 0;
-            int errorCount = 0;
-
-            for (String customerId : customerIds) {
-                try {
-                    // Llamar al servicio de predicción
-                    PredictionResponseDto prediction = pythonIntegrationService.predictChurnForCustomer(customerId);
-
-                    // Crear resultado exitoso
-                    BatchPredictionResponseDTO.PredictionResult result = BatchPredictionResponseDTO.PredictionResult
-                            .builder()
-                            .customerId(customerId)
-                            .risk(prediction.getNivelRiesgo())
-                            .probability(prediction.getProbability())
-                            .mainFactor(prediction.getMainFactor())
-                            .nextBestAction(prediction.getNextBestAction())
-                            .error(null)
-                            .build();
-
-                    results.add(result);
-                    successCount++;
-
-                } catch (Exception e) {
-                    // Crear resultado con error
-                    BatchPredictionResponseDTO.PredictionResult result = BatchPredictionResponseDTO.PredictionResult
-                            .builder()
-                            .customerId(customerId)
-                            .risk(null)
-                            .probability(null)
-                            .mainFactor(null)
-                            .nextBestAction(null)
-                            .error(e.getMessage())
-                            .build();
-
-                    results.add(result);
-                    errorCount++;
-
-                    log.warn("⚠️  Error procesando cliente {}: {}", customerId, e.getMessage());
-                }
-            }
-
-            // 4. Construir respuesta
-            BatchPredictionResponseDTO response = BatchPredictionResponseDTO.builder()
-                    .totalProcessed(customerIds.size())
-                    .successCount(successCount)
-                    .errorCount(errorCount)
-                    .results(results)
-                    .build();
-
-            log.info("✅ Batch completado: {} éxitos, {} errores", successCount, errorCount);
+            // 3. Predicción en bloque: chunks → Python /predict/batch → INSERT multi-fila
+            BatchPredictionResponseDTO response = pythonIntegrationService.predictCustomers(customerIds);
+
+            log.info("✅ Batch completado: {} éxitos, {} errores", response.getSuccessCount(),
+                    response.getErrorCount());
 
             return ResponseEntity.ok(response);
 
@@ -166,14 +124,22 @@ public class PredictionController {
      * No requiere parámetros - predice automáticamente todos los clientes
      * Procesa en lotes de 1000 para optimizar rendimiento
      * Útil para reprocesamiento nocturno o migración de datos
+     * ?mode=delta: solo clientes cuyas features cambiaron desde su última predicción
+     *
+     * ⚠️ Síncrono: ocupa la petición hasta terminar y devuelve todos los resultados.
+     * Para la UI usar POST /api/batch-jobs/predict-all (202 + polling de progreso)
      */
     @PostMapping("/predict/batch-all")
-    public ResponseEntity<BatchPredictionResponseDTO> predictAllCustomers() {
-        log.info("🚀 [BATCH-ALL] Iniciando predicción masiva de todos los clientes...");
+    public ResponseEntity<BatchPredictionResponseDTO> predictAllCustomers(
+            @RequestParam(defaultValue = "full") String mode) {
+        boolean delta = "delta".equalsIgnoreCase(mode);
+        log.info("🚀 [BATCH-ALL] Iniciando predicción masiva ({})...", delta ? "delta" : "completa");
 
         try {
-            // Llamar al servicio de predicción masiva
-            BatchPredictionResponseDTO response = pythonIntegrationService.predictAllCustomers();
+            // Llamar al servicio de predicción masiva (delta = solo clientes con cambios)
+            BatchPredictionResponseDTO response = delta
+                    ? pythonIntegrationService.predictChangedCustomers()
+                    : pythonIntegrationService.predictAllCustomers();
 
             log.info("✅ [BATCH-ALL] Predicción masiva completada: {} éxitos, {} errores de {} totales",
                     response.getSuccessCount(),
@@ -0,0 +1,44 @@
+package com.retainai.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Estado de un job de predicción masiva en segundo plano.
+ * Los resultados por cliente quedan en ai_predictions, aquí solo van contadores.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchJobStatusDTO {
+    private String jobId;
+    private String type; // BatchJobService.JobType: "PREDICT_ALL", "ANALYZE_ALL", "PREDICT_DELTA", ...
+    private String status; // "QUEUED", "RUNNING", "CANCELLING", "COMPLETED", "CANCELLED", "FAILED"
+
+    private LocalDateTime submittedAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    private Long totalCustomers; // Clientes en BD al arrancar (para el % de progreso)
+    private Long processed; // éxitos + errores + saltados
+    private Long successCount;
+    private Long errorCount;
+    private Long skippedCount; // PREDICT_DELTA: clientes sin cambios (no se envían a Python)
+    private Double progressPercent;
+    private Double itemsPerSecond; // processed / tiempo transcurrido
+    private Long elapsedMillis;
+
+    // Distribución de riesgo de las predicciones guardadas en este job
+    private Long highRiskCount;
+    private Long mediumRiskCount;
+    private Long lowRiskCount;
+
+    private String message; // Primer error o motivo de fallo
+    private List<BatchPredictionResponseDTO.StageMetrics> stages; // Solo al terminar
+}
@@ -15,8 +15,13 @@ public class BatchPredictionResponseDTO {
     private Integer totalProcessed;
     private Integer successCount;
     private Integer errorCount;
+    private Integer skippedCount; // Solo en modo delta: clientes sin cambios desde su última predicción
     private List<PredictionResult> results;
 
+    // Solo en predicción masiva: duración total y rendimiento por etapa del pipeline
+    private Long durationMillis;
+    private List<StageMetrics> stages;
+
     @Data
     @Builder
     @NoArgsConstructor
@@ -29,4 +34,16 @@ public class BatchPredictionResponseDTO {
         private String nextBestAction;
         private String error;
     }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class StageMetrics {
+        private String stage; // "read", "map", "score", "persist"
+        private Long items; // Clientes que pasaron por la etapa
+        private Long busyMillis; // Tiempo de trabajo sumado (con N en vuelo puede superar activeMillis)
+        private Long activeMillis; // Ventana entre el primer y el último lote de la etapa
+        private Double itemsPerSecond; // items / activeMillis
+    }
 }
@@ -0,0 +1,53 @@
+package com.retainai.dto;
+
+/**
+ * 🧊 Una celda del cubo BI (BiCubeService): clientes de una combinación de
+ * dimensiones y las sumas con las que se calculan medias y tasas de cualquier
+ * corte
+ *
+ * Dimensiones: tipo de contrato, rango de tickets, segmento de ingresos,
+ * abandono histórico y borough. hasSubscription distingue a los clientes sin
+ * fila en subscriptions (cuentan en el análisis de soporte pero no en los de
+ * contrato y segmento). Las medidas pueden ser negativas cuando la celda es
+ * una variación (BiCubeDeltaEvent).
+ */
+public record BiCubeCell(
+        String contractType,
+        String ticketRange,
+        String revenueSegment,
+        boolean churned,
+        String borough,
+        boolean hasSubscription,
+        long customers,
+        long churnedCustomers,
+        double monthlyFeeSum,
+        long monthlyFeeCount,
+        double totalRevenueSum,
+        long totalRevenueCount) {
+
+    /**
+     * Combinación de dimensiones de la celda
+     */
+    public record Key(String contractType, String ticketRange, String revenueSegment, boolean churned,
+            String borough, boolean hasSubscription) {
+    }
+
+    public Key key() {
+        return new Key(contractType, ticketRange, revenueSegment, churned, borough, hasSubscription);
+    }
+
+    public BiCubeCell plus(BiCubeCell other) {
+        return new BiCubeCell(contractType, ticketRange, revenueSegment, churned, borough, hasSubscription,
+                customers + other.customers,
+                churnedCustomers + other.churnedCustomers,
+                monthlyFeeSum + other.monthlyFeeSum,
+                monthlyFeeCount + other.monthlyFeeCount,
+                totalRevenueSum + other.totalRevenueSum,
+                totalRevenueCount + other.totalRevenueCount);
+    }
+
+    public BiCubeCell negate() {
+        return new BiCubeCell(contractType, ticketRange, revenueSegment, churned, borough, hasSubscription,
+                -customers, -churnedCustomers, -monthlyFeeSum, -monthlyFeeCount, -totalRevenueSum, -totalRevenueCount);
+    }
+}
@@ -0,0 +1,11 @@
+package com.retainai.dto;
+
+import java.util.List;
+
+/**
+ * 📣 Variación del cubo BI producida por una escritura de clientes
+ * (importación CSV): celdas con medidas positivas (estado nuevo) y negativas
+ * (estado anterior) de los clientes afectados
+ */
+public record BiCubeDeltaEvent(List<BiCubeCell> cells) {
+}
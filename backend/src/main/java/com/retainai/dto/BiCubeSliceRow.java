@@ -0,0 +1,15 @@
+package com.retainai.dto;
+
+import java.util.Map;
+
+/**
+ * 🧊 Una fila de un corte del cubo BI: valores de las dimensiones agrupadas
+ * y medidas agregadas (churnRate en %, medias null si no hay datos)
+ */
+public record BiCubeSliceRow(
+        Map<String, Object> dimensions,
+        long customers,
+        double churnRate,
+        Double avgMonthlyFee,
+        Double avgTotalRevenue) {
+}
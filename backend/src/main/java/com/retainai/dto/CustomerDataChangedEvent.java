@@ -0,0 +1,18 @@
+package com.retainai.dto;
+
+/**
+ * 📣 Se publica cuando cambian clientes, suscripciones o métricas en bloque
+ * (importación CSV, limpieza de la BD, jobs masivos) para recalcular lo
+ * agregado sobre ellos (p. ej. estadísticas del dashboard)
+ */
+public record CustomerDataChangedEvent(String source) {
+
+    public static final String DATABASE_CLEANUP = "database-cleanup";
+
+    /**
+     * La BD se ha vaciado entera (DatabaseCleanupService)
+     */
+    public boolean isDatabaseCleanup() {
+        return DATABASE_CLEANUP.equals(source);
+    }
+}
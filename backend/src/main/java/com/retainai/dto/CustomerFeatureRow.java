@@ -0,0 +1,120 @@
+package com.retainai.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Fila de extracción de features: id del cliente + las 23 features calculadas
+ * (FeatureMatrix.COLUMNS; score_riesgo no se rellena) leídas con un solo JOIN
+ * (sin entidades JPA)
+ *
+ * features es null cuando el cliente no tiene suscripción (no se puede predecir).
+ */
+public record CustomerFeatureRow(
+        String customerId,
+        PredictionInputDtoV2 features,
+        Long featureHash
+) {
+    public boolean hasSubscription() {
+        return features != null;
+    }
+
+    /**
+     * true si ya hay una predicción con estas mismas features y no es más
+     * antigua que minAnalysis (en modo delta se puede saltar)
+     */
+    public static boolean isUnchanged(Long featureHash, Long lastFeatureHash, LocalDateTime lastAnalysis,
+            LocalDateTime minAnalysis) {
+        return featureHash != null
+                && featureHash.equals(lastFeatureHash)
+                && lastAnalysis != null
+                && !lastAnalysis.isBefore(minAnalysis);
+    }
+
+    /**
+     * Huella (FNV-1a 64 bits) de las features de entrada del modelo.
+     *
+     * Se usa la fecha de último contacto en bruto en lugar de
+     * diasDesdeUltimoContacto: ese valor derivado cambia cada día aunque el
+     * cliente no cambie. El envejecimiento se cubre con la antigüedad máxima
+     * de la predicción (app.batch.delta.max-age-days).
+     */
+    public static long hashOf(PredictionInputDtoV2 f, LocalDate ultimoContactoSoporte) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, f.getDiasActivosSemanales());
+        h = mix(h, f.getPromedioConexion());
+        h = mix(h, f.getConexionesMensuales());
+        h = mix(h, f.getCaracteristicasUsadas());
+        h = mix(h, f.getDiasUltimaConexion());
+        h = mix(h, f.getIntensidadUso());
+        h = mix(h, f.getTicketsSoporte());
+        h = mix(h, f.getPuntuacionNps());
+        h = mix(h, f.getTasaCrecimientoUso());
+        h = mix(h, f.getPuntuacionCsat());
+        h = mix(h, f.getRatioCargaFinanciera());
+        h = mix(h, f.getTasaAperturaEmail());
+        h = mix(h, f.getErroresPago());
+        h = mix(h, f.getAntiguedad());
+        h = mix(h, f.getIngresosTotales());
+        h = mix(h, f.getLatitud());
+        h = mix(h, f.getCargoMensual());
+        h = mix(h, f.getTiempoResolucion());
+        h = mix(h, f.getLongitud());
+        h = mix(h, f.getCodigoPostal() != null ? f.getCodigoPostal().hashCode() : 0);
+        h = mix(h, f.getEdad());
+        h = mix(h, ultimoContactoSoporte != null ? ultimoContactoSoporte.toEpochDay() : Long.MIN_VALUE);
+        h = mix(h, f.getTiempoSesionPromedio());
+        return h;
+    }
+
+    /**
+     * Misma huella que hashOf(PredictionInputDtoV2, ...) calculada sobre una
+     * fila de FeatureMatrix (los enteros se mezclan como long y codigo_postal
+     * por el hashCode del texto original, igual que desde el DTO)
+     */
+    public static long hashOf(FeatureMatrix m, int row, String codigoPostal, LocalDate ultimoContactoSoporte) {
+        long h = 0xcbf29ce484222325L;
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.DIAS_ACTIVOS_SEMANALES));
+        h = mixDouble(h, m.get(row, FeatureMatrix.PROMEDIO_CONEXION));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.CONEXIONES_MENSUALES));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.CARACTERISTICAS_USADAS));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.DIAS_ULTIMA_CONEXION));
+        h = mixDouble(h, m.get(row, FeatureMatrix.INTENSIDAD_USO));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.TICKETS_SOPORTE));
+        h = mixDouble(h, m.get(row, FeatureMatrix.PUNTUACION_NPS));
+        h = mixDouble(h, m.get(row, FeatureMatrix.TASA_CRECIMIENTO_USO));
+        h = mixDouble(h, m.get(row, FeatureMatrix.PUNTUACION_CSAT));
+        h = mixDouble(h, m.get(row, FeatureMatrix.RATIO_CARGA_FINANCIERA));
+        h = mixDouble(h, m.get(row, FeatureMatrix.TASA_APERTURA_EMAIL));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.ERRORES_PAGO));
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.ANTIGUEDAD));
+        h = mixDouble(h, m.get(row, FeatureMatrix.INGRESOS_TOTALES));
+        h = mixDouble(h, m.get(row, FeatureMatrix.LATITUD));
+        h = mixDouble(h, m.get(row, FeatureMatrix.CARGO_MENSUAL));
+        h = mixDouble(h, m.get(row, FeatureMatrix.TIEMPO_RESOLUCION));
+        h = mixDouble(h, m.get(row, FeatureMatrix.LONGITUD));
+        h = mixLong(h, codigoPostal != null ? codigoPostal.hashCode() : 0);
+        h = mixLong(h, (long) m.get(row, FeatureMatrix.EDAD));
+        h = mixLong(h, ultimoContactoSoporte != null ? ultimoContactoSoporte.toEpochDay() : Long.MIN_VALUE);
+        h = mixDouble(h, m.get(row, FeatureMatrix.TIEMPO_SESION_PROMEDIO));
+        return h;
+    }
+
+    private static long mixDouble(long h, double value) {
+        return mixLong(h, Double.doubleToLongBits(value));
+    }
+
+    private static long mix(long h, Number value) {
+        long bits = value == null ? Long.MIN_VALUE
+                : value instanceof Double d ? Double.doubleToLongBits(d) : value.longValue();
+        return mixLong(h, bits);
+    }
+
+    private static long mixLong(long h, long bits) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (bits >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,215 @@
+package com.retainai.dto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 🧱 Lote de features en formato columnar compacto (sin objetos por cliente)
+ *
+ * Una matriz row-major double[filas * WIDTH] más el id y la huella de cada
+ * fila. Se rellena directamente desde el ResultSet (CustomerFeatureRepository)
+ * y viaja a Python /predict/batch/compact como float64 little-endian en bruto,
+ * en lugar de una lista de PredictionInputDtoV2 serializada como JSON.
+ *
+ * Columnas: las 23 entradas de PredictionInput (main.py) en su orden, con
+ * codigo_postal ya convertido a número.
+ */
+public final class FeatureMatrix {
+
+    public static final List<String> COLUMNS = List.of(
+            "dias_activos_semanales", "promedio_conexion", "conexiones_mensuales",
+            "caracteristicas_usadas", "dias_ultima_conexion", "intensidad_uso",
+            "tickets_soporte", "puntuacion_nps", "tasa_crecimiento_uso",
+            "puntuacion_csat", "ratio_carga_financiera", "tasa_apertura_email",
+            "errores_pago", "antiguedad", "ingresos_totales", "latitud",
+            "cargo_mensual", "tiempo_resolucion", "longitud", "codigo_postal",
+            "edad", "dias_desde_ultimo_contacto", "tiempo_sesion_promedio");
+
+    public static final int WIDTH = COLUMNS.size();
+
+    // Literales que acepta float() de Python (Double.parseDouble acepta además 1d, 0x1p3...)
+    private static final Pattern PYTHON_FLOAT = Pattern.compile(
+            "[+-]?(\\d(_?\\d)*(\\.(\\d(_?\\d)*)?)?|\\.\\d(_?\\d)*)([eE][+-]?\\d(_?\\d)*)?");
+
+    // Índices de columna (mismo orden que COLUMNS)
+    public static final int DIAS_ACTIVOS_SEMANALES = 0;
+    public static final int PROMEDIO_CONEXION = 1;
+    public static final int CONEXIONES_MENSUALES = 2;
+    public static final int CARACTERISTICAS_USADAS = 3;
+    public static final int DIAS_ULTIMA_CONEXION = 4;
+    public static final int INTENSIDAD_USO = 5;
+    public static final int TICKETS_SOPORTE = 6;
+    public static final int PUNTUACION_NPS = 7;
+    public static final int TASA_CRECIMIENTO_USO = 8;
+    public static final int PUNTUACION_CSAT = 9;
+    public static final int RATIO_CARGA_FINANCIERA = 10;
+    public static final int TASA_APERTURA_EMAIL = 11;
+    public static final int ERRORES_PAGO = 12;
+    public static final int ANTIGUEDAD = 13;
+    public static final int INGRESOS_TOTALES = 14;
+    public static final int LATITUD = 15;
+    public static final int CARGO_MENSUAL = 16;
+    public static final int TIEMPO_RESOLUCION = 17;
+    public static final int LONGITUD = 18;
+    public static final int CODIGO_POSTAL = 19;
+    public static final int EDAD = 20;
+    public static final int DIAS_DESDE_ULTIMO_CONTACTO = 21;
+    public static final int TIEMPO_SESION_PROMEDIO = 22;
+
+    // Cabecera con el orden de columnas (Python la valida contra el suyo)
+    public static final String COLUMNS_HEADER_VALUE = String.join(",", COLUMNS);
+
+    private String[] customerIds;
+    private long[] featureHashes;
+    private double[] values;
+    private int rows;
+
+    public FeatureMatrix(int capacity) {
+        int initial = Math.max(capacity, 1);
+        this.customerIds = new String[initial];
+        this.featureHashes = new long[initial];
+        this.values = new double[initial * WIDTH];
+    }
+
+    /**
+     * Añade una fila (valores a 0) y devuelve su índice
+     */
+    public int addRow(String customerId) {
+        if (rows == customerIds.length) {
+            int capacity = rows * 2;
+            customerIds = Arrays.copyOf(customerIds, capacity);
+            featureHashes = Arrays.copyOf(featureHashes, capacity);
+            values = Arrays.copyOf(values, capacity * WIDTH);
+        }
+        customerIds[rows] = customerId;
+        Arrays.fill(values, rows * WIDTH, (rows + 1) * WIDTH, 0.0);
+        return rows++;
+    }
+
+    /**
+     * Descarta la última fila añadida (p. ej. cliente sin cambios en modo delta)
+     */
+    public void removeLastRow() {
+        if (rows > 0) {
+            customerIds[--rows] = null;
+        }
+    }
+
+    public void set(int row, int column, double value) {
+        values[row * WIDTH + column] = value;
+    }
+
+    public double get(int row, int column) {
+        return values[row * WIDTH + column];
+    }
+
+    public void setFeatureHash(int row, long featureHash) {
+        featureHashes[row] = featureHash;
+    }
+
+    public long getFeatureHash(int row) {
+        return featureHashes[row];
+    }
+
+    public String getCustomerId(int row) {
+        return customerIds[row];
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    /**
+     * Payload de /predict/batch/compact: float64 little-endian, fila a fila
+     */
+    public byte[] toLittleEndianBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(rows * WIDTH * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values, 0, rows * WIDTH);
+        return buffer.array();
+    }
+
+    /**
+     * Índice en COLUMNS de cada feature pedida (-1 si la matriz no la tiene)
+     */
+    public static int[] columnIndexes(String[] features) {
+        int[] indexes = new int[features.length];
+        for (int f = 0; f < features.length; f++) {
+            indexes[f] = COLUMNS.indexOf(features[f]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Matriz equivalente a una lista de DTOs (los nulos pasan a NaN)
+     */
+    public static FeatureMatrix fromInputs(List<String> customerIds, List<PredictionInputDtoV2> inputs) {
+        FeatureMatrix matrix = new FeatureMatrix(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            PredictionInputDtoV2 f = inputs.get(i);
+            int row = matrix.addRow(customerIds.get(i));
+            matrix.set(row, DIAS_ACTIVOS_SEMANALES, toDouble(f.getDiasActivosSemanales()));
+            matrix.set(row, PROMEDIO_CONEXION, toDouble(f.getPromedioConexion()));
+            matrix.set(row, CONEXIONES_MENSUALES, toDouble(f.getConexionesMensuales()));
+            matrix.set(row, CARACTERISTICAS_USADAS, toDouble(f.getCaracteristicasUsadas()));
+            matrix.set(row, DIAS_ULTIMA_CONEXION, toDouble(f.getDiasUltimaConexion()));
+            matrix.set(row, INTENSIDAD_USO, toDouble(f.getIntensidadUso()));
+            matrix.set(row, TICKETS_SOPORTE, toDouble(f.getTicketsSoporte()));
+            matrix.set(row, PUNTUACION_NPS, toDouble(f.getPuntuacionNps()));
+            matrix.set(row, TASA_CRECIMIENTO_USO, toDouble(f.getTasaCrecimientoUso()));
+            matrix.set(row, PUNTUACION_CSAT, toDouble(f.getPuntuacionCsat()));
+            matrix.set(row, RATIO_CARGA_FINANCIERA, toDouble(f.getRatioCargaFinanciera()));
+            matrix.set(row, TASA_APERTURA_EMAIL, toDouble(f.getTasaAperturaEmail()));
+            matrix.set(row, ERRORES_PAGO, toDouble(f.getErroresPago()));
+            matrix.set(row, ANTIGUEDAD, toDouble(f.getAntiguedad()));
+            matrix.set(row, INGRESOS_TOTALES, toDouble(f.getIngresosTotales()));
+            matrix.set(row, LATITUD, toDouble(f.getLatitud()));
+            matrix.set(row, CARGO_MENSUAL, toDouble(f.getCargoMensual()));
+            matrix.set(row, TIEMPO_RESOLUCION, toDouble(f.getTiempoResolucion()));
+            matrix.set(row, LONGITUD, toDouble(f.getLongitud()));
+            matrix.set(row, CODIGO_POSTAL, f.getCodigoPostal() != null
+                    ? codigoPostalToNumeric(f.getCodigoPostal())
+                    : Double.NaN);
+            matrix.set(row, EDAD, toDouble(f.getEdad()));
+            matrix.set(row, DIAS_DESDE_ULTIMO_CONTACTO, toDouble(f.getDiasDesdeUltimoContacto()));
+            matrix.set(row, TIEMPO_SESION_PROMEDIO, toDouble(f.getTiempoSesionPromedio()));
+        }
+        return matrix;
+    }
+
+    /**
+     * codigo_postal_to_numeric (main.py): float() de Python y, si no es un
+     * número, CRC32 de los bytes UTF-8 módulo 100000 (el mismo hash estable en
+     * los dos lados)
+     */
+    public static double codigoPostalToNumeric(String codigoPostal) {
+        String text = codigoPostal.strip();
+        if (PYTHON_FLOAT.matcher(text).matches()) {
+            return Double.parseDouble(text.replace("_", ""));
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        String unsigned = lower.startsWith("+") || lower.startsWith("-") ? lower.substring(1) : lower;
+        if (unsigned.equals("nan")) {
+            return Double.NaN;
+        }
+        if (unsigned.equals("inf") || unsigned.equals("infinity")) {
+            return lower.startsWith("-") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(codigoPostal.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue() % 100000;
+    }
+
+    private static double toDouble(Number value) {
+        return value != null ? value.doubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,24 @@
+package com.retainai.dto;
+
+import java.util.List;
+
+/**
+ * Página keyset leída directamente a FeatureMatrix
+ *
+ * @param readCount          clientes leídos de la BD (incluye los descartados)
+ * @param lastCustomerId     último id leído (cursor de la siguiente página)
+ * @param features           filas a puntuar
+ * @param withoutSubscription clientes sin suscripción (no se pueden predecir)
+ * @param skippedUnchanged   clientes saltados en modo delta (features sin cambios)
+ */
+public record FeatureMatrixPage(
+        int readCount,
+        String lastCustomerId,
+        FeatureMatrix features,
+        List<String> withoutSubscription,
+        int skippedUnchanged
+) {
+    public boolean isEmpty() {
+        return readCount == 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.retainai.dto;
+
+/**
+ * 🗺️ Celda agregada del mapa (GeoClusterService)
+ *
+ * lat / lng es el centroide de los clientes de la celda (donde se pinta el
+ * marcador). revenueAtRisk = Σ cuota mensual × probabilidad de fuga.
+ * avgChurnProbability y dominantRiskLevel son null si ningún cliente de la
+ * celda tiene predicción.
+ */
+public record GeoClusterDto(
+        String cellId,
+        double lat,
+        double lng,
+        long count,
+        Double avgChurnProbability,
+        double revenueAtRisk,
+        String dominantRiskLevel // "High", "Medium", "Low"
+) {}
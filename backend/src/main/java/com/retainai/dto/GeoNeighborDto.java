@@ -0,0 +1,10 @@
+package com.retainai.dto;
+
+public record GeoNeighborDto(
+        String id,
+        Double lat,
+        Double lng,
+        Double distanceMeters, // Desde el punto consultado
+        String churnRisk, // "High", "Medium", "Low"
+        Double monthlyFee
+) {}
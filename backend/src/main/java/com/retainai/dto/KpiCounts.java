@@ -0,0 +1,31 @@
+package com.retainai.dto;
+
+/**
+ * 🔢 Valores de los contadores de alertas (KpiCounterService)
+ *
+ * - highTicketCustomers: clientes con 6 o más tickets de soporte
+ * - monthlyContractsAtRisk: contratos mensuales cuya ÚLTIMA predicción es Alto o Medio
+ * - onboardingCustomers: clientes con 0-12 meses de permanencia
+ */
+public record KpiCounts(long highTicketCustomers, long monthlyContractsAtRisk, long onboardingCustomers) {
+
+    public static final KpiCounts ZERO = new KpiCounts(0, 0, 0);
+
+    public KpiCounts plus(KpiCounts other) {
+        return new KpiCounts(
+                highTicketCustomers + other.highTicketCustomers,
+                monthlyContractsAtRisk + other.monthlyContractsAtRisk,
+                onboardingCustomers + other.onboardingCustomers);
+    }
+
+    public KpiCounts minus(KpiCounts other) {
+        return new KpiCounts(
+                highTicketCustomers - other.highTicketCustomers,
+                monthlyContractsAtRisk - other.monthlyContractsAtRisk,
+                onboardingCustomers - other.onboardingCustomers);
+    }
+
+    public boolean isZero() {
+        return highTicketCustomers == 0 && monthlyContractsAtRisk == 0 && onboardingCustomers == 0;
+    }
+}
@@ -0,0 +1,9 @@
+package com.retainai.dto;
+
+/**
+ * 📣 Variación de los contadores de alertas producida por una escritura de
+ * clientes (importación CSV). Si reconcile es true hubo filas cuyo efecto
+ * no se pudo calcular y conviene recontar desde la BD.
+ */
+public record KpiDeltaEvent(KpiCounts delta, boolean reconcile) {
+}
@@ -9,7 +9,8 @@ import lombok.Data;
  * 24 campos RAW - El modelo se encarga de toda la transformación
  *
  * IMPORTANTE: Este DTO mapea exactamente las 24 features que espera el modelo
- * 11_production_pipeline.pkl
+ * 11_production_pipeline.pkl. Desde la BD se calculan 23 (FeatureMatrix.COLUMNS):
+ * score_riesgo solo llega por CSV y, si falta, el modelo lo trata como ausente
  */
 @Data
 @Builder
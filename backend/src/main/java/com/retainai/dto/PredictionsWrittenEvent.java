@@ -0,0 +1,20 @@
+package com.retainai.dto;
+
+import java.util.List;
+
+/**
+ * 📣 Se publica tras escribir predicciones (PredictionWriter) con los
+ * clientes afectados, para invalidar lo que dependa de su última predicción
+ *
+ * probabilities y previousRiskLevels (nivel de la última predicción anterior
+ * de cada cliente, null si no tenía) van en el mismo orden que customerIds;
+ * son null cuando no se conocen (backfill de customer_latest_prediction
+ * desde el historial)
+ */
+public record PredictionsWrittenEvent(List<String> customerIds, List<Double> probabilities,
+        List<String> previousRiskLevels) {
+
+    public boolean hasProbabilities() {
+        return probabilities != null;
+    }
+}
@@ -0,0 +1,135 @@
+package com.retainai.dto;
+
+import lombok.Builder;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * 📋 Columnas en bruto (nullable) de las que salen las features del modelo:
+ * customers + subscriptions + customer_metrics
+ *
+ * Es el ÚNICO sitio con el contrato de features (defaults y derivadas):
+ * writeTo rellena una fila de FeatureMatrix y toInput construye el DTO a
+ * partir de esa misma fila. Lo usan la lectura JDBC
+ * (CustomerFeatureRepository) y el mapeo desde entidades
+ * (PredictionFeatureMapper), así los dos caminos no pueden divergir.
+ */
+@Builder
+public record RawCustomerFeatures(
+        Integer diasActivosSemanales,
+        Float promedioConeccion,
+        Integer coneccionesMensuales,
+        Integer caracteristicasUsadas,
+        Integer diasUltimaConeccion,
+        Integer ticketsSoporte,
+        Integer scoreNps,
+        Float tasaCrecimientoUso,
+        Float scoreCsat,
+        Float tasaAperturaEmail,
+        Float tiempoResolucion,
+        Float tiempoSesionPromedio,
+        LocalDate ultimoContactoSoporte,
+        Double cuotaMensual,
+        Double ingresosTotales,
+        Integer erroresPago,
+        Integer mesesPermanencia,
+        Double latitud,
+        Double longitud,
+        String codigoPostal,
+        Integer edad
+) {
+
+    public String codigoPostalOrDefault() {
+        return codigoPostal != null ? codigoPostal : "00000";
+    }
+
+    /**
+     * Escribe las features en la fila (defaults y derivadas) y devuelve su huella
+     */
+    public long writeTo(FeatureMatrix m, int row) {
+        // 1. Intensidad de uso = conexiones * promedio
+        double promedioConex = promedioConeccion != null ? promedioConeccion.doubleValue() : 0.0;
+        double conexiones = coneccionesMensuales != null ? coneccionesMensuales.doubleValue() : 0.0;
+
+        // 2. Ratio carga financiera = cargo_mensual / ingresos_totales
+        double cargoMensual = cuotaMensual != null ? cuotaMensual : 50.0;
+        double ingresos = ingresosTotales != null ? ingresosTotales : 100.0;
+
+        // 3. Días desde último contacto soporte
+        long diasDesdeContacto = ultimoContactoSoporte != null
+                ? ChronoUnit.DAYS.between(ultimoContactoSoporte, LocalDate.now())
+                : 0;
+
+        m.set(row, FeatureMatrix.DIAS_ACTIVOS_SEMANALES, orDefault(diasActivosSemanales, 0));
+        m.set(row, FeatureMatrix.PROMEDIO_CONEXION, promedioConex);
+        m.set(row, FeatureMatrix.CONEXIONES_MENSUALES, conexiones);
+        m.set(row, FeatureMatrix.CARACTERISTICAS_USADAS, orDefault(caracteristicasUsadas, 0));
+        m.set(row, FeatureMatrix.DIAS_ULTIMA_CONEXION, orDefault(diasUltimaConeccion, 0));
+        m.set(row, FeatureMatrix.INTENSIDAD_USO, conexiones * promedioConex);
+        m.set(row, FeatureMatrix.TICKETS_SOPORTE, orDefault(ticketsSoporte, 0));
+        m.set(row, FeatureMatrix.PUNTUACION_NPS, scoreNps != null ? scoreNps.doubleValue() : 50.0);
+        m.set(row, FeatureMatrix.TASA_CRECIMIENTO_USO, tasaCrecimientoUso != null ? tasaCrecimientoUso.doubleValue() : 0.0);
+        m.set(row, FeatureMatrix.PUNTUACION_CSAT, scoreCsat != null ? scoreCsat.doubleValue() : 3.0);
+        m.set(row, FeatureMatrix.RATIO_CARGA_FINANCIERA, ingresos > 0 ? cargoMensual / ingresos : 0.0);
+        m.set(row, FeatureMatrix.TASA_APERTURA_EMAIL, tasaAperturaEmail != null ? tasaAperturaEmail.doubleValue() : 0.5);
+        m.set(row, FeatureMatrix.ERRORES_PAGO, orDefault(erroresPago, 0));
+        m.set(row, FeatureMatrix.ANTIGUEDAD, orDefault(mesesPermanencia, 1));
+        m.set(row, FeatureMatrix.INGRESOS_TOTALES, ingresos);
+        m.set(row, FeatureMatrix.LATITUD, latitud != null ? latitud : 0.0);
+        m.set(row, FeatureMatrix.CARGO_MENSUAL, cargoMensual);
+        m.set(row, FeatureMatrix.TIEMPO_RESOLUCION, tiempoResolucion != null ? tiempoResolucion.doubleValue() : 24.0);
+        m.set(row, FeatureMatrix.LONGITUD, longitud != null ? longitud : 0.0);
+        m.set(row, FeatureMatrix.CODIGO_POSTAL, FeatureMatrix.codigoPostalToNumeric(codigoPostalOrDefault()));
+        m.set(row, FeatureMatrix.EDAD, orDefault(edad, 30));
+        m.set(row, FeatureMatrix.DIAS_DESDE_ULTIMO_CONTACTO, diasDesdeContacto);
+        m.set(row, FeatureMatrix.TIEMPO_SESION_PROMEDIO, tiempoSesionPromedio != null ? tiempoSesionPromedio.doubleValue() : 0.0);
+
+        return CustomerFeatureRow.hashOf(m, row, codigoPostalOrDefault(), ultimoContactoSoporte);
+    }
+
+    /**
+     * DTO de una fila ya escrita con writeTo (codigo_postal conserva el texto)
+     */
+    public PredictionInputDtoV2 toInput(FeatureMatrix m, int row) {
+        return PredictionInputDtoV2.builder()
+                .diasActivosSemanales((int) m.get(row, FeatureMatrix.DIAS_ACTIVOS_SEMANALES))
+                .promedioConexion(m.get(row, FeatureMatrix.PROMEDIO_CONEXION))
+                .conexionesMensuales((int) m.get(row, FeatureMatrix.CONEXIONES_MENSUALES))
+                .caracteristicasUsadas((int) m.get(row, FeatureMatrix.CARACTERISTICAS_USADAS))
+                .diasUltimaConexion((int) m.get(row, FeatureMatrix.DIAS_ULTIMA_CONEXION))
+                .intensidadUso(m.get(row, FeatureMatrix.INTENSIDAD_USO))
+                .ticketsSoporte((int) m.get(row, FeatureMatrix.TICKETS_SOPORTE))
+                .puntuacionNps(m.get(row, FeatureMatrix.PUNTUACION_NPS))
+                .tasaCrecimientoUso(m.get(row, FeatureMatrix.TASA_CRECIMIENTO_USO))
+                .puntuacionCsat(m.get(row, FeatureMatrix.PUNTUACION_CSAT))
+                .ratioCargaFinanciera(m.get(row, FeatureMatrix.RATIO_CARGA_FINANCIERA))
+                .tasaAperturaEmail(m.get(row, FeatureMatrix.TASA_APERTURA_EMAIL))
+                .erroresPago((int) m.get(row, FeatureMatrix.ERRORES_PAGO))
+                .antiguedad((int) m.get(row, FeatureMatrix.ANTIGUEDAD))
+                .ingresosTotales(m.get(row, FeatureMatrix.INGRESOS_TOTALES))
+                .latitud(m.get(row, FeatureMatrix.LATITUD))
+                .cargoMensual(m.get(row, FeatureMatrix.CARGO_MENSUAL))
+                .tiempoResolucion(m.get(row, FeatureMatrix.TIEMPO_RESOLUCION))
+                .longitud(m.get(row, FeatureMatrix.LONGITUD))
+                .codigoPostal(codigoPostalOrDefault())
+                .edad((int) m.get(row, FeatureMatrix.EDAD))
+                .diasDesdeUltimoContacto((int) m.get(row, FeatureMatrix.DIAS_DESDE_ULTIMO_CONTACTO))
+                .tiempoSesionPromedio(m.get(row, FeatureMatrix.TIEMPO_SESION_PROMEDIO))
+                .build();
+    }
+
+    /**
+     * DTO y huella sin matriz de lote (predicción individual, listas de ids)
+     */
+    public CustomerFeatureRow toRow(String customerId) {
+        FeatureMatrix single = new FeatureMatrix(1);
+        int row = single.addRow(customerId);
+        long featureHash = writeTo(single, row);
+        return new CustomerFeatureRow(customerId, toInput(single, row), featureHash);
+    }
+
+    private static int orDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
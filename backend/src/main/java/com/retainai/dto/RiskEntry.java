@@ -0,0 +1,7 @@
+package com.retainai.dto;
+
+/**
+ * 🏆 Entrada del ranking de riesgo: cliente y probabilidad de su última predicción
+ */
+public record RiskEntry(String customerId, Double probability) {
+}
@@ -26,8 +26,18 @@ public class AiPrediction {
 
     private LocalDateTime fechaAnalisis;
 
+    // Huella de las features con las que se predijo (CustomerFeatureRow.hashOf).
+    // Permite re-puntuar solo los clientes que cambiaron (modo delta)
+    @Column(name = "feature_hash")
+    private Long featureHash;
+
+    // Sin foreign key: MySQL no las admite en tablas particionadas
+    // (PredictionRetentionRepository.partitionByMonth) y ddl-auto=update la
+    // volvería a crear en cada arranque. La PK real puede ser (id, fecha_analisis);
+    // id sigue siendo único (AUTO_INCREMENT), así que @Id id es válido.
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "customer_id", referencedColumnName = "id")
+    @JoinColumn(name = "customer_id", referencedColumnName = "id",
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     @JsonBackReference // 🛑 EL FRENO: Evita el bucle infinito con Customer
     @ToString.Exclude // Evita errores en logs
     @EqualsAndHashCode.Exclude
@@ -45,13 +55,20 @@ public class AiPrediction {
 
         // Calcular nivel de riesgo automáticamente
         if (probabilidadFuga != null) {
-            if (probabilidadFuga < 0.30) {
-                nivelRiesgo = "Bajo";
-            } else if (probabilidadFuga < 0.70) {
-                nivelRiesgo = "Medio";
-            } else {
-                nivelRiesgo = "Alto";
-            }
+            nivelRiesgo = riskLevelFor(probabilidadFuga);
+        }
+    }
+
+    /**
+     * Umbrales de riesgo compartidos con los caminos que insertan sin pasar por
+     * JPA (PredictionWriter): < 0.30 Bajo, < 0.70 Medio, resto Alto
+     */
+    public static String riskLevelFor(double probabilidadFuga) {
+        if (probabilidadFuga < 0.30) {
+            return "Bajo";
+        } else if (probabilidadFuga < 0.70) {
+            return "Medio";
         }
+        return "Alto";
     }
-}
\ No newline at end of file
+}
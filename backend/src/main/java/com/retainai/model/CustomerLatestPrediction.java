@@ -0,0 +1,56 @@
+package com.retainai.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * 📌 Última predicción de cada cliente (una fila por cliente)
+ *
+ * Proyección de ai_predictions mantenida en escritura: PredictionWriter la
+ * actualiza (upsert) cada vez que se guarda una AiPrediction, y el job
+ * BACKFILL_LATEST la reconstruye desde el historial. Los lectores (heatmap,
+ * mapa, insights, chatbot) la consultan por clave primaria en lugar de
+ * agregar todo el historial con GROUP BY/MAX.
+ *
+ * Solo lectura desde JPA: las escrituras van por SQL (INSERT ... ON DUPLICATE KEY UPDATE).
+ */
+@Entity
+@Table(name = "customer_latest_prediction", indexes = {
+        @Index(name = "idx_latest_probabilidad", columnList = "probabilidad_fuga")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CustomerLatestPrediction {
+
+    @Id
+    @Column(name = "customer_id", nullable = false)
+    private String customerId;
+
+    @Column(name = "probabilidad_fuga")
+    private Double probabilidadFuga;
+
+    @Column(name = "motivo_principal")
+    private String motivoPrincipal;
+
+    @Column(name = "nivel_riesgo")
+    private String nivelRiesgo;
+
+    @Column(name = "fecha_analisis")
+    private LocalDateTime fechaAnalisis;
+
+    // Huella de las features de esa predicción (modo delta del pipeline)
+    @Column(name = "feature_hash")
+    private Long featureHash;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "customer_id", referencedColumnName = "id", insertable = false, updatable = false)
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Customer customer;
+}
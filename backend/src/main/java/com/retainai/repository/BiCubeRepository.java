@@ -0,0 +1,89 @@
+package com.retainai.repository;
+
+import com.retainai.dto.BiCubeCell;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 🧊 Construcción del cubo BI en una sola pasada por
+ * customer_metrics ⟕ subscriptions ⟕ customers
+ *
+ * Los rangos de tickets y los segmentos de ingresos usan los mismos CASE que
+ * tenían getSupportAnalysis y getCustomerSegmentation (un valor NULL cae en
+ * la última rama).
+ */
+@Repository
+@RequiredArgsConstructor
+public class BiCubeRepository {
+
+    private static final String CUBE_SQL = """
+            SELECT
+                s.tipo_contrato,
+                CASE
+                    WHEN cm.tickets_soporte = 0 THEN '0'
+                    WHEN cm.tickets_soporte BETWEEN 1 AND 2 THEN '1-2'
+                    WHEN cm.tickets_soporte BETWEEN 3 AND 5 THEN '3-5'
+                    ELSE '6+'
+                END AS ticket_range,
+                CASE
+                    WHEN s.ingresos_totales < 2000 THEN 'BASIC'
+                    WHEN s.ingresos_totales BETWEEN 2000 AND 4000 THEN 'MEDIUM'
+                    ELSE 'PREMIUM'
+                END AS revenue_segment,
+                COALESCE(cm.abandono_historico, false) AS churned,
+                c.borough,
+                s.customer_id IS NOT NULL AS has_subscription,
+                COUNT(*) AS customers,
+                SUM(CASE WHEN cm.abandono_historico = true THEN 1 ELSE 0 END) AS churned_customers,
+                COALESCE(SUM(s.cuota_mensual), 0) AS monthly_fee_sum,
+                COUNT(s.cuota_mensual) AS monthly_fee_count,
+                COALESCE(SUM(s.ingresos_totales), 0) AS total_revenue_sum,
+                COUNT(s.ingresos_totales) AS total_revenue_count
+            FROM customer_metrics cm
+            LEFT JOIN subscriptions s ON s.customer_id = cm.customer_id
+            LEFT JOIN customers c ON c.id = cm.customer_id
+            %s
+            GROUP BY 1, 2, 3, 4, 5, 6
+            """;
+
+    private static final RowMapper<BiCubeCell> CELL_MAPPER = (rs, rowNum) -> new BiCubeCell(
+            rs.getString(1),
+            rs.getString(2),
+            rs.getString(3),
+            rs.getBoolean(4),
+            rs.getString(5),
+            rs.getBoolean(6),
+            rs.getLong(7),
+            rs.getLong(8),
+            rs.getDouble(9),
+            rs.getLong(10),
+            rs.getDouble(11),
+            rs.getLong(12));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Cubo completo (un GROUP BY sobre toda la tabla)
+     */
+    public List<BiCubeCell> buildCube() {
+        return jdbcTemplate.query(CUBE_SQL.formatted(""), CELL_MAPPER);
+    }
+
+    /**
+     * Celdas de un subconjunto de clientes (por PK), para calcular la
+     * variación que produce una escritura sobre ellos
+     */
+    public List<BiCubeCell> aggregateCustomers(Collection<String> customerIds) {
+        if (customerIds.isEmpty()) {
+            return List.of();
+        }
+        String where = "WHERE cm.customer_id IN (" + String.join(",", Collections.nCopies(customerIds.size(), "?")) + ")";
+        return jdbcTemplate.query(CUBE_SQL.formatted(where), CELL_MAPPER, customerIds.toArray());
+    }
+}
@@ -0,0 +1,195 @@
+package com.retainai.repository;
+
+import com.retainai.dto.CustomerFeatureRow;
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.FeatureMatrixPage;
+import com.retainai.dto.RawCustomerFeatures;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 🧮 Lectura directa de features para predicción (JDBC, sin entidades)
+ *
+ * Un solo SELECT con JOIN customers + subscriptions + customer_metrics que
+ * se mapea directamente a PredictionInputDtoV2. Evita el N+1 de los
+ * OneToOne de Customer y no hidrata entidades en el contexto de persistencia.
+ *
+ * Los defaults y derivaciones los aplica RawCustomerFeatures, igual que
+ * PredictionFeatureMapper.toInputV2 (el benchmark de
+ * /api/benchmarks/feature-extraction compara ambos caminos). La lectura a
+ * FeatureMatrix escribe la fila directamente, sin crear DTOs
+ * (/api/benchmarks/feature-matrix compara ambas lecturas).
+ */
+@Repository
+@RequiredArgsConstructor
+public class CustomerFeatureRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final String SELECT_FEATURES = """
+            SELECT c.id, c.latitud, c.longitud, c.codigo_postal, c.edad,
+                   s.id AS subscription_id, s.cuota_mensual, s.ingresos_totales,
+                   s.errores_pago, s.meses_permanencia,
+                   m.dias_activos_semanales, m.promedio_coneccion, m.conecciones_mensuales,
+                   m.caracteristicas_usadas, m.dias_ultima_coneccion, m.tickets_soporte,
+                   m.score_nps, m.tasa_crecimiento_uso, m.score_csat, m.tasa_apertura_email,
+                   m.tiempo_resolucion, m.tiempo_sesion_promedio, m.ultimo_contacto_soporte
+            FROM customers c
+            LEFT JOIN subscriptions s ON s.customer_id = c.id
+            LEFT JOIN customer_metrics m ON m.customer_id = c.id
+            """;
+
+    // Igual + hash y fecha de la última predicción de cada cliente (modo delta),
+    // por PK de la proyección customer_latest_prediction.
+    private static final String SELECT_FEATURES_WITH_LAST_PREDICTION = """
+            SELECT c.id, c.latitud, c.longitud, c.codigo_postal, c.edad,
+                   s.id AS subscription_id, s.cuota_mensual, s.ingresos_totales,
+                   s.errores_pago, s.meses_permanencia,
+                   m.dias_activos_semanales, m.promedio_coneccion, m.conecciones_mensuales,
+                   m.caracteristicas_usadas, m.dias_ultima_coneccion, m.tickets_soporte,
+                   m.score_nps, m.tasa_crecimiento_uso, m.score_csat, m.tasa_apertura_email,
+                   m.tiempo_resolucion, m.tiempo_sesion_promedio, m.ultimo_contacto_soporte,
+                   lp.feature_hash AS last_feature_hash, lp.fecha_analisis AS last_analysis
+            FROM customers c
+            LEFT JOIN subscriptions s ON s.customer_id = c.id
+            LEFT JOIN customer_metrics m ON m.customer_id = c.id
+            LEFT JOIN customer_latest_prediction lp ON lp.customer_id = c.id
+            """;
+
+    /**
+     * Página keyset: clientes con id > lastId, ordenados por id
+     */
+    public List<CustomerFeatureRow> findPageAfterId(String lastId, int limit) {
+        return jdbcTemplate.query(SELECT_FEATURES + " WHERE c.id > ? ORDER BY c.id LIMIT ?",
+                FEATURE_ROW_MAPPER, lastId, limit);
+    }
+
+    /**
+     * Página keyset leída directamente a una matriz columnar (pipeline masivo)
+     *
+     * @param minAnalysis null = todos los clientes; si no, modo delta: se saltan
+     *                    los que tienen una predicción con la misma huella y no
+     *                    más antigua que minAnalysis
+     */
+    public FeatureMatrixPage findMatrixPageAfterId(String lastId, int limit, LocalDateTime minAnalysis) {
+        String sql = minAnalysis != null ? SELECT_FEATURES_WITH_LAST_PREDICTION : SELECT_FEATURES;
+        return jdbcTemplate.query(sql + " WHERE c.id > ? ORDER BY c.id LIMIT ?", rs -> {
+            FeatureMatrix features = new FeatureMatrix(limit);
+            List<String> withoutSubscription = new ArrayList<>();
+            String lastCustomerId = null;
+            int readCount = 0;
+            int skipped = 0;
+
+            while (rs.next()) {
+                readCount++;
+                lastCustomerId = rs.getString("id");
+                if (getLong(rs, "subscription_id") == null) {
+                    withoutSubscription.add(lastCustomerId);
+                    continue;
+                }
+
+                int row = features.addRow(lastCustomerId);
+                long featureHash = readRaw(rs).writeTo(features, row);
+                features.setFeatureHash(row, featureHash);
+
+                if (minAnalysis != null) {
+                    Timestamp lastAnalysis = rs.getTimestamp("last_analysis");
+                    if (CustomerFeatureRow.isUnchanged(featureHash, getLong(rs, "last_feature_hash"),
+                            lastAnalysis != null ? lastAnalysis.toLocalDateTime() : null, minAnalysis)) {
+                        features.removeLastRow();
+                        skipped++;
+                    }
+                }
+            }
+            return new FeatureMatrixPage(readCount, lastCustomerId, features, withoutSubscription, skipped);
+        }, lastId, limit);
+    }
+
+    /**
+     * Features de una lista concreta de clientes (los ids inexistentes no aparecen)
+     */
+    public List<CustomerFeatureRow> findByIds(List<String> customerIds) {
+        if (customerIds.isEmpty()) {
+            return List.of();
+        }
+        String placeholders = String.join(",", Collections.nCopies(customerIds.size(), "?"));
+        return jdbcTemplate.query(SELECT_FEATURES + " WHERE c.id IN (" + placeholders + ")",
+                FEATURE_ROW_MAPPER, customerIds.toArray());
+    }
+
+    private static final RowMapper<CustomerFeatureRow> FEATURE_ROW_MAPPER = (rs, rowNum) -> mapFeatures(rs);
+
+    private static CustomerFeatureRow mapFeatures(ResultSet rs) throws SQLException {
+        String customerId = rs.getString("id");
+
+        // Sin suscripción no hay predicción posible (igual que PredictionFeatureMapper)
+        if (getLong(rs, "subscription_id") == null) {
+            return new CustomerFeatureRow(customerId, null, null);
+        }
+        return readRaw(rs).toRow(customerId);
+    }
+
+    /**
+     * Columnas de la fila actual; defaults y derivadas los aplica
+     * RawCustomerFeatures (el mismo contrato para la matriz y el DTO)
+     */
+    private static RawCustomerFeatures readRaw(ResultSet rs) throws SQLException {
+        return RawCustomerFeatures.builder()
+                .diasActivosSemanales(getInteger(rs, "dias_activos_semanales"))
+                .promedioConeccion(getFloat(rs, "promedio_coneccion"))
+                .coneccionesMensuales(getInteger(rs, "conecciones_mensuales"))
+                .caracteristicasUsadas(getInteger(rs, "caracteristicas_usadas"))
+                .diasUltimaConeccion(getInteger(rs, "dias_ultima_coneccion"))
+                .ticketsSoporte(getInteger(rs, "tickets_soporte"))
+                .scoreNps(getInteger(rs, "score_nps"))
+                .tasaCrecimientoUso(getFloat(rs, "tasa_crecimiento_uso"))
+                .scoreCsat(getFloat(rs, "score_csat"))
+                .tasaAperturaEmail(getFloat(rs, "tasa_apertura_email"))
+                .tiempoResolucion(getFloat(rs, "tiempo_resolucion"))
+                .tiempoSesionPromedio(getFloat(rs, "tiempo_sesion_promedio"))
+                .ultimoContactoSoporte(rs.getObject("ultimo_contacto_soporte", LocalDate.class))
+                .cuotaMensual(getDouble(rs, "cuota_mensual"))
+                .ingresosTotales(getDouble(rs, "ingresos_totales"))
+                .erroresPago(getInteger(rs, "errores_pago"))
+                .mesesPermanencia(getInteger(rs, "meses_permanencia"))
+                .latitud(getDouble(rs, "latitud"))
+                .longitud(getDouble(rs, "longitud"))
+                .codigoPostal(rs.getString("codigo_postal"))
+                .edad(getInteger(rs, "edad"))
+                .build();
+    }
+
+    // ========== HELPERS NULL-SAFE (getInt/getDouble devuelven 0 si la columna es NULL) ==========
+
+    private static Integer getInteger(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Long getLong(ResultSet rs, String column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Double getDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Float getFloat(ResultSet rs, String column) throws SQLException {
+        float value = rs.getFloat(column);
+        return rs.wasNull() ? null : value;
+    }
+
+}
@@ -5,6 +5,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
@@ -37,8 +38,21 @@ public interface CustomerRepository extends JpaRepository<Customer, String> {
             """)
     BigDecimal churnRevenue();
 
-    // Listado de clientes por ciudad
-    List<Customer> findByCiudad(String ciudad);
+    // 📊 KPIs del dashboard en una sola pasada (una fila):
+    // total, abandonados, ingresos totales, ingresos perdidos y NPS medio.
+    // customer_metrics y subscriptions son 1:1 con customers
+    @Query(value = """
+            SELECT
+                COUNT(*) AS total_customers,
+                COALESCE(SUM(CASE WHEN m.abandono_historico = true THEN 1 ELSE 0 END), 0) AS abandoned_customers,
+                COALESCE(SUM(s.cuota_mensual), 0) AS total_revenue,
+                COALESCE(SUM(CASE WHEN m.abandono_historico = true THEN s.cuota_mensual END), 0) AS churn_revenue,
+                AVG(m.score_nps) AS avg_nps_score
+            FROM customers c
+            LEFT JOIN customer_metrics m ON m.customer_id = c.id
+            LEFT JOIN subscriptions s ON s.customer_id = c.id
+            """, nativeQuery = true)
+    List<Object[]> getDashboardAggregates();
 
     // 🔴 Clientes en riesgo (abandonoHistorico = true) con paginación
     @Query("SELECT c FROM Customer c WHERE c.metrics.abandonoHistorico = true")
@@ -49,11 +63,15 @@ public interface CustomerRepository extends JpaRepository<Customer, String> {
             "FROM Customer c WHERE c.latitud IS NOT NULL AND c.longitud IS NOT NULL")
     List<com.retainai.dto.GeoCustomerDto> findGeoCustomersLight(Pageable pageable);
 
-    // 🗺️ Query optimizada para heatmap - Todos los clientes (con caché habilitado)
+    // 📦 Lectura keyset por páginas (ordenada por id) para predicción masiva
+    // Trae suscripción y métricas en el mismo SELECT y nunca usa OFFSET:
+    // cada página arranca después del último id de la anterior
     @Query("SELECT c FROM Customer c " +
             "LEFT JOIN FETCH c.subscription " +
-            "WHERE c.latitud IS NOT NULL AND c.longitud IS NOT NULL")
-    List<Customer> findCustomersWithCoordinates();
+            "LEFT JOIN FETCH c.metrics " +
+            "WHERE c.id > :lastId " +
+            "ORDER BY c.id")
+    List<Customer> findPageAfterId(@Param("lastId") String lastId, Pageable pageable);
 
     // 🎯 Query para obtener clientes ACTIVOS candidatos (muestra aleatoria)
     // Filtra SOLO clientes activos (abandonoHistorico = false o null)
@@ -64,59 +82,4 @@ public interface CustomerRepository extends JpaRepository<Customer, String> {
             "WHERE (m.abandonoHistorico = false OR m.abandonoHistorico IS NULL) " +
             "ORDER BY function('RAND')") // Muestra aleatoria para diversidad
     List<Customer> findHighRiskCustomers(org.springframework.data.domain.Pageable pageable);
-
-    // 📊 Análisis de Contratos (Mensual vs Anual vs Bienal)
-    @Query(value = """
-            SELECT
-                s.tipo_contrato as contractType,
-                COUNT(DISTINCT s.customer_id) as customers,
-                (SUM(CASE WHEN cm.abandono_historico = true THEN 1 ELSE 0 END) * 100.0 / COUNT(*)) as churnRate,
-                AVG(s.cuota_mensual) as avgRevenue
-            FROM subscriptions s
-            JOIN customer_metrics cm ON s.customer_id = cm.customer_id
-            GROUP BY s.tipo_contrato
-            ORDER BY s.tipo_contrato
-            """, nativeQuery = true)
-    List<Object[]> getContractAnalysis();
-
-    // 🎫 Análisis de Soporte por Tickets
-    @Query(value = """
-            SELECT
-                CASE
-                    WHEN cm.tickets_soporte = 0 THEN '0'
-                    WHEN cm.tickets_soporte BETWEEN 1 AND 2 THEN '1-2'
-                    WHEN cm.tickets_soporte BETWEEN 3 AND 5 THEN '3-5'
-                    ELSE '6+'
-                END as ticketRange,
-                COUNT(DISTINCT cm.customer_id) as customers,
-                (SUM(CASE WHEN cm.abandono_historico = true THEN 1 ELSE 0 END) * 100.0 / COUNT(*)) as churnRate
-            FROM customer_metrics cm
-            GROUP BY ticketRange
-            ORDER BY
-                CASE ticketRange
-                    WHEN '0' THEN 1
-                    WHEN '1-2' THEN 2
-                    WHEN '3-5' THEN 3
-                    WHEN '6+' THEN 4
-                END
-            """, nativeQuery = true)
-    List<Object[]> getSupportAnalysis();
-
-    // 🎯 Segmentación de Clientes por Revenue y Riesgo
-    @Query(value = """
-            SELECT
-                CASE
-                    WHEN s.ingresos_totales < 2000 THEN 'BASIC'
-                    WHEN s.ingresos_totales BETWEEN 2000 AND 4000 THEN 'MEDIUM'
-                    ELSE 'PREMIUM'
-                END as segment,
-                COUNT(DISTINCT s.customer_id) as customers,
-                AVG(s.ingresos_totales) as avgRevenue,
-                (SUM(CASE WHEN cm.abandono_historico = true THEN 1 ELSE 0 END) * 100.0 / COUNT(*)) as churnRate
-            FROM subscriptions s
-            JOIN customer_metrics cm ON s.customer_id = cm.customer_id
-            GROUP BY segment
-            ORDER BY avgRevenue
-            """, nativeQuery = true)
-    List<Object[]> getCustomerSegmentation();
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+package com.retainai.repository;
+
+import com.retainai.dto.HeatmapPointDto;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 🗺️ Lectura del heatmap como proyección plana (sin entidades JPA)
+ *
+ * Una sola consulta une customers, subscriptions y la última predicción
+ * (customer_latest_prediction) y cada fila se entrega al consumidor según
+ * llega: con fetchSize = Integer.MIN_VALUE el driver de MySQL no carga el
+ * resultado entero en memoria sino que lo lee fila a fila del socket.
+ */
+@Repository
+public class HeatmapRepository {
+
+    private static final String POINTS_SQL = """
+            SELECT c.id, c.nombre, c.latitud, c.longitud,
+                   l.probabilidad_fuga, l.nivel_riesgo,
+                   c.segmento, s.tipo_contrato, s.cuota_mensual, s.meses_permanencia,
+                   c.borough, c.ciudad
+            FROM customers c
+            LEFT JOIN subscriptions s ON s.customer_id = c.id
+            LEFT JOIN customer_latest_prediction l ON l.customer_id = c.id
+            WHERE c.latitud IS NOT NULL AND c.longitud IS NOT NULL
+            """;
+
+    private static final String COUNT_SQL =
+            "SELECT COUNT(*) FROM customers c WHERE c.latitud IS NOT NULL AND c.longitud IS NOT NULL";
+
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public HeatmapRepository(DataSource dataSource) {
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        // MySQL Connector/J: streaming fila a fila
+        this.streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Recorre los clientes con coordenadas (de una ciudad si city no es
+     * null); los sin predicción llegan con churnProbability y riskLevel null
+     *
+     * @return número de puntos leídos
+     */
+    public long streamPoints(String city, Consumer<HeatmapPointDto> consumer) {
+        long[] count = {0};
+        String sql = city != null ? POINTS_SQL + " AND c.ciudad = ?" : POINTS_SQL;
+        Object[] args = city != null ? new Object[] { city } : new Object[0];
+        streamingJdbcTemplate.query(sql, rs -> {
+            consumer.accept(mapPoint(rs));
+            count[0]++;
+        }, args);
+        return count[0];
+    }
+
+    /**
+     * Igual que streamPoints, limitado a un rectángulo (rango sobre
+     * idx_customers_lat_lng): lo que necesita un tile del mapa
+     */
+    public long streamPointsInBox(double minLat, double minLng, double maxLat, double maxLng,
+            Consumer<HeatmapPointDto> consumer) {
+        long[] count = {0};
+        streamingJdbcTemplate.query(POINTS_SQL + " AND c.latitud BETWEEN ? AND ? AND c.longitud BETWEEN ? AND ?",
+                rs -> {
+                    consumer.accept(mapPoint(rs));
+                    count[0]++;
+                },
+                minLat, maxLat, minLng, maxLng);
+        return count[0];
+    }
+
+    /**
+     * Coordenadas {lat, lng} de los clientes indicados que las tienen (por PK)
+     */
+    public List<double[]> findCoordinates(Collection<String> customerIds) {
+        List<double[]> coordinates = new ArrayList<>(customerIds.size());
+        if (customerIds.isEmpty()) {
+            return coordinates;
+        }
+        String placeholders = String.join(",", Collections.nCopies(customerIds.size(), "?"));
+        streamingJdbcTemplate.query(
+                "SELECT latitud, longitud FROM customers WHERE latitud IS NOT NULL AND longitud IS NOT NULL"
+                        + " AND id IN (" + placeholders + ")",
+                rs -> {
+                    coordinates.add(new double[] { rs.getDouble(1), rs.getDouble(2) });
+                },
+                customerIds.toArray());
+        return coordinates;
+    }
+
+    /**
+     * Número de clientes con coordenadas (idx_customers_lat_lng)
+     */
+    public long countPoints() {
+        Long count = streamingJdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+        return count != null ? count : 0;
+    }
+
+    private static HeatmapPointDto mapPoint(ResultSet rs) throws SQLException {
+        return HeatmapPointDto.builder()
+                .customerId(rs.getString(1))
+                .nombre(rs.getString(2))
+                .latitude(rs.getObject(3, Double.class))
+                .longitude(rs.getObject(4, Double.class))
+                .churnProbability(rs.getObject(5, Double.class))
+                .riskLevel(rs.getString(6))
+                .segmento(rs.getString(7))
+                .tipoContrato(rs.getString(8))
+                .cargoMensual(rs.getObject(9, Double.class))
+                .antiguedad(rs.getObject(10, Integer.class))
+                .borough(rs.getString(11))
+                .ciudad(rs.getString(12))
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.retainai.repository;
+
+import com.retainai.dto.KpiCounts;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 🔢 Consultas de KpiCounterService: el recuento completo (reconciliación)
+ * y las búsquedas por lote que necesitan las actualizaciones incrementales
+ */
+@Repository
+@RequiredArgsConstructor
+public class KpiCounterRepository {
+
+    public static final int HIGH_TICKETS = 6;
+    public static final int ONBOARDING_MAX_MONTHS = 12;
+    public static final String MONTHLY_CONTRACT = "Mensual";
+    public static final List<String> AT_RISK_LEVELS = List.of("Alto", "Medio", "High", "Medium");
+
+    // Contratos mensuales en riesgo según la ÚLTIMA predicción (customer_latest_prediction)
+    private static final String COUNT_ALL_SQL = """
+            SELECT
+                (SELECT COUNT(*) FROM customer_metrics m
+                   JOIN customers c ON c.id = m.customer_id
+                  WHERE m.tickets_soporte >= %d),
+                (SELECT COUNT(*) FROM subscriptions s
+                   JOIN customer_latest_prediction l ON l.customer_id = s.customer_id
+                  WHERE s.tipo_contrato = '%s' AND l.nivel_riesgo IN ('Alto', 'Medio', 'High', 'Medium')),
+                (SELECT COUNT(*) FROM subscriptions s
+                  WHERE s.meses_permanencia BETWEEN 0 AND %d)
+            """.formatted(HIGH_TICKETS, MONTHLY_CONTRACT, ONBOARDING_MAX_MONTHS);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Estado de un cliente ya existente antes de una importación
+     *
+     * @param hasSubscription si ya tiene fila en subscriptions
+     * @param mesesPermanencia permanencia actual (null si no tiene suscripción o no consta)
+     * @param hasMetrics si ya tiene fila en customer_metrics
+     */
+    public record ExistingCustomer(boolean hasSubscription, Integer mesesPermanencia, boolean hasMetrics) {
+    }
+
+    /**
+     * Los tres contadores desde la BD (una consulta, tres COUNT por índice)
+     */
+    public KpiCounts countAll() {
+        return jdbcTemplate.queryForObject(COUNT_ALL_SQL, (rs, rowNum) -> new KpiCounts(
+                rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+    }
+
+    /**
+     * Cuáles de los clientes tienen contrato mensual
+     */
+    public Set<String> findMonthlyContracts(Collection<String> customerIds) {
+        Set<String> monthly = new HashSet<>();
+        if (customerIds.isEmpty()) {
+            return monthly;
+        }
+        jdbcTemplate.query(
+                "SELECT customer_id FROM subscriptions WHERE tipo_contrato = ? AND customer_id IN ("
+                        + placeholders(customerIds.size()) + ")",
+                rs -> {
+                    monthly.add(rs.getString(1));
+                },
+                concat(MONTHLY_CONTRACT, customerIds));
+        return monthly;
+    }
+
+    /**
+     * Clientes del lote que ya existen, con su suscripción y métricas actuales
+     */
+    public Map<String, ExistingCustomer> findExisting(Collection<String> customerIds) {
+        Map<String, ExistingCustomer> existing = new HashMap<>();
+        if (customerIds.isEmpty()) {
+            return existing;
+        }
+        jdbcTemplate.query("""
+                SELECT c.id, s.customer_id, s.meses_permanencia, m.customer_id
+                  FROM customers c
+                  LEFT JOIN subscriptions s ON s.customer_id = c.id
+                  LEFT JOIN customer_metrics m ON m.customer_id = c.id
+                 WHERE c.id IN (%s)
+                """.formatted(placeholders(customerIds.size())),
+                rs -> {
+                    existing.put(rs.getString(1), new ExistingCustomer(
+                            rs.getString(2) != null,
+                            rs.getObject(3, Integer.class),
+                            rs.getString(4) != null));
+                },
+                customerIds.toArray());
+        return existing;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private static Object[] concat(Object first, Collection<String> rest) {
+        Object[] args = new Object[rest.size() + 1];
+        args[0] = first;
+        int i = 1;
+        for (String value : rest) {
+            args[i++] = value;
+        }
+        return args;
+    }
+}
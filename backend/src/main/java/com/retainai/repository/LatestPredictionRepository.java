@@ -0,0 +1,57 @@
+package com.retainai.repository;
+
+import com.retainai.dto.RiskEntry;
+import com.retainai.model.CustomerLatestPrediction;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 📌 Lecturas de la última predicción por cliente (tabla customer_latest_prediction)
+ *
+ * Las escrituras van por PredictionWriter (upsert en el mismo commit que ai_predictions).
+ */
+public interface LatestPredictionRepository extends JpaRepository<CustomerLatestPrediction, String> {
+
+    // Tamaño máximo de cada IN (...) por clave primaria
+    int LOOKUP_CHUNK_SIZE = 1000;
+
+    List<CustomerLatestPrediction> findByCustomerIdIn(Collection<String> customerIds);
+
+    // 🔥 Mayor riesgo actual (índice idx_latest_probabilidad + LIMIT del Pageable)
+    @Query("SELECT l FROM CustomerLatestPrediction l JOIN FETCH l.customer ORDER BY l.probabilidadFuga DESC")
+    List<CustomerLatestPrediction> findHighestRisk(Pageable pageable);
+
+    // 🏆 Ranking ligero para RiskLeaderboardService: solo id y probabilidad
+    // (idx_latest_probabilidad ya contiene la PK, no toca las filas)
+    @Query("SELECT new com.retainai.dto.RiskEntry(l.customerId, l.probabilidadFuga) " +
+            "FROM CustomerLatestPrediction l WHERE l.probabilidadFuga IS NOT NULL " +
+            "ORDER BY l.probabilidadFuga DESC")
+    List<RiskEntry> findTopRisk(Pageable pageable);
+
+    @Query("SELECT l FROM CustomerLatestPrediction l JOIN FETCH l.customer WHERE l.customerId IN :customerIds")
+    List<CustomerLatestPrediction> findWithCustomerByCustomerIdIn(@Param("customerIds") Collection<String> customerIds);
+
+    /**
+     * customerId → última predicción, con búsquedas por PK en bloques
+     * (los clientes sin predicción no aparecen)
+     */
+    default Map<String, CustomerLatestPrediction> findMapByCustomerIds(Collection<String> customerIds) {
+        Map<String, CustomerLatestPrediction> latest = new HashMap<>(customerIds.size() * 2);
+        List<String> ids = new ArrayList<>(customerIds);
+        for (int from = 0; from < ids.size(); from += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, ids.size()));
+            for (CustomerLatestPrediction prediction : findByCustomerIdIn(chunk)) {
+                latest.put(prediction.getCustomerId(), prediction);
+            }
+        }
+        return latest;
+    }
+}
@@ -9,13 +9,23 @@ import java.util.List;
 public interface PredictionRepository extends JpaRepository<AiPrediction, Long> {
     List<AiPrediction> findByCustomerId(String customerId);
 
-    // 🚀 Batch query optimizada para mapa - evita N+1 queries
-    @Query("SELECT p FROM AiPrediction p WHERE p.customer.id IN :customerIds")
+    // 🚀 Última predicción de cada cliente de la lista (una fila por cliente).
+    // ROW_NUMBER() por cliente: fecha más reciente y, a igualdad, el id mayor.
+    // Para lecturas calientes usar LatestPredictionRepository (PK, coste fijo por id).
+    @Query(value = """
+            SELECT p.* FROM ai_predictions p
+            INNER JOIN (
+                SELECT id, ROW_NUMBER() OVER (PARTITION BY customer_id
+                                              ORDER BY fecha_analisis DESC, id DESC) AS rn
+                FROM ai_predictions
+                WHERE customer_id IN (:customerIds)
+            ) ranked ON ranked.id = p.id AND ranked.rn = 1
+            """, nativeQuery = true)
     List<AiPrediction> findLatestByCustomerIds(@Param("customerIds") List<String> customerIds);
 
-    // 🔥 Top clientes de alto riesgo para chatbot
-    @Query("SELECT p FROM AiPrediction p ORDER BY p.probabilidadFuga DESC")
-    List<AiPrediction> findTop3HighRiskCustomers();
+    // Historial completo de varios clientes (referencia del benchmark /api/benchmarks/latest-lookup)
+    @Query("SELECT p FROM AiPrediction p WHERE p.customer.id IN :customerIds")
+    List<AiPrediction> findHistoryByCustomerIds(@Param("customerIds") List<String> customerIds);
 
     // 🗺️ Query optimizada para obtener SOLO la última predicción de cada cliente
     @Query(value = """
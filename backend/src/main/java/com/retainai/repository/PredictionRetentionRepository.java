@@ -0,0 +1,275 @@
+package com.retainai.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * 🧹 Retención del historial de ai_predictions (JDBC)
+ *
+ * Compactación: por bloques keyset de clientes (una transacción corta cada
+ * uno, como el backfill de PredictionWriter) se lee el historial (id y fecha,
+ * cubierto por idx_pred_customer_fecha), RetentionPolicy decide qué filas no
+ * conserva y se borran por id. La última predicción de cada cliente no se
+ * borra nunca, así que customer_latest_prediction no cambia.
+ *
+ * Particionado (opcional): RANGE COLUMNS(fecha_analisis) por meses, con una
+ * partición pmax al final. Borrar un mes entero es un DROP PARTITION en lugar
+ * de millones de DELETE.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class PredictionRetentionRepository {
+
+    private static final String TABLE = "ai_predictions";
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    // Historial de un bloque de clientes, de más reciente a más antigua por cliente
+    private static final String HISTORY_SQL = """
+            SELECT customer_id, id, fecha_analisis
+            FROM ai_predictions
+            WHERE customer_id > ? AND customer_id <= ?
+            ORDER BY customer_id, fecha_analisis DESC, id DESC
+            """;
+
+    private static final int DELETE_CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Qué se conserva del historial de cada cliente. Son reglas de
+     * conservación: una fila se borra solo si no la protege ninguna.
+     *
+     * @param keepLast    últimas N predicciones (0 = solo la última)
+     * @param dailyBefore antes de esta fecha (y hasta weeklyBefore), una predicción por día (null = no aplica)
+     * @param weeklyBefore antes de esta fecha, una predicción por semana (null = no aplica)
+     */
+    public record RetentionPolicy(int keepLast, LocalDateTime dailyBefore, LocalDateTime weeklyBefore) {
+
+        public boolean isNoop() {
+            return keepLast <= 0 && dailyBefore == null && weeklyBefore == null;
+        }
+
+        /**
+         * Ids del historial de un cliente (de más reciente a más antigua) que
+         * no conserva ninguna regla:
+         * - las últimas keepLast (la última, siempre)
+         * - la más reciente de cada día en el tramo diario [weeklyBefore, dailyBefore)
+         * - la más reciente de cada semana ISO antes de weeklyBefore
+         */
+        public List<Long> rowsToDelete(List<HistoryRow> newestFirst) {
+            int protectedRows = Math.max(keepLast, 1);
+            List<Long> doomed = new ArrayList<>();
+            LocalDate previousDay = null;
+            int previousWeek = -1;
+            for (int rank = 0; rank < newestFirst.size(); rank++) {
+                HistoryRow row = newestFirst.get(rank);
+                LocalDateTime fecha = row.fechaAnalisis();
+                // Primera fila (la más reciente) de su día / semana ISO: equivale a ROW_NUMBER() = 1
+                boolean firstOfDay = false;
+                boolean firstOfWeek = false;
+                if (fecha != null) {
+                    LocalDate day = fecha.toLocalDate();
+                    int week = day.get(IsoFields.WEEK_BASED_YEAR) * 100 + day.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
+                    firstOfDay = !day.equals(previousDay);
+                    firstOfWeek = week != previousWeek;
+                    previousDay = day;
+                    previousWeek = week;
+                }
+
+                boolean kept = rank < protectedRows
+                        || (firstOfDay && inDailyTier(fecha))
+                        || (firstOfWeek && weeklyBefore != null && fecha.isBefore(weeklyBefore));
+                if (!kept) {
+                    doomed.add(row.id());
+                }
+            }
+            return doomed;
+        }
+
+        private boolean inDailyTier(LocalDateTime fecha) {
+            return dailyBefore != null && fecha.isBefore(dailyBefore)
+                    && (weeklyBefore == null || !fecha.isBefore(weeklyBefore));
+        }
+    }
+
+    /**
+     * Una fila del historial de un cliente (fechaAnalisis puede ser null en filas antiguas)
+     */
+    public record HistoryRow(long id, LocalDateTime fechaAnalisis) {
+    }
+
+    /**
+     * Resultado de un bloque de la compactación: cursor, clientes recorridos y filas borradas
+     */
+    public record CompactionChunk(String lastCustomerId, int customers, int deleted) {
+
+        public boolean isEmpty() {
+            return customers == 0;
+        }
+    }
+
+    /**
+     * Un bloque de la compactación: los siguientes {@code limit} clientes tras
+     * {@code afterCustomerId} (orden por id), en su propia transacción
+     */
+    @Transactional
+    public CompactionChunk compactChunk(String afterCustomerId, int limit, RetentionPolicy policy) {
+        List<String> customerIds = jdbcTemplate.queryForList(
+                "SELECT id FROM customers WHERE id > ? ORDER BY id LIMIT ?", String.class, afterCustomerId, limit);
+        if (customerIds.isEmpty()) {
+            return new CompactionChunk(afterCustomerId, 0, 0);
+        }
+
+        String lastCustomerId = customerIds.get(customerIds.size() - 1);
+        List<Long> doomed = new ArrayList<>();
+        List<HistoryRow> history = new ArrayList<>();
+        String[] currentCustomer = {null};
+        jdbcTemplate.query(HISTORY_SQL, rs -> {
+            String customerId = rs.getString(1);
+            if (!customerId.equals(currentCustomer[0])) {
+                doomed.addAll(policy.rowsToDelete(history));
+                history.clear();
+                currentCustomer[0] = customerId;
+            }
+            Timestamp fecha = rs.getTimestamp(3);
+            history.add(new HistoryRow(rs.getLong(2), fecha != null ? fecha.toLocalDateTime() : null));
+        }, afterCustomerId, lastCustomerId);
+        doomed.addAll(policy.rowsToDelete(history));
+
+        int deleted = 0;
+        for (int from = 0; from < doomed.size(); from += DELETE_CHUNK) {
+            List<Long> chunk = doomed.subList(from, Math.min(from + DELETE_CHUNK, doomed.size()));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            deleted += jdbcTemplate.update("DELETE FROM ai_predictions WHERE id IN (" + placeholders + ")",
+                    chunk.toArray());
+        }
+        return new CompactionChunk(lastCustomerId, customerIds.size(), deleted);
+    }
+
+    // ========== PARTICIONADO ==========
+
+    /**
+     * Particiones actuales de ai_predictions en orden (vacío si no está particionada)
+     */
+    public List<String> findPartitionNames() {
+        return jdbcTemplate.queryForList("""
+                SELECT PARTITION_NAME FROM information_schema.PARTITIONS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL
+                ORDER BY PARTITION_ORDINAL_POSITION
+                """, String.class, TABLE);
+    }
+
+    /**
+     * Convierte ai_predictions en tabla particionada por mes (reconstruye la
+     * tabla: operación única y pesada, lanzar en una ventana de mantenimiento).
+     *
+     * MySQL exige que la clave de partición esté en todas las claves únicas
+     * y no admite foreign keys en tablas particionadas, así que:
+     * - la PK pasa a (id, fecha_analisis) y fecha_analisis a NOT NULL
+     * - se eliminan las foreign keys de ai_predictions (el índice de customer_id se mantiene;
+     *   AiPrediction mapea customer_id con NO_CONSTRAINT, así ddl-auto no las recrea)
+     */
+    public void partitionByMonth(YearMonth from, YearMonth to) {
+        List<String> foreignKeys = jdbcTemplate.queryForList("""
+                SELECT CONSTRAINT_NAME FROM information_schema.TABLE_CONSTRAINTS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND CONSTRAINT_TYPE = 'FOREIGN KEY'
+                """, String.class, TABLE);
+        for (String foreignKey : foreignKeys) {
+            jdbcTemplate.execute("ALTER TABLE ai_predictions DROP FOREIGN KEY `" + foreignKey + "`");
+            log.info("🧹 Foreign key {} eliminada de ai_predictions", foreignKey);
+        }
+
+        // Filas antiguas sin fecha: van al primer mes (nunca serán la última de nadie con fecha)
+        jdbcTemplate.update("UPDATE ai_predictions SET fecha_analisis = ? WHERE fecha_analisis IS NULL",
+                Timestamp.valueOf(from.atDay(1).atStartOfDay()));
+        jdbcTemplate.execute("ALTER TABLE ai_predictions MODIFY fecha_analisis DATETIME(6) NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE ai_predictions DROP PRIMARY KEY, ADD PRIMARY KEY (id, fecha_analisis)");
+
+        StringBuilder partitions = new StringBuilder();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            partitions.append(partitionDefinition(month)).append(",\n");
+        }
+        partitions.append("PARTITION ").append(MAX_PARTITION).append(" VALUES LESS THAN (MAXVALUE)");
+
+        jdbcTemplate.execute("ALTER TABLE ai_predictions PARTITION BY RANGE COLUMNS(fecha_analisis) (\n"
+                + partitions + ")");
+        log.info("🧹 ai_predictions particionada por mes: {} → {}", from, to);
+    }
+
+    /**
+     * Añade el mes indicado separándolo de pmax (pmax solo tiene filas futuras,
+     * así que la reorganización es barata)
+     */
+    public void addMonthPartition(YearMonth month) {
+        jdbcTemplate.execute("ALTER TABLE ai_predictions REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+                + partitionDefinition(month) + ", PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE))");
+    }
+
+    /**
+     * Mes de la predicción más antigua (null si no hay historial)
+     */
+    public YearMonth findOldestAnalysisMonth() {
+        Timestamp oldest = jdbcTemplate.queryForObject(
+                "SELECT MIN(fecha_analisis) FROM ai_predictions", Timestamp.class);
+        return oldest != null ? YearMonth.from(oldest.toLocalDateTime()) : null;
+    }
+
+    /**
+     * ¿Alguna fila de la partición del mes está entre las últimas
+     * {@code keepLast} de su cliente? Las particiones posteriores solo tienen
+     * filas más recientes, así que basta contar las de meses siguientes
+     * (índice idx_pred_customer_fecha).
+     */
+    public boolean holdsLatestRows(String partitionName, YearMonth month, int keepLast) {
+        Boolean holds = jdbcTemplate.queryForObject("""
+                SELECT EXISTS (
+                    SELECT 1 FROM (SELECT DISTINCT customer_id FROM ai_predictions PARTITION (`%s`)) c
+                    WHERE (SELECT COUNT(*) FROM ai_predictions n
+                           WHERE n.customer_id = c.customer_id AND n.fecha_analisis >= ?) < ?
+                )
+                """.formatted(partitionName), Boolean.class,
+                Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()), keepLast);
+        return Boolean.TRUE.equals(holds);
+    }
+
+    public void dropPartition(String partitionName) {
+        jdbcTemplate.execute("ALTER TABLE ai_predictions DROP PARTITION `" + partitionName + "`");
+    }
+
+    /**
+     * Mes de cada partición mensual (pYYYYMM); pmax y nombres ajenos se ignoran
+     */
+    public static Map<String, YearMonth> monthlyPartitions(List<String> partitionNames) {
+        return partitionNames.stream()
+                .filter(name -> name.matches("p\\d{6}"))
+                .collect(Collectors.toMap(name -> name, name -> YearMonth.parse(name.substring(1),
+                        DateTimeFormatter.ofPattern("yyyyMM")), (a, b) -> a, TreeMap::new));
+    }
+
+    public static String partitionName(YearMonth month) {
+        return PARTITION_NAME.format(month.atDay(1));
+    }
+
+    private static String partitionDefinition(YearMonth month) {
+        LocalDate upperBound = month.plusMonths(1).atDay(1);
+        return "PARTITION " + partitionName(month) + " VALUES LESS THAN ('" + upperBound + "')";
+    }
+}
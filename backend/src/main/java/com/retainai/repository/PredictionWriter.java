@@ -0,0 +1,246 @@
+package com.retainai.repository;
+
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.AiPrediction;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🚀 Escritura masiva de predicciones (JDBC batch)
+ *
+ * AiPrediction usa IDENTITY, así que Hibernate desactiva el batching y
+ * saveAll() hace un INSERT por fila. Aquí se usa JdbcTemplate.batchUpdate y,
+ * con rewriteBatchedStatements=true en la URL, el driver de MySQL lo envía
+ * como INSERTs multi-fila: pocas idas y vueltas por cada miles de predicciones.
+ *
+ * IMPORTANTE: no pasa por @PrePersist, por eso nivel_riesgo se calcula con
+ * AiPrediction.riskLevelFor (mismos umbrales).
+ *
+ * 📌 También mantiene customer_latest_prediction (última predicción por
+ * cliente): cada escritura hace upsert de la proyección en la misma
+ * transacción. Las AiPrediction guardadas por JPA deben pasar por
+ * upsertLatest().
+ *
+ * 📣 Tras cada escritura publica PredictionsWrittenEvent (los listeners
+ * transaccionales lo reciben después del commit), con el nivel de riesgo
+ * que cada cliente tenía antes para quien mantenga contadores.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class PredictionWriter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.batch.insert-chunk-size:1000}")
+    private int chunkSize;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO ai_predictions
+                (customer_id, probabilidad_fuga, motivo_principal, nivel_riesgo, fecha_analisis, feature_hash)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+
+    // Solo sobrescribe si la fila entrante no es más antigua que la guardada.
+    // fecha_analisis va la última: MySQL evalúa las asignaciones en orden.
+    private static final String NEWER = "(fecha_analisis IS NULL OR VALUES(fecha_analisis) >= fecha_analisis)";
+
+    private static final String UPSERT_LATEST_ON_DUPLICATE = """
+            ON DUPLICATE KEY UPDATE
+                probabilidad_fuga = IF(%1$s, VALUES(probabilidad_fuga), probabilidad_fuga),
+                motivo_principal = IF(%1$s, VALUES(motivo_principal), motivo_principal),
+                nivel_riesgo = IF(%1$s, VALUES(nivel_riesgo), nivel_riesgo),
+                feature_hash = IF(%1$s, VALUES(feature_hash), feature_hash),
+                fecha_analisis = IF(%1$s, VALUES(fecha_analisis), fecha_analisis)
+            """.formatted(NEWER);
+
+    private static final String UPSERT_LATEST_SQL = """
+            INSERT INTO customer_latest_prediction
+                (customer_id, probabilidad_fuga, motivo_principal, nivel_riesgo, fecha_analisis, feature_hash)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """ + UPSERT_LATEST_ON_DUPLICATE;
+
+    // Reconstrucción desde el historial para un rango de clientes (última por fecha, luego por id)
+    private static final String BACKFILL_LATEST_SQL = """
+            INSERT INTO customer_latest_prediction
+                (customer_id, probabilidad_fuga, motivo_principal, nivel_riesgo, fecha_analisis, feature_hash)
+            SELECT customer_id, probabilidad_fuga, motivo_principal, nivel_riesgo, fecha_analisis, feature_hash
+            FROM (
+                SELECT p.customer_id, p.probabilidad_fuga, p.motivo_principal, p.nivel_riesgo,
+                       p.fecha_analisis, p.feature_hash,
+                       ROW_NUMBER() OVER (PARTITION BY p.customer_id
+                                          ORDER BY p.fecha_analisis DESC, p.id DESC) AS rn
+                FROM ai_predictions p
+                WHERE p.customer_id > ? AND p.customer_id <= ?
+            ) ranked
+            WHERE rn = 1
+            """ + UPSERT_LATEST_ON_DUPLICATE;
+
+    /**
+     * Resultado de un bloque del backfill: cursor, clientes recorridos y filas tocadas
+     */
+    public record BackfillChunk(String lastCustomerId, int customers, int upserted) {
+
+        public boolean isEmpty() {
+            return customers == 0;
+        }
+    }
+
+    /**
+     * Predicción lista para insertar (sin entidad Customer, solo su id).
+     * featureHash = huella de las features puntuadas (null si no se conoce)
+     */
+    public record NewPrediction(String customerId, Double probability, String mainFactor, Long featureHash) {
+
+        public String riskLevel() {
+            return probability != null ? AiPrediction.riskLevelFor(probability) : null;
+        }
+    }
+
+    /**
+     * Inserta todas las predicciones con la misma fecha de análisis.
+     * Todo o nada: si un chunk falla se revierte la llamada completa.
+     *
+     * @return número de filas insertadas
+     */
+    @Transactional
+    public int insertAll(List<NewPrediction> predictions, LocalDateTime fechaAnalisis) {
+        if (predictions.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp timestamp = Timestamp.valueOf(fechaAnalisis);
+        int[][] counts = jdbcTemplate.batchUpdate(INSERT_SQL, predictions, chunkSize, (ps, prediction) -> {
+            ps.setString(1, prediction.customerId());
+            if (prediction.probability() != null) {
+                ps.setDouble(2, prediction.probability());
+            } else {
+                ps.setNull(2, Types.DOUBLE);
+            }
+            ps.setString(3, prediction.mainFactor());
+            ps.setString(4, prediction.riskLevel());
+            ps.setTimestamp(5, timestamp);
+            if (prediction.featureHash() != null) {
+                ps.setLong(6, prediction.featureHash());
+            } else {
+                ps.setNull(6, Types.BIGINT);
+            }
+        });
+
+        // Nivel anterior de cada cliente (antes del upsert) para el evento
+        List<String> previousRiskLevels = findCurrentRiskLevels(
+                predictions.stream().map(NewPrediction::customerId).toList());
+
+        // 📌 Misma transacción: la proyección nunca queda por detrás del historial
+        jdbcTemplate.batchUpdate(UPSERT_LATEST_SQL, predictions, chunkSize, (ps, prediction) -> {
+            ps.setString(1, prediction.customerId());
+            if (prediction.probability() != null) {
+                ps.setDouble(2, prediction.probability());
+            } else {
+                ps.setNull(2, Types.DOUBLE);
+            }
+            ps.setString(3, prediction.mainFactor());
+            ps.setString(4, prediction.riskLevel());
+            ps.setTimestamp(5, timestamp);
+            if (prediction.featureHash() != null) {
+                ps.setLong(6, prediction.featureHash());
+            } else {
+                ps.setNull(6, Types.BIGINT);
+            }
+        });
+
+        // Con rewriteBatchedStatements el driver devuelve SUCCESS_NO_INFO (-2) por fila
+        int inserted = 0;
+        for (int[] chunk : counts) {
+            inserted += chunk.length;
+        }
+        log.debug("🚀 {} predicciones insertadas en {} chunks", inserted, counts.length);
+        eventPublisher.publishEvent(new PredictionsWrittenEvent(
+                predictions.stream().map(NewPrediction::customerId).toList(),
+                predictions.stream().map(NewPrediction::probability).toList(),
+                previousRiskLevels));
+        return inserted;
+    }
+
+    /**
+     * Upsert de la proyección para una AiPrediction ya guardada por JPA
+     * (se une a la transacción del llamador si la hay)
+     */
+    @Transactional
+    public void upsertLatest(AiPrediction saved) {
+        if (saved.getCustomer() == null) {
+            return;
+        }
+        List<String> previousRiskLevels = findCurrentRiskLevels(List.of(saved.getCustomer().getId()));
+        jdbcTemplate.update(UPSERT_LATEST_SQL,
+                saved.getCustomer().getId(),
+                saved.getProbabilidadFuga(),
+                saved.getMotivoPrincipal(),
+                saved.getNivelRiesgo(),
+                saved.getFechaAnalisis() != null ? Timestamp.valueOf(saved.getFechaAnalisis()) : null,
+                saved.getFeatureHash());
+        eventPublisher.publishEvent(new PredictionsWrittenEvent(
+                List.of(saved.getCustomer().getId()),
+                Collections.singletonList(saved.getProbabilidadFuga()),
+                previousRiskLevels));
+    }
+
+    /**
+     * nivel_riesgo actual en customer_latest_prediction de cada cliente, en
+     * el mismo orden (null si aún no tiene predicción). Búsqueda por PK en chunks.
+     */
+    private List<String> findCurrentRiskLevels(List<String> customerIds) {
+        Map<String, String> current = new HashMap<>(customerIds.size() * 2);
+        for (int from = 0; from < customerIds.size(); from += chunkSize) {
+            List<String> chunk = customerIds.subList(from, Math.min(from + chunkSize, customerIds.size()));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            jdbcTemplate.query(
+                    "SELECT customer_id, nivel_riesgo FROM customer_latest_prediction WHERE customer_id IN ("
+                            + placeholders + ")",
+                    rs -> {
+                        current.put(rs.getString(1), rs.getString(2));
+                    },
+                    chunk.toArray());
+        }
+        List<String> levels = new ArrayList<>(customerIds.size());
+        for (String customerId : customerIds) {
+            levels.add(current.get(customerId));
+        }
+        return levels;
+    }
+
+    /**
+     * Un bloque del backfill: los siguientes {@code limit} clientes tras
+     * {@code afterCustomerId} (orden por id), en su propia transacción
+     */
+    @Transactional
+    public BackfillChunk backfillLatest(String afterCustomerId, int limit) {
+        List<String> customerIds = jdbcTemplate.queryForList(
+                "SELECT id FROM customers WHERE id > ? ORDER BY id LIMIT ?", String.class, afterCustomerId, limit);
+        if (customerIds.isEmpty()) {
+            return new BackfillChunk(afterCustomerId, 0, 0);
+        }
+
+        String lastCustomerId = customerIds.get(customerIds.size() - 1);
+        int upserted = jdbcTemplate.update(BACKFILL_LATEST_SQL, afterCustomerId, lastCustomerId);
+        if (upserted > 0) {
+            eventPublisher.publishEvent(new PredictionsWrittenEvent(customerIds, null, null));
+        }
+        return new BackfillChunk(lastCustomerId, customerIds.size(), upserted);
+    }
+}
@@ -45,6 +45,10 @@ public class SecurityConfig {
                         .requestMatchers("/api/customers/predict/batch").permitAll() // Batch prediction (CSV)
                         .requestMatchers("/api/customers/predict/batch-all").permitAll() // Batch prediction (ALL)
                         .requestMatchers("/api/customers/predict/direct").permitAll() // Direct prediction
+                        .requestMatchers(HttpMethod.POST, "/api/batch-jobs/predict-all",
+                                "/api/batch-jobs/analyze-all").permitAll() // Batch prediction jobs (async)
+                        .requestMatchers(HttpMethod.GET, "/api/batch-jobs", "/api/batch-jobs/*").permitAll()
+                        .requestMatchers(HttpMethod.DELETE, "/api/batch-jobs/*").permitAll() // Cancelar job
                         .requestMatchers("/api/dashboard/**").permitAll()
                         .requestMatchers("/api/insights/**").permitAll() // Insights prioritarios
                         .requestMatchers("/api/geo/**").permitAll()
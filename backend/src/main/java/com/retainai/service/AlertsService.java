@@ -1,8 +1,7 @@
 package com.retainai.service;
 
 import com.retainai.dto.CriticalAlertDto;
-import com.retainai.repository.CustomerRepository;
-import com.retainai.repository.SubscriptionRepository;
+import com.retainai.dto.KpiCounts;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -15,17 +14,18 @@ import java.util.List;
 @Slf4j
 public class AlertsService {
 
-    private final CustomerRepository customerRepository;
-    private final SubscriptionRepository subscriptionRepository;
+    private final KpiCounterService kpiCounterService;
 
     /**
-     * Genera alertas críticas basadas en datos reales de la BD
+     * Genera alertas críticas a partir de los contadores en memoria
+     * (KpiCounterService), sin consultar la BD
      */
     public List<CriticalAlertDto> getCriticalAlerts() {
         List<CriticalAlertDto> alerts = new ArrayList<>();
+        KpiCounts counts = kpiCounterService.current();
 
         // Alerta 1: Clientes con muchos tickets de soporte
-        long highTicketCustomers = customerRepository.countByTicketsSoporteGreaterThanEqual(6);
+        long highTicketCustomers = counts.highTicketCustomers();
         if (highTicketCustomers > 0) {
             alerts.add(CriticalAlertDto.builder()
                     .type("high_tickets")
@@ -38,10 +38,8 @@ public class AlertsService {
                     .build());
         }
 
-        // Alerta 2: Contratos mensuales en riesgo
-        long monthlyContracts = subscriptionRepository.countByTipoContratoAndNivelRiesgoIn(
-                "Mensual",
-                List.of("High", "Alto", "Medium", "Medio"));
+        // Alerta 2: Contratos mensuales en riesgo (según su última predicción)
+        long monthlyContracts = counts.monthlyContractsAtRisk();
         if (monthlyContracts > 0) {
             alerts.add(CriticalAlertDto.builder()
                     .type("monthly_contracts")
@@ -55,7 +53,7 @@ public class AlertsService {
         }
 
         // Alerta 3: Clientes en período crítico de onboarding (0-12 meses)
-        long onboardingCustomers = subscriptionRepository.countByMesesPermanenciaBetween(0, 12);
+        long onboardingCustomers = counts.onboardingCustomers();
         if (onboardingCustomers > 0) {
             alerts.add(CriticalAlertDto.builder()
                     .type("onboarding")
@@ -0,0 +1,138 @@
+package com.retainai.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 🔄 Recálculos en segundo plano de las estructuras en memoria
+ *
+ * Cada servicio registra la reconstrucción de su estructura en memoria y
+ * recibe una {@link Task} que:
+ * - agrupa las peticiones: como mucho una en cola por tarea, así que una
+ *   ráfaga de escrituras se convierte en una sola reconstrucción
+ * - se ejecuta al arrancar (ApplicationReadyEvent) y, opcionalmente, cada
+ *   cierto intervalo o cuando se ha marcado como sucia
+ * Todas comparten un pool de hilos daemon que se cierra con el contexto.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BackgroundRefresher {
+
+    private final TaskScheduler taskScheduler;
+
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "background-refresh-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Registra una reconstrucción (se lanza una vez al arrancar la aplicación)
+     *
+     * @param name    nombre para el log
+     * @param refresh la reconstrucción; desde aquí nunca se ejecutan dos a la vez
+     */
+    public Task register(String name, Runnable refresh) {
+        Task task = new Task(name, refresh);
+        tasks.add(task);
+        return task;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void warmUp() {
+        tasks.forEach(Task::request);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public final class Task {
+
+        private final String name;
+        private final Runnable refresh;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+
+        private Task(String name, Runnable refresh) {
+            this.name = name;
+            this.refresh = refresh;
+        }
+
+        /**
+         * Encola la reconstrucción (no bloquea al llamador; si ya hay una en
+         * cola esta petición se agrupa con ella)
+         */
+        public void request() {
+            if (executor.isShutdown() || !queued.compareAndSet(false, true)) {
+                return;
+            }
+            executor.submit(() -> {
+                // Una a la vez por tarea: la siguiente espera a que termine la actual
+                synchronized (this) {
+                    queued.set(false);
+                    dirty.set(false);
+                    try {
+                        refresh.run();
+                    } catch (RuntimeException e) {
+                        log.warn("⚠️ Falló la reconstrucción en segundo plano {}: {}", name, e.getMessage());
+                    }
+                }
+            });
+        }
+
+        /**
+         * Hay cambios pendientes: se reconstruirá en la próxima comprobación
+         * de {@link #checkDirtyEvery}
+         */
+        public void markDirty() {
+            dirty.set(true);
+        }
+
+        /**
+         * Hay cambios que aún no ha recogido ninguna reconstrucción
+         */
+        public boolean isDirty() {
+            return dirty.get();
+        }
+
+        /**
+         * Reconstrucción periódica (la primera tras un intervalo completo)
+         */
+        public Task every(Duration interval) {
+            taskScheduler.scheduleWithFixedDelay(this::request, Instant.now().plus(interval), interval);
+            return this;
+        }
+
+        /**
+         * Cada {@code delay} se reconstruye si se ha marcado como sucia: agrupa
+         * las escrituras de un job en una sola reconstrucción
+         */
+        public Task checkDirtyEvery(Duration delay) {
+            taskScheduler.scheduleWithFixedDelay(() -> {
+                if (dirty.get()) {
+                    request();
+                }
+            }, Instant.now().plus(delay), delay);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.retainai.service;
+
+import com.retainai.dto.BatchJobStatusDTO;
+import com.retainai.dto.BatchPredictionResponseDTO;
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.repository.CustomerRepository;
+import com.retainai.repository.LatestPredictionRepository;
+import com.retainai.repository.PredictionRepository;
+import com.retainai.repository.PredictionRetentionRepository;
+import com.retainai.repository.PredictionWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ⏳ Jobs de predicción masiva en segundo plano
+ *
+ * submit() devuelve un jobId al instante; el pipeline corre en un executor
+ * propio (un job a la vez, el resto queda en cola) sin ocupar hilos de Tomcat.
+ * El estado se consulta por polling y el job se puede cancelar: deja de leer
+ * páginas nuevas y termina de guardar las que ya estaban en vuelo.
+ *
+ * Los jobs viven en memoria: se conservan los últimos app.batch.jobs.history
+ * terminados. Como mucho hay un job pendiente o en curso de cada tipo: pedir
+ * otro devuelve el que ya existe, así la cola del executor queda acotada.
+ *
+ * BACKFILL_LATEST reconstruye customer_latest_prediction desde ai_predictions
+ * en bloques de clientes (una transacción corta por bloque). Se lanza solo al
+ * arrancar si la proyección está vacía y ya hay historial.
+ *
+ * COMPACT_HISTORY aplica la retención de ai_predictions
+ * (PredictionRetentionService) con el mismo recorrido por bloques; se puede
+ * programar con app.retention.cron.
+ *
+ * POPULATE_COORDINATES asigna ubicaciones reales de Nueva York y una
+ * predicción sintética (GeoLocationService) por bloques; los clientes fuera
+ * de NY cuentan como "sin cambios".
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BatchJobService {
+
+    public enum JobType {
+        PREDICT_ALL,
+        ANALYZE_ALL,
+        PREDICT_DELTA,
+        BACKFILL_LATEST,
+        COMPACT_HISTORY,
+        POPULATE_COORDINATES
+    }
+
+    private final BatchPredictionPipeline batchPredictionPipeline;
+    private final CustomerRepository customerRepository;
+    private final PredictionRepository predictionRepository;
+    private final LatestPredictionRepository latestPredictionRepository;
+    private final PredictionWriter predictionWriter;
+    private final PredictionRetentionService retentionService;
+    private final GeoLocationService geoLocationService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.batch.jobs.history:20}")
+    private int historySize;
+
+    @Value("${app.batch.latest-backfill.chunk-size:5000}")
+    private int backfillChunkSize;
+
+    @Value("${app.batch.latest-backfill.on-startup:true}")
+    private boolean backfillOnStartup;
+
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Proyección vacía con historial existente (p. ej. primera versión con
+     * customer_latest_prediction): se reconstruye en segundo plano
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void backfillLatestIfEmpty() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        try {
+            if (latestPredictionRepository.count() == 0 && predictionRepository.count() > 0) {
+                log.info("📌 customer_latest_prediction vacía con historial existente: lanzando backfill");
+                submit(JobType.BACKFILL_LATEST);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo comprobar customer_latest_prediction: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Retención programada (app.retention.cron, "-" = desactivada). Si ya hay
+     * una compactación pendiente o en curso, submit() devuelve esa.
+     */
+    @Scheduled(cron = "${app.retention.cron:-}")
+    void scheduledCompaction() {
+        log.info("🧹 Retención programada de ai_predictions");
+        submit(JobType.COMPACT_HISTORY);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobs.values().forEach(job -> job.cancelRequested = true);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Encola un job y devuelve su estado inicial. Si ya hay uno del mismo tipo
+     * pendiente o en curso (también si se está cancelando) devuelve ese en
+     * lugar de encolar otro recorrido completo.
+     */
+    public synchronized BatchJobStatusDTO submit(JobType type) {
+        BatchJob active = jobs.values().stream()
+                .filter(job -> job.type == type && !job.isFinished())
+                .findFirst()
+                .orElse(null);
+        if (active != null) {
+            log.info("⏳ [JOB {}] {} ya está pendiente o en curso: se devuelve el existente", active.id, type);
+            return active.toStatus();
+        }
+
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), type);
+        jobs.put(job.id, job);
+        evictFinishedJobs();
+
+        executor.submit(() -> {
+            execute(job);
+            // Agregados del dashboard: se recalculan al terminar cada job
+            eventPublisher.publishEvent(new CustomerDataChangedEvent("batch-job " + job.type));
+        });
+        log.info("⏳ [JOB {}] {} encolado", job.id, type);
+        return job.toStatus();
+    }
+
+    public BatchJobStatusDTO getStatus(String jobId) {
+        return findJob(jobId).toStatus();
+    }
+
+    public List<BatchJobStatusDTO> listJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing((BatchJob job) -> job.submittedAt).reversed())
+                .map(BatchJob::toStatus)
+                .toList();
+    }
+
+    /**
+     * Cancelación cooperativa: el pipeline no lee más páginas y el job pasa a
+     * CANCELLED cuando terminan las que ya estaban en curso
+     */
+    public BatchJobStatusDTO cancel(String jobId) {
+        BatchJob job = findJob(jobId);
+        if (!job.isFinished()) {
+            job.cancelRequested = true;
+            log.info("🛑 [JOB {}] Cancelación solicitada", jobId);
+        }
+        return job.toStatus();
+    }
+
+    private void execute(BatchJob job) {
+        if (job.cancelRequested) {
+            job.finish("CANCELLED", "Cancelado antes de empezar", null);
+            return;
+        }
+
+        job.startedAt = LocalDateTime.now();
+        job.status = "RUNNING";
+        job.totalCustomers = customerRepository.count();
+        log.info("▶️ [JOB {}] {} iniciado: {} clientes", job.id, job.type, job.totalCustomers);
+
+        try {
+            switch (job.type) {
+                case BACKFILL_LATEST -> {
+                    runBackfill(job);
+                    return;
+                }
+                case COMPACT_HISTORY -> {
+                    runCompaction(job);
+                    return;
+                }
+                case POPULATE_COORDINATES -> {
+                    runCoordinatePopulation(job);
+                    return;
+                }
+                default -> {
+                }
+            }
+
+            BatchPredictionResponseDTO summary = batchPredictionPipeline.run(job, false,
+                    job.type == JobType.PREDICT_DELTA);
+
+            if (job.cancelRequested) {
+                job.finish("CANCELLED", "Cancelado por el usuario", summary.getStages());
+            } else if (job.success.get() == 0 && job.errors.get() > 0 && job.skipped.get() == 0) {
+                job.finish("FAILED", "Error al comunicarse con el servicio de IA: " + job.firstError,
+                        summary.getStages());
+            } else {
+                job.finish("COMPLETED", job.firstError, summary.getStages());
+            }
+        } catch (Exception e) {
+            log.error("❌ [JOB {}] Falló: {}", job.id, e.getMessage(), e);
+            job.finish("FAILED", e.getMessage(), null);
+        }
+
+        log.info("🏁 [JOB {}] {}: {} éxitos, {} errores, {} sin cambios", job.id, job.status, job.success.get(),
+                job.errors.get(), job.skipped.get());
+    }
+
+    /**
+     * Backfill por bloques keyset de clientes; cada bloque es un INSERT ... SELECT
+     * con ROW_NUMBER() en su propia transacción
+     */
+    private void runBackfill(BatchJob job) {
+        String lastId = "";
+        long upserted = 0;
+        while (!job.cancelRequested) {
+            PredictionWriter.BackfillChunk chunk = predictionWriter.backfillLatest(lastId, backfillChunkSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = chunk.lastCustomerId();
+            upserted += chunk.upserted();
+            job.success.addAndGet(chunk.customers());
+        }
+
+        String summary = "Filas de customer_latest_prediction actualizadas: " + upserted;
+        job.finish(job.cancelRequested ? "CANCELLED" : "COMPLETED", summary, null);
+        log.info("🏁 [JOB {}] {}: {} clientes recorridos, {}", job.id, job.status, job.success.get(), summary);
+    }
+
+    /**
+     * Compactación por bloques keyset de clientes (un DELETE por bloque en su
+     * propia transacción) y después mantenimiento de particiones si procede
+     */
+    private void runCompaction(BatchJob job) {
+        PredictionRetentionRepository.RetentionPolicy policy = retentionService.currentPolicy();
+        long deleted = 0;
+        if (!policy.isNoop()) {
+            String lastId = "";
+            while (!job.cancelRequested) {
+                PredictionRetentionRepository.CompactionChunk chunk = retentionService.compactChunk(lastId, policy);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                lastId = chunk.lastCustomerId();
+                deleted += chunk.deleted();
+                job.success.addAndGet(chunk.customers());
+            }
+        }
+
+        String summary = "Predicciones históricas eliminadas: " + deleted;
+        if (!job.cancelRequested) {
+            Map<String, Object> partitions = retentionService.maintainPartitions();
+            if (!partitions.isEmpty()) {
+                summary += ". Particiones: " + partitions;
+            }
+        }
+        job.finish(job.cancelRequested ? "CANCELLED" : "COMPLETED", summary, null);
+        log.info("🏁 [JOB {}] {}: {} clientes recorridos, {}", job.id, job.status, job.success.get(), summary);
+    }
+
+    /**
+     * Coordenadas por bloques keyset de clientes (UPDATE por lotes + predicciones
+     * sintéticas en la transacción de cada bloque)
+     */
+    private void runCoordinatePopulation(BatchJob job) {
+        GeoLocationService.CoordinateRun run = geoLocationService.startCoordinateRun();
+        String lastId = "";
+        while (!job.cancelRequested) {
+            GeoLocationService.CoordinateChunk chunk = geoLocationService.populateChunk(run, lastId);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = chunk.lastCustomerId();
+            job.success.addAndGet(chunk.updated());
+            job.skipped.addAndGet(chunk.skipped());
+        }
+
+        String summary = "Clientes con coordenadas: " + job.success.get() + ", fuera de NY: " + job.skipped.get();
+        job.finish(job.cancelRequested ? "CANCELLED" : "COMPLETED", summary, null);
+        log.info("🏁 [JOB {}] {}: {}", job.id, job.status, summary);
+    }
+
+    private BatchJob findJob(String jobId) {
+        BatchJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Job no encontrado: " + jobId);
+        }
+        return job;
+    }
+
+    // Solo se conservan los últimos N jobs terminados
+    private void evictFinishedJobs() {
+        List<BatchJob> finished = jobs.values().stream()
+                .filter(BatchJob::isFinished)
+                .sorted(Comparator.comparing((BatchJob job) -> job.finishedAt).reversed())
+                .toList();
+        finished.stream().skip(historySize).forEach(job -> jobs.remove(job.id));
+    }
+
+    /**
+     * Estado mutable de un job. Lo escribe el hilo de persistencia del pipeline
+     * y lo leen las peticiones de estado, por eso contadores atómicos y volatile.
+     */
+    private static final class BatchJob implements BatchPredictionPipeline.Listener {
+        private final String id;
+        private final JobType type;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+
+        private volatile String status = "QUEUED";
+        private volatile boolean cancelRequested;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile long totalCustomers;
+        private volatile String message;
+        private volatile String firstError;
+        private volatile List<BatchPredictionResponseDTO.StageMetrics> stages;
+
+        private final AtomicLong success = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong highRisk = new AtomicLong();
+        private final AtomicLong mediumRisk = new AtomicLong();
+        private final AtomicLong lowRisk = new AtomicLong();
+
+        BatchJob(String id, JobType type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelRequested;
+        }
+
+        @Override
+        public void onPageResults(List<BatchPredictionResponseDTO.PredictionResult> pageResults) {
+            for (BatchPredictionResponseDTO.PredictionResult result : pageResults) {
+                if (result.getError() != null) {
+                    if (firstError == null) {
+                        firstError = result.getError();
+                    }
+                    errors.incrementAndGet();
+                    continue;
+                }
+                success.incrementAndGet();
+                if (result.getRisk() != null) {
+                    switch (result.getRisk()) {
+                        case "Alto" -> highRisk.incrementAndGet();
+                        case "Medio" -> mediumRisk.incrementAndGet();
+                        case "Bajo" -> lowRisk.incrementAndGet();
+                        default -> {
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onSkipped(int count) {
+            skipped.addAndGet(count);
+        }
+
+        boolean isFinished() {
+            return finishedAt != null;
+        }
+
+        void finish(String finalStatus, String finalMessage,
+                List<BatchPredictionResponseDTO.StageMetrics> finalStages) {
+            message = finalMessage;
+            stages = finalStages;
+            finishedAt = LocalDateTime.now();
+            status = finalStatus;
+        }
+
+        BatchJobStatusDTO toStatus() {
+            long processed = success.get() + errors.get() + skipped.get();
+            Long elapsedMillis = null;
+            Double itemsPerSecond = null;
+            if (startedAt != null) {
+                LocalDateTime end = finishedAt != null ? finishedAt : LocalDateTime.now();
+                elapsedMillis = Duration.between(startedAt, end).toMillis();
+                itemsPerSecond = Math.round(processed * 10_000.0 / Math.max(elapsedMillis, 1)) / 10.0;
+            }
+            Double progressPercent = totalCustomers > 0
+                    ? Math.min(100.0, Math.round(processed * 1000.0 / totalCustomers) / 10.0)
+                    : null;
+            String currentStatus = cancelRequested && !isFinished() ? "CANCELLING" : status;
+
+            return BatchJobStatusDTO.builder()
+                    .jobId(id)
+                    .type(type.name())
+                    .status(currentStatus)
+                    .submittedAt(submittedAt)
+                    .startedAt(startedAt)
+                    .finishedAt(finishedAt)
+                    .totalCustomers(startedAt != null ? totalCustomers : null)
+                    .processed(processed)
+                    .successCount(success.get())
+                    .errorCount(errors.get())
+                    .skippedCount(skipped.get())
+                    .progressPercent(progressPercent)
+                    .itemsPerSecond(itemsPerSecond)
+                    .elapsedMillis(elapsedMillis)
+                    .highRiskCount(highRisk.get())
+                    .mediumRiskCount(mediumRisk.get())
+                    .lowRiskCount(lowRisk.get())
+                    .message(message)
+                    .stages(stages)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.retainai.service;
+
+import com.retainai.dto.BatchPredictionResponseDTO;
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.FeatureMatrixPage;
+import com.retainai.dto.PredictionResponseDto;
+import com.retainai.repository.CustomerFeatureRepository;
+import com.retainai.repository.PredictionWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * 🏭 Pipeline de predicción masiva con etapas concurrentes
+ *
+ * read (páginas keyset de MySQL, un JOIN JDBC volcado directamente a una
+ * FeatureMatrix de doubles) → map (separa clientes sin suscripción) → score
+ * (Python /predict/batch/compact en float64, N peticiones en vuelo) → persist
+ * (INSERT multi-fila vía PredictionWriter)
+ *
+ * Las etapas se comunican con colas acotadas (app.batch.queue-capacity), así
+ * la BD, la JVM y el servidor del modelo trabajan a la vez y la memoria queda
+ * limitada a (colas + peticiones en vuelo) páginas.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BatchPredictionPipeline {
+
+    private final CustomerFeatureRepository customerFeatureRepository;
+    private final PythonBatchClient pythonBatchClient;
+    private final PredictionWriter predictionWriter;
+
+    @Value("${app.batch.page-size:5000}")
+    private int pageSize;
+
+    @Value("${app.batch.queue-capacity:2}")
+    private int queueCapacity;
+
+    @Value("${app.batch.delta.max-age-days:7}")
+    private int deltaMaxAgeDays;
+
+    // Marcadores de fin de flujo entre etapas
+    private static final ReadPage END_READ = new ReadPage(-1, null);
+    private static final MappedPage END_MAPPED = new MappedPage(-1, new FeatureMatrix(0), List.of());
+    private static final ScoredPage END_SCORED = new ScoredPage(END_MAPPED, null, null);
+
+    // Cada cuánto revisa score las peticiones terminadas mientras espera páginas
+    private static final long FORWARD_INTERVAL_MS = 20;
+
+    /**
+     * Observador de una ejecución: progreso por página y cancelación cooperativa
+     * (lo usa BatchJobService para los jobs en segundo plano)
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /** Se consulta antes de leer cada página: true = no leer más */
+        default boolean isCancelled() {
+            return false;
+        }
+
+        /** Resultados (éxitos y errores) de una página ya terminada */
+        default void onPageResults(List<BatchPredictionResponseDTO.PredictionResult> pageResults) {
+        }
+
+        /** Clientes saltados en modo delta (features sin cambios) */
+        default void onSkipped(int count) {
+        }
+    }
+
+    /**
+     * Ejecuta la predicción de TODOS los clientes y devuelve el resumen con
+     * rendimiento por etapa
+     */
+    public BatchPredictionResponseDTO run() {
+        return run(Listener.NONE, true, false);
+    }
+
+    /**
+     * @param listener       progreso/cancelación; las páginas ya leídas se terminan
+     *                       de puntuar y guardar aunque se cancele
+     * @param collectResults false = no acumular resultados por cliente en la
+     *                       respuesta (quedan en BD; memoria constante)
+     * @param deltaOnly      true = solo clientes cuyas features cambiaron desde su
+     *                       última predicción, sin predicción, o con una más antigua
+     *                       que app.batch.delta.max-age-days
+     */
+    public BatchPredictionResponseDTO run(Listener listener, boolean collectResults, boolean deltaOnly) {
+        log.info("🏭 [PIPELINE] Iniciando{}: páginas de {}, colas de {}, {} peticiones a Python en vuelo",
+                deltaOnly ? " (DELTA)" : "", pageSize, queueCapacity, pythonBatchClient.getMaxInFlight());
+        long startTime = System.currentTimeMillis();
+        LocalDateTime minAnalysis = deltaOnly ? LocalDateTime.now().minusDays(deltaMaxAgeDays) : null;
+        AtomicInteger skippedCount = new AtomicInteger();
+
+        BlockingQueue<ReadPage> readQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<MappedPage> mappedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<ScoredPage> scoredQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        StageStats readStats = new StageStats("read");
+        StageStats mapStats = new StageStats("map");
+        StageStats scoreStats = new StageStats("score");
+        StageStats persistStats = new StageStats("persist");
+
+        List<BatchPredictionResponseDTO.PredictionResult> results = new ArrayList<>();
+        AtomicInteger successCount = new AtomicInteger();
+        AtomicInteger errorCount = new AtomicInteger();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService stages = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "batch-pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Future<?> reader = stages.submit(() -> readStage(readQueue, readStats, listener, minAnalysis));
+            stages.submit(() -> mapStage(readQueue, mappedQueue, mapStats, skipped -> {
+                skippedCount.addAndGet(skipped);
+                listener.onSkipped(skipped);
+            }));
+            stages.submit(() -> scoreStage(mappedQueue, scoredQueue, scoreStats));
+            Future<?> persister = stages.submit(() -> persistStage(scoredQueue, persistStats,
+                    pageResults -> {
+                        if (collectResults) {
+                            results.addAll(pageResults);
+                        }
+                        listener.onPageResults(pageResults);
+                    }, successCount, errorCount));
+
+            persister.get();
+            reader.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Predicción masiva interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error en el pipeline de predicción: " + e.getCause().getMessage(),
+                    e.getCause());
+        } finally {
+            stages.shutdownNow();
+        }
+
+        long totalDuration = System.currentTimeMillis() - startTime;
+        int totalProcessed = (int) readStats.items.get();
+
+        log.info("✅ [PIPELINE] Completado en {}ms: {} éxitos, {} errores, {} sin cambios de {} totales ({} clientes/seg)",
+                totalDuration, successCount.get(), errorCount.get(), skippedCount.get(), totalProcessed,
+                (totalProcessed * 1000L) / Math.max(totalDuration, 1));
+
+        return BatchPredictionResponseDTO.builder()
+                .totalProcessed(totalProcessed)
+                .successCount(successCount.get())
+                .errorCount(errorCount.get())
+                .skippedCount(deltaOnly ? skippedCount.get() : null)
+                .results(collectResults ? results : null)
+                .durationMillis(totalDuration)
+                .stages(List.of(readStats.toMetrics(), mapStats.toMetrics(),
+                        scoreStats.toMetrics(), persistStats.toMetrics()))
+                .build();
+    }
+
+    // ========== ETAPAS ==========
+
+    private void readStage(BlockingQueue<ReadPage> out, StageStats stats, Listener listener,
+            LocalDateTime minAnalysis) {
+        try {
+            String lastId = "";
+            int pageNumber = 0;
+            while (!listener.isCancelled()) {
+                long start = System.nanoTime();
+                // 1 query por página, volcada a doubles: sin entidades ni un DTO por cliente.
+                // En modo delta (minAnalysis != null) los clientes sin cambios ya vienen descartados.
+                FeatureMatrixPage page = customerFeatureRepository.findMatrixPageAfterId(lastId, pageSize, minAnalysis);
+                if (page.isEmpty()) {
+                    break;
+                }
+                stats.record(start, page.readCount());
+
+                lastId = page.lastCustomerId();
+                out.put(new ReadPage(++pageNumber, page));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putQuietly(out, END_READ);
+        }
+    }
+
+    private void mapStage(BlockingQueue<ReadPage> in, BlockingQueue<MappedPage> out, StageStats stats,
+            IntConsumer onSkipped) {
+        try {
+            while (true) {
+                ReadPage read = in.take();
+                if (read == END_READ) {
+                    break;
+                }
+
+                long start = System.nanoTime();
+                FeatureMatrixPage page = read.page();
+                List<BatchPredictionResponseDTO.PredictionResult> errors = new ArrayList<>(page.withoutSubscription().size());
+                for (String customerId : page.withoutSubscription()) {
+                    errors.add(errorResult(customerId, "El cliente no tiene suscripción asociada"));
+                }
+                stats.record(start, page.readCount());
+                if (page.skippedUnchanged() > 0) {
+                    // Delta: misma huella que su última predicción y aún vigente
+                    onSkipped.accept(page.skippedUnchanged());
+                }
+
+                out.put(new MappedPage(read.number(), page.features(), errors));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putQuietly(out, END_MAPPED);
+        }
+    }
+
+    private void scoreStage(BlockingQueue<MappedPage> in, BlockingQueue<ScoredPage> out, StageStats stats) {
+        // Peticiones en vuelo en orden de envío. Las terminadas las encola este
+        // hilo (nunca un hilo del pool de Python, que se quedaría bloqueado si
+        // persist deja de consumir)
+        List<InFlightPage> pending = new ArrayList<>();
+        try {
+            while (true) {
+                MappedPage page = in.poll(FORWARD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                forwardScored(pending, out, false);
+                if (page == null) {
+                    continue;
+                }
+                if (page == END_MAPPED) {
+                    break;
+                }
+
+                if (page.features().isEmpty()) {
+                    out.put(new ScoredPage(page, new PredictionResponseDto[0], null));
+                    continue;
+                }
+
+                // Bloquea solo si ya hay N peticiones abiertas contra Python
+                CompletableFuture<PredictionResponseDto[]> future = pythonBatchClient.scoreAsync(page.features());
+                long start = System.nanoTime();
+                future.whenComplete((responses, error) -> stats.record(start, page.features().size()));
+                pending.add(new InFlightPage(page, future));
+            }
+
+            // Esperar a que terminen las peticiones en vuelo antes de cerrar el flujo
+            forwardScored(pending, out, true);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putQuietly(out, END_SCORED);
+        }
+    }
+
+    /**
+     * Pasa a persist las peticiones terminadas (o todas, esperándolas, si
+     * waitAll). La espera y el put son interrumpibles.
+     */
+    private static void forwardScored(List<InFlightPage> pending, BlockingQueue<ScoredPage> out, boolean waitAll)
+            throws InterruptedException {
+        Iterator<InFlightPage> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            InFlightPage inFlight = iterator.next();
+            if (!waitAll && !inFlight.future().isDone()) {
+                continue;
+            }
+            ScoredPage scored;
+            try {
+                scored = new ScoredPage(inFlight.page(), inFlight.future().get(), null);
+            } catch (ExecutionException e) {
+                scored = new ScoredPage(inFlight.page(), null, rootMessage(e.getCause()));
+            }
+            out.put(scored);
+            iterator.remove();
+        }
+    }
+
+    private void persistStage(BlockingQueue<ScoredPage> in, StageStats stats,
+            Consumer<List<BatchPredictionResponseDTO.PredictionResult>> pageConsumer,
+            AtomicInteger successCount, AtomicInteger errorCount) {
+        RuntimeException failure = null;
+        try {
+            while (true) {
+                ScoredPage scored = in.take();
+                if (scored == END_SCORED) {
+                    break;
+                }
+                try {
+                    pageConsumer.accept(persistPage(scored, stats, successCount, errorCount));
+                } catch (RuntimeException e) {
+                    // Se sigue vaciando la cola hasta END_SCORED para no dejar
+                    // bloqueadas las etapas anteriores; el error se relanza al final
+                    if (failure == null) {
+                        failure = e;
+                        log.error("❌ Error procesando página {}: {}", scored.page().number(), e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Guarda una página puntuada y devuelve sus resultados (éxitos y errores)
+     */
+    private List<BatchPredictionResponseDTO.PredictionResult> persistPage(ScoredPage scored, StageStats stats,
+            AtomicInteger successCount, AtomicInteger errorCount) {
+        MappedPage page = scored.page();
+        FeatureMatrix features = page.features();
+        List<BatchPredictionResponseDTO.PredictionResult> results = new ArrayList<>(page.errors());
+        errorCount.addAndGet(page.errors().size());
+
+        if (scored.error() != null) {
+            log.error("❌ Error en Python para página {}: {}", page.number(), scored.error());
+            for (int row = 0; row < features.size(); row++) {
+                results.add(errorResult(features.getCustomerId(row), "Batch processing failed: " + scored.error()));
+            }
+            errorCount.addAndGet(features.size());
+            return results;
+        }
+
+        if (features.isEmpty()) {
+            return results;
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<PredictionWriter.NewPrediction> predictionsToSave = new ArrayList<>(features.size());
+            PredictionResponseDto[] responses = scored.responses();
+
+            for (int i = 0; i < responses.length; i++) {
+                predictionsToSave.add(new PredictionWriter.NewPrediction(
+                        features.getCustomerId(i),
+                        responses[i].getProbability(),
+                        responses[i].getMainFactor(),
+                        features.getFeatureHash(i)));
+            }
+
+            // 🚀 BATCH INSERT JDBC de la página completa (multi-fila)
+            predictionWriter.insertAll(predictionsToSave, LocalDateTime.now());
+            for (PredictionWriter.NewPrediction saved : predictionsToSave) {
+                results.add(BatchPredictionResponseDTO.PredictionResult.builder()
+                        .customerId(saved.customerId())
+                        .risk(saved.riskLevel())
+                        .probability(saved.probability())
+                        .mainFactor(saved.mainFactor())
+                        .nextBestAction("Ver detalles")
+                        .error(null)
+                        .build());
+            }
+            successCount.addAndGet(predictionsToSave.size());
+
+        } catch (Exception e) {
+            log.error("❌ Error guardando página {}: {}", page.number(), e.getMessage());
+            for (int row = 0; row < features.size(); row++) {
+                results.add(errorResult(features.getCustomerId(row), "Batch persistence failed: " + e.getMessage()));
+            }
+            errorCount.addAndGet(features.size());
+        }
+        stats.record(start, features.size());
+
+        log.info("💾 Página {} guardada ({} clientes) - acumulado: {} éxitos, {} errores",
+                page.number(), features.size(), successCount.get(), errorCount.get());
+        return results;
+    }
+
+    // ========== HELPERS ==========
+
+    private static <T> void putQuietly(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable root = error;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+
+    private static BatchPredictionResponseDTO.PredictionResult errorResult(String customerId, String error) {
+        return BatchPredictionResponseDTO.PredictionResult.builder()
+                .customerId(customerId)
+                .error(error)
+                .build();
+    }
+
+    private record ReadPage(int number, FeatureMatrixPage page) {
+    }
+
+    private record MappedPage(int number, FeatureMatrix features,
+            List<BatchPredictionResponseDTO.PredictionResult> errors) {
+    }
+
+    private record InFlightPage(MappedPage page, CompletableFuture<PredictionResponseDto[]> future) {
+    }
+
+    private record ScoredPage(MappedPage page, PredictionResponseDto[] responses, String error) {
+    }
+
+    /**
+     * Contadores de una etapa: items, tiempo de trabajo y ventana activa
+     */
+    private static final class StageStats {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void record(long startNanos, int count) {
+            long end = System.nanoTime();
+            items.addAndGet(count);
+            busyNanos.addAndGet(end - startNanos);
+            firstStart.accumulateAndGet(startNanos, Math::min);
+            lastEnd.accumulateAndGet(end, Math::max);
+        }
+
+        BatchPredictionResponseDTO.StageMetrics toMetrics() {
+            long activeNanos = items.get() == 0 ? 0 : lastEnd.get() - firstStart.get();
+            double itemsPerSecond = activeNanos > 0 ? items.get() * 1_000_000_000.0 / activeNanos : 0.0;
+            return BatchPredictionResponseDTO.StageMetrics.builder()
+                    .stage(name)
+                    .items(items.get())
+                    .busyMillis(busyNanos.get() / 1_000_000)
+                    .activeMillis(activeNanos / 1_000_000)
+                    .itemsPerSecond(Math.round(itemsPerSecond * 10.0) / 10.0)
+                    .build();
+        }
+    }
+}
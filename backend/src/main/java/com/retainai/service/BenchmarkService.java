@@ -0,0 +1,308 @@
+package com.retainai.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.retainai.dto.CustomerFeatureRow;
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.FeatureMatrixPage;
+import com.retainai.dto.PredictionInputDtoV2;
+import com.retainai.model.AiPrediction;
+import com.retainai.model.Customer;
+import com.retainai.model.CustomerLatestPrediction;
+import com.retainai.repository.CustomerFeatureRepository;
+import com.retainai.repository.CustomerRepository;
+import com.retainai.repository.LatestPredictionRepository;
+import com.retainai.repository.PredictionRepository;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * ⏱️ Benchmarks de rendimiento ejecutables contra la BD real
+ *
+ * Extracción de features: camino JPA (entidades + lazy loads, N+1) frente al
+ * JOIN JDBC de CustomerFeatureRepository. Cuenta sentencias SQL, mide tiempo
+ * y verifica que ambos caminos producen exactamente las mismas features.
+ *
+ * Lote de scoring: lista de DTOs + JSON frente a FeatureMatrix + float64 en
+ * bruto (memoria asignada en la JVM y bytes enviados a Python).
+ *
+ * Última predicción por cliente: historial completo vs ROW_NUMBER() vs
+ * proyección customer_latest_prediction (coste por id frente a profundidad
+ * del historial).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BenchmarkService {
+
+    private final CustomerRepository customerRepository;
+    private final CustomerFeatureRepository customerFeatureRepository;
+    private final PredictionFeatureMapper featureMapper;
+    private final EntityManagerFactory entityManagerFactory;
+    private final PlatformTransactionManager transactionManager;
+    private final TreeEnsembleScorer treeEnsembleScorer;
+    private final ObjectMapper objectMapper;
+    private final PredictionRepository predictionRepository;
+    private final LatestPredictionRepository latestPredictionRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Compara ambos caminos sobre los primeros N clientes (orden por id)
+     */
+    public Map<String, Object> benchmarkFeatureExtraction(int customers) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        boolean statsWereEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+
+        try {
+            // ========== 1. CAMINO JPA (entidades) ==========
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+
+            long statementsBefore = statistics.getPrepareStatementCount();
+            long jpaStart = System.nanoTime();
+            Map<String, PredictionInputDtoV2> jpaFeatures = readOnly.execute(status -> {
+                List<Customer> page = customerRepository
+                        .findAll(PageRequest.of(0, customers, Sort.by("id")))
+                        .getContent();
+                Map<String, PredictionInputDtoV2> features = new HashMap<>();
+                for (Customer customer : page) {
+                    features.put(customer.getId(), customer.getSubscription() != null
+                            ? featureMapper.toInputV2(customer)
+                            : null);
+                }
+                return features;
+            });
+            long jpaMillis = (System.nanoTime() - jpaStart) / 1_000_000;
+            long jpaStatements = statistics.getPrepareStatementCount() - statementsBefore;
+
+            // ========== 2. CAMINO JDBC (un JOIN) ==========
+            long jdbcStart = System.nanoTime();
+            List<CustomerFeatureRow> rows = customerFeatureRepository.findPageAfterId("", customers);
+            long jdbcMillis = (System.nanoTime() - jdbcStart) / 1_000_000;
+
+            // ========== 3. PARIDAD ==========
+            int mismatches = 0;
+            for (CustomerFeatureRow row : rows) {
+                if (!jpaFeatures.containsKey(row.customerId())
+                        || !Objects.equals(jpaFeatures.get(row.customerId()), row.features())) {
+                    mismatches++;
+                }
+            }
+            mismatches += Math.abs(jpaFeatures.size() - rows.size());
+
+            log.info("⏱️ [BENCHMARK] Features de {} clientes: JPA {}ms / {} sentencias, JDBC {}ms / 1 sentencia, {} diferencias",
+                    rows.size(), jpaMillis, jpaStatements, jdbcMillis, mismatches);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("customers", rows.size());
+            result.put("jpa", Map.of("millis", jpaMillis, "statements", jpaStatements));
+            result.put("jdbc", Map.of("millis", jdbcMillis, "statements", 1));
+            result.put("speedup", jdbcMillis > 0 ? Math.round(jpaMillis * 10.0 / jdbcMillis) / 10.0 : null);
+            result.put("parityMismatches", mismatches);
+            return result;
+
+        } finally {
+            statistics.setStatisticsEnabled(statsWereEnabled);
+        }
+    }
+
+    /**
+     * Motor JVM: informe de paridad de la carga + latencia media por predicción
+     */
+    public Map<String, Object> benchmarkScoring(int iterations) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("available", treeEnsembleScorer.isAvailable());
+        result.put("defaultEngine", treeEnsembleScorer.getDefaultEngine());
+        result.put("parity", treeEnsembleScorer.getParityReport());
+        if (treeEnsembleScorer.isAvailable()) {
+            result.put("latency", treeEnsembleScorer.benchmark(iterations));
+        }
+        return result;
+    }
+
+    /**
+     * Compara la lectura a DTOs + JSON con la lectura a FeatureMatrix + binario
+     * sobre los primeros N clientes (orden por id)
+     */
+    public Map<String, Object> benchmarkFeatureMatrix(int customers) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // ========== 1. DTOs + JSON (/predict/batch) ==========
+        long dtoAllocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long dtoStart = System.nanoTime();
+        List<CustomerFeatureRow> rows = customerFeatureRepository.findPageAfterId("", customers);
+        List<String> customerIds = new ArrayList<>(rows.size());
+        List<PredictionInputDtoV2> inputs = new ArrayList<>(rows.size());
+        for (CustomerFeatureRow row : rows) {
+            if (row.hasSubscription()) {
+                customerIds.add(row.customerId());
+                inputs.add(row.features());
+            }
+        }
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(inputs);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar el lote", e);
+        }
+        long dtoMillis = (System.nanoTime() - dtoStart) / 1_000_000;
+        long dtoAllocated = threads.getCurrentThreadAllocatedBytes() - dtoAllocatedBefore;
+
+        // ========== 2. FeatureMatrix + float64 (/predict/batch/compact) ==========
+        long matrixAllocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long matrixStart = System.nanoTime();
+        FeatureMatrixPage page = customerFeatureRepository.findMatrixPageAfterId("", customers, null);
+        byte[] compact = page.features().toLittleEndianBytes();
+        long matrixMillis = (System.nanoTime() - matrixStart) / 1_000_000;
+        long matrixAllocated = threads.getCurrentThreadAllocatedBytes() - matrixAllocatedBefore;
+
+        // ========== 3. PARIDAD (valores y huellas) ==========
+        FeatureMatrix expected = FeatureMatrix.fromInputs(customerIds, inputs);
+        FeatureMatrix actual = page.features();
+        Map<String, Long> expectedHashes = new HashMap<>();
+        rows.forEach(row -> expectedHashes.put(row.customerId(), row.featureHash()));
+
+        int mismatches = Math.abs(expected.size() - actual.size());
+        for (int row = 0; row < Math.min(expected.size(), actual.size()); row++) {
+            boolean same = expected.getCustomerId(row).equals(actual.getCustomerId(row))
+                    && Objects.equals(expectedHashes.get(actual.getCustomerId(row)), actual.getFeatureHash(row));
+            for (int column = 0; same && column < FeatureMatrix.WIDTH; column++) {
+                same = Double.compare(expected.get(row, column), actual.get(row, column)) == 0;
+            }
+            if (!same) {
+                mismatches++;
+            }
+        }
+
+        log.info("⏱️ [BENCHMARK] Lote de {} clientes: DTO+JSON {}ms / {} bytes, matriz {}ms / {} bytes, {} diferencias",
+                actual.size(), dtoMillis, json.length, matrixMillis, compact.length, mismatches);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("customers", actual.size());
+        result.put("dtoJson", Map.of("millis", dtoMillis, "payloadBytes", json.length,
+                "allocatedBytes", dtoAllocated));
+        result.put("featureMatrix", Map.of("millis", matrixMillis, "payloadBytes", compact.length,
+                "allocatedBytes", matrixAllocated));
+        result.put("payloadReduction", compact.length > 0 ? Math.round(json.length * 10.0 / compact.length) / 10.0 : null);
+        result.put("parityMismatches", mismatches);
+        return result;
+    }
+
+    /**
+     * Última predicción de N clientes con historial por tres caminos. El coste
+     * por id de la proyección no depende de cuántas predicciones acumule cada
+     * cliente; los otros dos leen todo su historial.
+     */
+    public Map<String, Object> benchmarkLatestLookup(int customers) {
+        List<String> customerIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT customer_id FROM ai_predictions ORDER BY customer_id LIMIT ?",
+                String.class, customers);
+        if (customerIds.isEmpty()) {
+            return Map.of("customers", 0, "message", "No hay predicciones: ejecutar antes una predicción masiva");
+        }
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        // Calentamiento (planes de ejecución y caché de la BD)
+        readOnly.executeWithoutResult(status -> {
+            predictionRepository.findLatestByCustomerIds(customerIds);
+            latestPredictionRepository.findByCustomerIdIn(customerIds);
+        });
+
+        // ========== 1. HISTORIAL COMPLETO (consulta anterior + toMap en Java) ==========
+        long historyStart = System.nanoTime();
+        List<AiPrediction> history = readOnly.execute(status ->
+                predictionRepository.findHistoryByCustomerIds(customerIds));
+        long historyNanos = System.nanoTime() - historyStart;
+
+        // ========== 2. ROW_NUMBER() SOBRE ai_predictions ==========
+        long windowStart = System.nanoTime();
+        List<AiPrediction> window = readOnly.execute(status ->
+                predictionRepository.findLatestByCustomerIds(customerIds));
+        long windowNanos = System.nanoTime() - windowStart;
+
+        // ========== 3. PROYECCIÓN POR PK ==========
+        long projectionStart = System.nanoTime();
+        List<CustomerLatestPrediction> projection = readOnly.execute(status ->
+                latestPredictionRepository.findByCustomerIdIn(customerIds));
+        long projectionNanos = System.nanoTime() - projectionStart;
+
+        // ========== 4. CORRECCIÓN ==========
+        Map<String, AiPrediction> expected = new HashMap<>();
+        Map<String, AiPrediction> firstSeen = new HashMap<>();
+        Comparator<AiPrediction> newest = Comparator
+                .comparing(AiPrediction::getFechaAnalisis, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(AiPrediction::getId);
+        for (AiPrediction prediction : history) {
+            String customerId = prediction.getCustomer().getId();
+            expected.merge(customerId, prediction, (a, b) -> newest.compare(a, b) >= 0 ? a : b);
+            firstSeen.putIfAbsent(customerId, prediction);
+        }
+
+        // toMap(..., (r1, r2) -> r1) se quedaba con la primera fila, no con la última
+        long staleWithFirstRow = firstSeen.entrySet().stream()
+                .filter(entry -> !entry.getValue().getId().equals(expected.get(entry.getKey()).getId()))
+                .count();
+
+        int windowMismatches = Math.abs(window.size() - expected.size());
+        for (AiPrediction prediction : window) {
+            AiPrediction latest = expected.get(prediction.getCustomer().getId());
+            if (latest == null || !latest.getId().equals(prediction.getId())) {
+                windowMismatches++;
+            }
+        }
+
+        int projectionMismatches = Math.abs(projection.size() - expected.size());
+        for (CustomerLatestPrediction prediction : projection) {
+            AiPrediction latest = expected.get(prediction.getCustomerId());
+            if (latest == null || !Objects.equals(latest.getProbabilidadFuga(), prediction.getProbabilidadFuga())
+                    || !Objects.equals(latest.getFechaAnalisis(), prediction.getFechaAnalisis())) {
+                projectionMismatches++;
+            }
+        }
+
+        int ids = customerIds.size();
+        log.info("⏱️ [BENCHMARK] Última predicción de {} clientes ({} filas de historial): historial {}ms, ROW_NUMBER {}ms, proyección {}ms",
+                ids, history.size(), historyNanos / 1_000_000, windowNanos / 1_000_000, projectionNanos / 1_000_000);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("customers", ids);
+        result.put("historyRows", history.size());
+        result.put("avgPredictionsPerCustomer", Math.round(history.size() * 10.0 / ids) / 10.0);
+        result.put("fullHistory", lookupMetrics(historyNanos, history.size(), ids));
+        result.put("windowQuery", lookupMetrics(windowNanos, window.size(), ids));
+        result.put("projection", lookupMetrics(projectionNanos, projection.size(), ids));
+        result.put("staleWithFirstRow", staleWithFirstRow);
+        result.put("windowMismatches", windowMismatches);
+        result.put("projectionMismatches", projectionMismatches);
+        return result;
+    }
+
+    private static Map<String, Object> lookupMetrics(long nanos, int rows, int ids) {
+        return Map.of(
+                "millis", nanos / 1_000_000,
+                "rowsFetched", rows,
+                "microsPerId", Math.round(nanos / 100.0 / ids) / 10.0);
+    }
+}
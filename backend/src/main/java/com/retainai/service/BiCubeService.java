@@ -0,0 +1,293 @@
+package com.retainai.service;
+
+import com.retainai.dto.BiCubeCell;
+import com.retainai.dto.BiCubeDeltaEvent;
+import com.retainai.dto.BiCubeSliceRow;
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.repository.BiCubeRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 🧊 Cubo OLAP en memoria para los análisis BI
+ *
+ * Un único GROUP BY (BiCubeRepository) agrega a todos los clientes por
+ * contrato × rango de tickets × segmento de ingresos × abandono × borough.
+ * Son unos pocos cientos de celdas, así que cualquier corte (agrupar por
+ * algunas dimensiones y filtrar por otras) se calcula sumando celdas en
+ * memoria, sin volver a la BD. Los análisis de contratos, soporte y
+ * segmentación de InsightsService son cortes fijos de este cubo.
+ *
+ * Se mantiene al día:
+ * - importación CSV: BiCubeDeltaEvent con la diferencia antes/después de
+ *   los clientes de cada lote (después del commit)
+ * - limpieza de la BD: clear()
+ * - reconstrucción completa al arrancar y cada app.bi-cube.refresh-interval,
+ *   que corrige cualquier deriva. Si llega una variación durante la
+ *   reconstrucción no se sabe si la consulta ya la incluye: se conserva el
+ *   cubo incremental (salvo en la carga inicial) y se encola otra.
+ * Las predicciones no afectan a ninguna dimensión del cubo.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BiCubeService {
+
+    /**
+     * Dimensiones por las que se puede agrupar o filtrar un corte
+     */
+    public enum Dimension {
+        CONTRACT("contract", BiCubeCell::contractType, true),
+        TICKETS("tickets", BiCubeCell::ticketRange, false),
+        SEGMENT("segment", BiCubeCell::revenueSegment, true),
+        CHURNED("churned", BiCubeCell::churned, false),
+        BOROUGH("borough", BiCubeCell::borough, false);
+
+        private final String param;
+        private final Function<BiCubeCell, Object> value;
+        // Solo tiene sentido para clientes con suscripción
+        private final boolean subscriptionOnly;
+
+        Dimension(String param, Function<BiCubeCell, Object> value, boolean subscriptionOnly) {
+            this.param = param;
+            this.value = value;
+            this.subscriptionOnly = subscriptionOnly;
+        }
+
+        public String param() {
+            return param;
+        }
+
+        public static Dimension fromParam(String param) {
+            return Arrays.stream(values())
+                    .filter(dimension -> dimension.param.equalsIgnoreCase(param.trim()))
+                    .findFirst()
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "Dimensión desconocida: " + param + " (válidas: contract, tickets, segment, churned, borough)"));
+        }
+    }
+
+    private static final Comparator<Object> NULLS_FIRST = Comparator.nullsFirst(
+            Comparator.comparing(String::valueOf));
+
+    private final BiCubeRepository biCubeRepository;
+    private final BackgroundRefresher backgroundRefresher;
+
+    @Value("${app.bi-cube.refresh-interval:PT30M}")
+    private Duration refreshInterval;
+
+    // Una reconstrucción a la vez (programada, en cola o desde la primera lectura)
+    private final Object rebuildLock = new Object();
+
+    // Copia inmutable: las lecturas no bloquean
+    private volatile Map<BiCubeCell.Key, BiCubeCell> cells;
+
+    // Reconstrucción en curso y si ha llegado alguna variación durante ella
+    private boolean rebuilding;
+    private boolean changedDuringRebuild;
+    private LocalDateTime builtAt;
+    private long buildMillis;
+
+    // 🔄 Reconstrucción en segundo plano (al arrancar, periódica y bajo demanda)
+    private BackgroundRefresher.Task rebuildTask;
+
+    @PostConstruct
+    void init() {
+        rebuildTask = backgroundRefresher.register("bi-cube-rebuild", this::rebuild).every(refreshInterval);
+    }
+
+    /**
+     * Corte del cubo: agrupa por {@code groupBy} (en ese orden) las celdas
+     * que cumplen {@code filters}. Si interviene el contrato o el segmento
+     * solo cuentan los clientes con suscripción (como el JOIN original).
+     */
+    public List<BiCubeSliceRow> slice(List<Dimension> groupBy, Map<Dimension, String> filters) {
+        boolean subscriptionOnly = groupBy.stream().anyMatch(dimension -> dimension.subscriptionOnly)
+                || filters.keySet().stream().anyMatch(dimension -> dimension.subscriptionOnly);
+
+        Map<List<Object>, BiCubeCell> groups = new LinkedHashMap<>();
+        for (BiCubeCell cell : cells().values()) {
+            if (subscriptionOnly && !cell.hasSubscription()) {
+                continue;
+            }
+            if (!matches(cell, filters)) {
+                continue;
+            }
+            List<Object> key = new ArrayList<>(groupBy.size());
+            for (Dimension dimension : groupBy) {
+                key.add(dimension.value.apply(cell));
+            }
+            groups.merge(key, cell, BiCubeCell::plus);
+        }
+
+        List<BiCubeSliceRow> rows = new ArrayList<>(groups.size());
+        groups.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(this::compareKeys))
+                .forEach(entry -> rows.add(toRow(groupBy, entry.getKey(), entry.getValue())));
+        return rows;
+    }
+
+    /**
+     * Reconstruye el cubo desde la BD y lo sustituye
+     */
+    public void rebuild() {
+        boolean retry;
+        synchronized (rebuildLock) {
+            synchronized (this) {
+                rebuilding = true;
+                changedDuringRebuild = false;
+            }
+            long start = System.currentTimeMillis();
+            List<BiCubeCell> fresh;
+            try {
+                fresh = biCubeRepository.buildCube();
+            } catch (Exception e) {
+                synchronized (this) {
+                    rebuilding = false;
+                }
+                log.warn("⚠️ No se pudo reconstruir el cubo BI: {}", e.getMessage());
+                return;
+            }
+
+            synchronized (this) {
+                rebuilding = false;
+                retry = changedDuringRebuild;
+                // Con variaciones a medias se conserva el incremental (si lo hay) y se repite
+                if (!retry || cells == null) {
+                    Map<BiCubeCell.Key, BiCubeCell> rebuilt = new HashMap<>();
+                    merge(rebuilt, fresh);
+                    cells = Map.copyOf(rebuilt);
+                    builtAt = LocalDateTime.now();
+                    buildMillis = System.currentTimeMillis() - start;
+                    log.debug("🧊 Cubo BI reconstruido: {} celdas en {} ms", fresh.size(), buildMillis);
+                }
+            }
+        }
+        if (retry) {
+            log.debug("🧊 Variaciones durante la reconstrucción del cubo BI: se repite");
+            requestRebuild();
+        }
+    }
+
+    /**
+     * Encola una reconstrucción en segundo plano (no bloquea al llamador)
+     */
+    public void requestRebuild() {
+        rebuildTask.request();
+    }
+
+    /**
+     * BD vaciada (después del commit): cubo vacío
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        if (event.isDatabaseCleanup()) {
+            clear();
+        }
+    }
+
+    private synchronized void clear() {
+        cells = Map.of();
+        if (rebuilding) {
+            changedDuringRebuild = true;
+        }
+    }
+
+    /**
+     * Clientes importados (después del commit): se suman las variaciones
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onCubeDelta(BiCubeDeltaEvent event) {
+        if (rebuilding) {
+            changedDuringRebuild = true;
+        }
+        if (cells == null) {
+            return; // Se construirá entero en la próxima lectura
+        }
+        Map<BiCubeCell.Key, BiCubeCell> updated = new HashMap<>(cells);
+        merge(updated, event.cells());
+        cells = Map.copyOf(updated);
+    }
+
+    /**
+     * Estado para el endpoint: tamaño, última reconstrucción y su duración
+     */
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("cells", cells == null ? null : cells.size());
+        status.put("builtAt", builtAt);
+        status.put("buildMillis", buildMillis);
+        return status;
+    }
+
+    /**
+     * Suma celdas por combinación de dimensiones, descartando las que se quedan sin clientes
+     */
+    private static void merge(Map<BiCubeCell.Key, BiCubeCell> target, Collection<BiCubeCell> delta) {
+        for (BiCubeCell cell : delta) {
+            BiCubeCell merged = target.merge(cell.key(), cell, BiCubeCell::plus);
+            if (merged.customers() <= 0) {
+                target.remove(cell.key());
+            }
+        }
+    }
+
+    private Map<BiCubeCell.Key, BiCubeCell> cells() {
+        if (cells == null) {
+            rebuild();
+        }
+        Map<BiCubeCell.Key, BiCubeCell> current = cells;
+        return current != null ? current : Map.of();
+    }
+
+    private static boolean matches(BiCubeCell cell, Map<Dimension, String> filters) {
+        for (Map.Entry<Dimension, String> filter : filters.entrySet()) {
+            Object value = filter.getKey().value.apply(cell);
+            if (value == null || !String.valueOf(value).equalsIgnoreCase(filter.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int compareKeys(List<Object> left, List<Object> right) {
+        for (int i = 0; i < left.size(); i++) {
+            int comparison = NULLS_FIRST.compare(left.get(i), right.get(i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static BiCubeSliceRow toRow(List<Dimension> groupBy, List<Object> key, BiCubeCell totals) {
+        Map<String, Object> dimensions = new LinkedHashMap<>();
+        for (int i = 0; i < groupBy.size(); i++) {
+            dimensions.put(groupBy.get(i).param(), key.get(i));
+        }
+        return new BiCubeSliceRow(
+                dimensions,
+                totals.customers(),
+                totals.customers() == 0 ? 0.0 : totals.churnedCustomers() * 100.0 / totals.customers(),
+                totals.monthlyFeeCount() == 0 ? null : totals.monthlyFeeSum() / totals.monthlyFeeCount(),
+                totals.totalRevenueCount() == 0 ? null : totals.totalRevenueSum() / totals.totalRevenueCount());
+    }
+}
@@ -0,0 +1,169 @@
+package com.retainai.service;
+
+import com.retainai.dto.BatchPredictionResponseDTO;
+import com.retainai.dto.CustomerFeatureRow;
+import com.retainai.dto.PredictionInputDtoV2;
+import com.retainai.dto.PredictionResponseDto;
+import com.retainai.repository.CustomerFeatureRepository;
+import com.retainai.repository.PredictionWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 📦 Predicción en bloque de una lista de clientes (CSV de customer_ids)
+ *
+ * Por cada chunk de ids: 1 query JDBC con las features, 1 POST a Python
+ * /predict/batch (varios chunks en vuelo vía PythonBatchClient) y 1 INSERT
+ * multi-fila. Mientras Python puntúa un chunk se lee el siguiente.
+ *
+ * Los errores por cliente (no existe, sin suscripción, fallo del lote) se
+ * devuelven en results, igual que el bucle individual anterior.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkPredictionService {
+
+    private final CustomerFeatureRepository customerFeatureRepository;
+    private final PythonBatchClient pythonBatchClient;
+    private final PredictionWriter predictionWriter;
+
+    @Value("${app.batch.ids-chunk-size:1000}")
+    private int chunkSize;
+
+    public BatchPredictionResponseDTO predictCustomerIds(List<String> customerIds) {
+        long startTime = System.currentTimeMillis();
+
+        // Ids repetidos en el CSV se predicen una sola vez (orden de aparición)
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(customerIds));
+        log.info("📦 [BULK] {} clientes ({} únicos) en chunks de {}", customerIds.size(), distinctIds.size(),
+                chunkSize);
+
+        Map<String, BatchPredictionResponseDTO.PredictionResult> resultsById = new HashMap<>();
+        List<ScoredChunk> chunks = new ArrayList<>();
+
+        try {
+            // 1. Leer + enviar a Python (bloquea solo si ya hay N lotes en vuelo)
+            for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+                List<String> chunkIds = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+                List<CustomerFeatureRow> rows = customerFeatureRepository.findByIds(chunkIds);
+
+                List<String> validIds = new ArrayList<>(rows.size());
+                List<Long> featureHashes = new ArrayList<>(rows.size());
+                List<PredictionInputDtoV2> inputs = new ArrayList<>(rows.size());
+                for (CustomerFeatureRow row : rows) {
+                    if (row.hasSubscription()) {
+                        validIds.add(row.customerId());
+                        featureHashes.add(row.featureHash());
+                        inputs.add(row.features());
+                    } else {
+                        resultsById.put(row.customerId(),
+                                errorResult(row.customerId(), "El cliente no tiene suscripción asociada"));
+                    }
+                }
+
+                if (!inputs.isEmpty()) {
+                    chunks.add(new ScoredChunk(validIds, featureHashes, pythonBatchClient.scoreAsync(inputs)));
+                }
+            }
+
+            // 2. Esperar cada lote y guardarlo con un INSERT multi-fila
+            for (ScoredChunk chunk : chunks) {
+                persistChunk(chunk, resultsById);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            chunks.forEach(chunk -> chunk.responses().cancel(true));
+            throw new IllegalStateException("Predicción en bloque interrumpida", e);
+        }
+
+        // 3. Resultados en el orden del CSV; lo que no devolvió la BD no existe
+        List<BatchPredictionResponseDTO.PredictionResult> results = new ArrayList<>(distinctIds.size());
+        int successCount = 0;
+        for (String customerId : distinctIds) {
+            BatchPredictionResponseDTO.PredictionResult result = resultsById.getOrDefault(customerId,
+                    errorResult(customerId, "Cliente no encontrado: " + customerId));
+            if (result.getError() == null) {
+                successCount++;
+            }
+            results.add(result);
+        }
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("✅ [BULK] Completado en {}ms: {} éxitos, {} errores", duration, successCount,
+                results.size() - successCount);
+
+        return BatchPredictionResponseDTO.builder()
+                .totalProcessed(results.size())
+                .successCount(successCount)
+                .errorCount(results.size() - successCount)
+                .results(results)
+                .durationMillis(duration)
+                .build();
+    }
+
+    private void persistChunk(ScoredChunk chunk, Map<String, BatchPredictionResponseDTO.PredictionResult> resultsById) {
+        PredictionResponseDto[] responses;
+        try {
+            responses = chunk.responses().join();
+        } catch (CompletionException e) {
+            String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            log.error("❌ [BULK] Error en Python para {} clientes: {}", chunk.customerIds().size(), message);
+            chunk.customerIds().forEach(id -> resultsById.put(id, errorResult(id, "Batch processing failed: " + message)));
+            return;
+        }
+
+        List<PredictionWriter.NewPrediction> predictions = new ArrayList<>(responses.length);
+        for (int i = 0; i < responses.length; i++) {
+            predictions.add(new PredictionWriter.NewPrediction(
+                    chunk.customerIds().get(i),
+                    responses[i].getProbability(),
+                    responses[i].getMainFactor(),
+                    chunk.featureHashes().get(i)));
+        }
+
+        try {
+            predictionWriter.insertAll(predictions, LocalDateTime.now());
+        } catch (Exception e) {
+            log.error("❌ [BULK] Error guardando {} predicciones: {}", predictions.size(), e.getMessage());
+            chunk.customerIds().forEach(id -> resultsById.put(id,
+                    errorResult(id, "Batch persistence failed: " + e.getMessage())));
+            return;
+        }
+
+        for (int i = 0; i < responses.length; i++) {
+            PredictionWriter.NewPrediction prediction = predictions.get(i);
+            resultsById.put(prediction.customerId(), BatchPredictionResponseDTO.PredictionResult.builder()
+                    .customerId(prediction.customerId())
+                    .risk(prediction.riskLevel())
+                    .probability(prediction.probability())
+                    .mainFactor(prediction.mainFactor())
+                    .nextBestAction(responses[i].getNextBestAction())
+                    .error(null)
+                    .build());
+        }
+    }
+
+    private static BatchPredictionResponseDTO.PredictionResult errorResult(String customerId, String error) {
+        return BatchPredictionResponseDTO.PredictionResult.builder()
+                .customerId(customerId)
+                .error(error)
+                .build();
+    }
+
+    private record ScoredChunk(List<String> customerIds, List<Long> featureHashes,
+            CompletableFuture<PredictionResponseDto[]> responses) {
+    }
+}
@@ -1,7 +1,16 @@
 package com.retainai.service;
 
+import com.retainai.dto.BiCubeCell;
+import com.retainai.dto.BiCubeDeltaEvent;
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.KpiCounts;
+import com.retainai.dto.KpiDeltaEvent;
+import com.retainai.repository.BiCubeRepository;
+import com.retainai.repository.KpiCounterRepository;
+import com.retainai.repository.KpiCounterRepository.ExistingCustomer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,6 +29,9 @@ import java.util.*;
 public class CsvImportService {
 
     private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final KpiCounterRepository kpiCounterRepository;
+    private final BiCubeRepository biCubeRepository;
 
     /**
      * Sube clientes desde CSV con nombres EXACTOS de BD (generado por /export)
@@ -48,6 +60,8 @@ public class CsvImportService {
             int count = 0;
             int batchSize = 1000; // Insertar en lotes de 1000
             List<Map<String, String>> batch = new ArrayList<>();
+            KpiDeltaEvent kpiDelta = new KpiDeltaEvent(KpiCounts.ZERO, false);
+            Map<BiCubeCell.Key, BiCubeCell> cubeDelta = new HashMap<>();
 
             while ((line = reader.readLine()) != null) {
                 String[] values = parseCSVLine(line);
@@ -63,7 +77,7 @@ public class CsvImportService {
 
                 // Insertar batch cuando alcance el tamaño
                 if (batch.size() >= batchSize) {
-                    insertBatch(batch);
+                    kpiDelta = merge(kpiDelta, insertBatch(batch, cubeDelta));
                     batch.clear();
                     log.info("✅ Insertados {} clientes...", count);
                 }
@@ -71,18 +85,39 @@ public class CsvImportService {
 
             // Insertar registros restantes
             if (!batch.isEmpty()) {
-                insertBatch(batch);
+                kpiDelta = merge(kpiDelta, insertBatch(batch, cubeDelta));
             }
 
             log.info("🎉 Total de clientes importados: {}", count);
+            // KPIs del dashboard: se recalculan tras el commit
+            eventPublisher.publishEvent(new CustomerDataChangedEvent("csv-import"));
+            // 🔢 Contadores de alertas: se aplica la variación tras el commit
+            eventPublisher.publishEvent(kpiDelta);
+            // 🧊 Cubo BI: diferencia antes/después de los clientes importados
+            eventPublisher.publishEvent(new BiCubeDeltaEvent(List.copyOf(cubeDelta.values())));
             return count;
         }
     }
 
     /**
      * Inserta un batch de clientes en las 4 tablas: customers, subscriptions, customer_metrics, customer_context
+     *
+     * Devuelve cómo cambian los contadores de alertas (KpiCounterService). Se
+     * compara con el estado previo de los clientes del lote (una consulta):
+     * los upserts solo sobrescriben meses_permanencia en subscriptions, así
+     * que tickets_soporte solo cuenta para filas nuevas de customer_metrics.
+     *
+     * La variación del cubo BI se obtiene agregando los clientes del lote
+     * antes y después de escribirlos (dos GROUP BY por PK) y se acumula en cubeDelta.
      */
-    private void insertBatch(List<Map<String, String>> batch) {
+    private KpiDeltaEvent insertBatch(List<Map<String, String>> batch, Map<BiCubeCell.Key, BiCubeCell> cubeDelta) {
+        List<String> customerIds = batch.stream()
+                .map(row -> row.get("cliente_id")).filter(Objects::nonNull).distinct().toList();
+        Map<String, ExistingCustomer> existing = kpiCounterRepository.findExisting(customerIds);
+        List<BiCubeCell> cubeBefore = biCubeRepository.aggregateCustomers(customerIds);
+        KpiCounts delta = KpiCounts.ZERO;
+        boolean reconcile = false;
+
         for (Map<String, String> row : batch) {
             try {
                 // 1. Insertar CUSTOMER (tabla padre)
@@ -208,11 +243,41 @@ public class CsvImportService {
                         row.get("precio_vs_mercado")
                 );
 
+                ExistingCustomer before = existing.get(customerId);
+                Integer meses = parseInteger(row.get("meses_permanencia"));
+                Integer tickets = parseInteger(row.get("tickets_soporte"));
+                boolean newMetrics = before == null || !before.hasMetrics();
+                boolean newSubscription = before == null || !before.hasSubscription();
+                delta = delta.plus(new KpiCounts(
+                        newMetrics && tickets != null && tickets >= KpiCounterRepository.HIGH_TICKETS ? 1 : 0,
+                        0,
+                        (isOnboarding(meses) ? 1 : 0)
+                                - (!newSubscription && isOnboarding(before.mesesPermanencia()) ? 1 : 0)));
+                // Suscripción nueva de un cliente que ya podía tener predicción
+                reconcile |= before != null && newSubscription;
+                existing.put(customerId, new ExistingCustomer(true, meses, true));
+
             } catch (Exception e) {
                 log.error("❌ Error al insertar cliente: {}", row.get("cliente_id"), e);
+                reconcile = true; // Puede haber quedado escrito solo en parte
                 // Continuar con el siguiente registro
             }
         }
+        for (BiCubeCell cell : cubeBefore) {
+            cubeDelta.merge(cell.key(), cell.negate(), BiCubeCell::plus);
+        }
+        for (BiCubeCell cell : biCubeRepository.aggregateCustomers(customerIds)) {
+            cubeDelta.merge(cell.key(), cell, BiCubeCell::plus);
+        }
+        return new KpiDeltaEvent(delta, reconcile);
+    }
+
+    private static boolean isOnboarding(Integer meses) {
+        return meses != null && meses >= 0 && meses <= KpiCounterRepository.ONBOARDING_MAX_MONTHS;
+    }
+
+    private static KpiDeltaEvent merge(KpiDeltaEvent total, KpiDeltaEvent batch) {
+        return new KpiDeltaEvent(total.delta().plus(batch.delta()), total.reconcile() || batch.reconcile());
     }
 
     /**
@@ -3,11 +3,11 @@ package com.retainai.service;
 import com.retainai.dto.BatchPredictionResponseDTO;
 import com.retainai.dto.PredictionInputDtoV2;
 import com.retainai.dto.PredictionResponseDto;
+import com.retainai.model.AiPrediction;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
@@ -15,16 +15,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class CsvService {
 
-    private final RestTemplate restTemplate;
+    private final PythonBatchClient pythonBatchClient;
 
-    @Value("${app.python-service.url}")
-    private String pythonUrl;
+    @Value("${app.batch.direct-chunk-size:1000}")
+    private int directChunkSize;
 
     /**
      * Parsea un archivo CSV y extrae los IDs de clientes
@@ -69,11 +71,18 @@ public class CsvService {
     /**
      * Parsea un CSV con datos completos y hace predicción directa sin consultar BD
      * Formato esperado: 24 columnas del modelo
+     *
+     * 🚀 Las filas válidas se agrupan en chunks de app.batch.direct-chunk-size y se
+     * envían a Python /predict/batch (varios chunks en vuelo) mientras se sigue
+     * leyendo el archivo. Los resultados vuelven en el orden de las líneas.
      */
     public BatchPredictionResponseDTO parseAndPredictDirect(MultipartFile file) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        // Un resultado por línea de datos (los válidos se rellenan al volver su chunk)
         List<BatchPredictionResponseDTO.PredictionResult> results = new ArrayList<>();
-        int successCount = 0;
-        int errorCount = 0;
+        List<DirectChunk> chunks = new ArrayList<>();
+        DirectChunk current = new DirectChunk();
 
         log.info("📄 Parseando CSV con datos completos: {}", file.getOriginalFilename());
 
@@ -86,7 +95,6 @@ public class CsvService {
             }
 
             log.info("   Header: {}", headerLine);
-            String[] headers = headerLine.split(",");
 
             String line;
             int lineNumber = 1;
@@ -100,56 +108,16 @@ public class CsvService {
                         throw new IllegalArgumentException("Se esperan 25 columnas (1 ID + 24 features), se recibieron " + values.length);
                     }
 
-                    // Construir DTO con los valores del CSV (índice 0 = customer_id, 1-24 = features)
-                    PredictionInputDtoV2 payload = PredictionInputDtoV2.builder()
-                            .scoreRiesgo(parseDouble(values[1]))
-                            .diasActivosSemanales(parseInt(values[2]))
-                            .promedioConexion(parseDouble(values[3]))
-                            .conexionesMensuales(parseInt(values[4]))
-                            .caracteristicasUsadas(parseInt(values[5]))
-                            .diasUltimaConexion(parseInt(values[6]))
-                            .intensidadUso(parseDouble(values[7]))
-                            .ticketsSoporte(parseInt(values[8]))
-                            .puntuacionNps(parseDouble(values[9]))
-                            .tasaCrecimientoUso(parseDouble(values[10]))
-                            .puntuacionCsat(parseDouble(values[11]))
-                            .ratioCargaFinanciera(parseDouble(values[12]))
-                            .tasaAperturaEmail(parseDouble(values[13]))
-                            .erroresPago(parseInt(values[14]))
-                            .antiguedad(parseInt(values[15]))
-                            .ingresosTotales(parseDouble(values[16]))
-                            .latitud(parseDouble(values[17]))
-                            .cargoMensual(parseDouble(values[18]))
-                            .tiempoResolucion(parseDouble(values[19]))
-                            .longitud(parseDouble(values[20]))
-                            .codigoPostal(values[21])
-                            .edad(parseInt(values[22]))
-                            .diasDesdeUltimoContacto(parseInt(values[23]))
-                            .tiempoSesionPromedio(parseDouble(values[24]))
-                            .build();
-
-                    // Llamar a Python
-                    PredictionResponseDto prediction = restTemplate.postForObject(
-                            pythonUrl + "/predict",
-                            payload,
-                            PredictionResponseDto.class);
-
-                    // Agregar resultado exitoso
-                    results.add(BatchPredictionResponseDTO.PredictionResult.builder()
-                            .customerId(values[0])
-                            .risk(prediction.getNivelRiesgo())
-                            .probability(prediction.getProbability())
-                            .mainFactor(prediction.getMainFactor())
-                            .nextBestAction(prediction.getNextBestAction())
-                            .error(null)
-                            .build());
+                    current.add(results.size(), values[0], parseDirectRow(values));
+                    results.add(null);
 
-                    successCount++;
-                    log.info("   ✅ Línea {}: {} - {} ({}%)", lineNumber, values[0], prediction.getNivelRiesgo(),
-                            String.format("%.1f", prediction.getProbability() * 100));
+                    if (current.size() >= directChunkSize) {
+                        chunks.add(current.submit(pythonBatchClient));
+                        current = new DirectChunk();
+                    }
 
-                } catch (Exception e) {
-                    errorCount++;
+                } catch (IllegalArgumentException e) {
+                    // Línea mal formada: se reporta sin afectar al resto del chunk
                     results.add(BatchPredictionResponseDTO.PredictionResult.builder()
                             .customerId("Línea " + lineNumber)
                             .error(e.getMessage())
@@ -157,18 +125,127 @@ public class CsvService {
                     log.warn("   ⚠️  Error en línea {}: {}", lineNumber, e.getMessage());
                 }
             }
+
+            if (current.size() > 0) {
+                chunks.add(current.submit(pythonBatchClient));
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            chunks.forEach(chunk -> chunk.responses.cancel(true));
+            throw new IOException("Predicción directa interrumpida", e);
         }
 
-        log.info("✅ Predicción directa completada: {} éxitos, {} errores", successCount, errorCount);
+        // Recoger cada chunk y colocar sus predicciones en la línea original
+        for (DirectChunk chunk : chunks) {
+            chunk.collect(results);
+        }
+
+        int errorCount = (int) results.stream().filter(result -> result.getError() != null).count();
+        int successCount = results.size() - errorCount;
+        long duration = System.currentTimeMillis() - startTime;
+
+        log.info("✅ Predicción directa completada en {}ms: {} éxitos, {} errores ({} chunks)",
+                duration, successCount, errorCount, chunks.size());
 
         return BatchPredictionResponseDTO.builder()
                 .totalProcessed(successCount + errorCount)
                 .successCount(successCount)
                 .errorCount(errorCount)
                 .results(results)
+                .durationMillis(duration)
                 .build();
     }
 
+    // Construir DTO con los valores del CSV (índice 0 = customer_id, 1-24 = features)
+    private PredictionInputDtoV2 parseDirectRow(String[] values) {
+        return PredictionInputDtoV2.builder()
+                .scoreRiesgo(parseDouble(values[1]))
+                .diasActivosSemanales(parseInt(values[2]))
+                .promedioConexion(parseDouble(values[3]))
+                .conexionesMensuales(parseInt(values[4]))
+                .caracteristicasUsadas(parseInt(values[5]))
+                .diasUltimaConexion(parseInt(values[6]))
+                .intensidadUso(parseDouble(values[7]))
+                .ticketsSoporte(parseInt(values[8]))
+                .puntuacionNps(parseDouble(values[9]))
+                .tasaCrecimientoUso(parseDouble(values[10]))
+                .puntuacionCsat(parseDouble(values[11]))
+                .ratioCargaFinanciera(parseDouble(values[12]))
+                .tasaAperturaEmail(parseDouble(values[13]))
+                .erroresPago(parseInt(values[14]))
+                .antiguedad(parseInt(values[15]))
+                .ingresosTotales(parseDouble(values[16]))
+                .latitud(parseDouble(values[17]))
+                .cargoMensual(parseDouble(values[18]))
+                .tiempoResolucion(parseDouble(values[19]))
+                .longitud(parseDouble(values[20]))
+                .codigoPostal(values[21])
+                .edad(parseInt(values[22]))
+                .diasDesdeUltimoContacto(parseInt(values[23]))
+                .tiempoSesionPromedio(parseDouble(values[24]))
+                .build();
+    }
+
+    /**
+     * Chunk de filas válidas: posición en results, id y features de cada una
+     */
+    private static final class DirectChunk {
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<String> customerIds = new ArrayList<>();
+        private final List<PredictionInputDtoV2> inputs = new ArrayList<>();
+        private CompletableFuture<PredictionResponseDto[]> responses;
+
+        void add(int slot, String customerId, PredictionInputDtoV2 input) {
+            slots.add(slot);
+            customerIds.add(customerId);
+            inputs.add(input);
+        }
+
+        int size() {
+            return inputs.size();
+        }
+
+        // Bloquea solo si ya hay N chunks en vuelo contra Python
+        DirectChunk submit(PythonBatchClient client) throws InterruptedException {
+            responses = client.scoreAsync(inputs);
+            return this;
+        }
+
+        void collect(List<BatchPredictionResponseDTO.PredictionResult> results) {
+            PredictionResponseDto[] scored;
+            try {
+                scored = responses.join();
+            } catch (CompletionException e) {
+                String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                log.error("❌ Error en Python para un chunk de {} filas: {}", size(), message);
+                for (int i = 0; i < size(); i++) {
+                    results.set(slots.get(i), BatchPredictionResponseDTO.PredictionResult.builder()
+                            .customerId(customerIds.get(i))
+                            .error("Batch processing failed: " + message)
+                            .build());
+                }
+                return;
+            }
+
+            for (int i = 0; i < size(); i++) {
+                PredictionResponseDto prediction = scored[i];
+                // Python no devuelve nivel_riesgo: mismos umbrales que @PrePersist
+                String risk = prediction.getNivelRiesgo() != null || prediction.getProbability() == null
+                        ? prediction.getNivelRiesgo()
+                        : AiPrediction.riskLevelFor(prediction.getProbability());
+                results.set(slots.get(i), BatchPredictionResponseDTO.PredictionResult.builder()
+                        .customerId(customerIds.get(i))
+                        .risk(risk)
+                        .probability(prediction.getProbability())
+                        .mainFactor(prediction.getMainFactor())
+                        .nextBestAction(prediction.getNextBestAction())
+                        .error(null)
+                        .build());
+            }
+        }
+    }
+
     private Double parseDouble(String value) {
         if (value == null || value.trim().isEmpty()) return 0.0;
         return Double.parseDouble(value.trim());
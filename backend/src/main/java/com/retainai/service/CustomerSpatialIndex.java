@@ -0,0 +1,467 @@
+package com.retainai.service;
+
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.GeoCustomerDto;
+import com.retainai.dto.GeoNeighborDto;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.AiPrediction;
+import com.retainai.repository.HeatmapRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 📍 Índice espacial en memoria de los clientes con coordenadas (KD-tree)
+ *
+ * KD-tree implícito sobre arrays primitivos: los clientes se reordenan de
+ * forma que el nodo de cada rango [lo, hi) es su elemento central, con los
+ * de menor latitud (o longitud, alternando por profundidad) a la izquierda.
+ * Sin objetos por nodo: ~40 bytes por cliente.
+ *
+ * - boundingBox: clientes de un viewport, O(√n + resultados)
+ * - nearest: los k más cercanos a un punto
+ * - withinRadius: los que están a menos de N metros
+ * Las distancias usan la proyección equirectangular centrada en la latitud
+ * del punto consultado (error < 0.1 % a escala de ciudad), la misma métrica
+ * con la que se podan las ramas.
+ *
+ * Se reconstruye al arrancar y, como mucho cada app.geo.index.rebuild-delay,
+ * tras importaciones, jobs y escrituras de predicciones (el riesgo de cada
+ * punto viene de la última predicción). Las consultas siempre ven un índice
+ * completo: el nuevo sustituye al anterior de una vez.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CustomerSpatialIndex {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private final HeatmapRepository heatmapRepository;
+    private final BackgroundRefresher backgroundRefresher;
+
+    @Value("${app.geo.index.rebuild-delay:PT30S}")
+    private Duration rebuildDelay;
+
+    private volatile KdTree tree;
+    private volatile LocalDateTime builtAt;
+    private volatile long buildMillis;
+
+    // 🔄 Reconstrucción en segundo plano (al arrancar y tras escrituras)
+    private BackgroundRefresher.Task rebuildTask;
+
+    @PostConstruct
+    void init() {
+        rebuildTask = backgroundRefresher.register("spatial-index-rebuild", this::rebuild)
+                .checkDirtyEvery(rebuildDelay);
+    }
+
+    /**
+     * Clientes dentro del rectángulo (como mucho limit)
+     */
+    public List<GeoCustomerDto> boundingBox(double minLat, double minLng, double maxLat, double maxLng, int limit) {
+        if (minLat > maxLat || minLng > maxLng) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bounding box inválido (min > max)");
+        }
+        KdTree index = tree();
+        List<GeoCustomerDto> result = new ArrayList<>();
+        index.rangeSearch(0, index.size(), 0, minLat, minLng, maxLat, maxLng, limit, result);
+        return result;
+    }
+
+    /**
+     * Los k clientes más cercanos a (lat, lng), del más cercano al más lejano
+     */
+    public List<GeoNeighborDto> nearest(double lat, double lng, int k) {
+        return search(lat, lng, k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Clientes a menos de radiusMeters de (lat, lng), del más cercano al más
+     * lejano (como mucho limit)
+     */
+    public List<GeoNeighborDto> withinRadius(double lat, double lng, double radiusMeters, int limit) {
+        return search(lat, lng, limit, radiusMeters);
+    }
+
+    /**
+     * Reconstruye el índice desde la BD y lo sustituye
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        KdTree.Builder builder = new KdTree.Builder();
+        try {
+            heatmapRepository.streamPoints(null, point -> builder.add(
+                    point.getCustomerId(), point.getLatitude(), point.getLongitude(),
+                    point.getChurnProbability(), point.getCargoMensual()));
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo reconstruir el índice espacial: {}", e.getMessage());
+            return;
+        }
+        tree = builder.build();
+        builtAt = LocalDateTime.now();
+        buildMillis = System.currentTimeMillis() - start;
+        log.info("📍 Índice espacial: {} clientes en {} ms", tree.size(), buildMillis);
+    }
+
+    /**
+     * Encola una reconstrucción en segundo plano (no bloquea al llamador)
+     */
+    public void requestRebuild() {
+        rebuildTask.request();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        rebuildTask.markDirty();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPredictionsWritten(PredictionsWrittenEvent event) {
+        rebuildTask.markDirty();
+    }
+
+    /**
+     * Estado para el endpoint: tamaño y última reconstrucción
+     */
+    public Map<String, Object> status() {
+        KdTree index = tree;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("customers", index == null ? null : index.size());
+        status.put("builtAt", builtAt);
+        status.put("buildMillis", buildMillis);
+        status.put("stale", rebuildTask.isDirty());
+        return status;
+    }
+
+    private List<GeoNeighborDto> search(double lat, double lng, int k, double radiusMeters) {
+        if (k <= 0) {
+            return List.of();
+        }
+        KdTree index = tree();
+        NeighborHeap heap = new NeighborHeap(Math.min(k, Math.max(index.size(), 1)));
+        double lngScale = Math.cos(Math.toRadians(lat));
+        index.nearestSearch(0, index.size(), 0, lat, lng, lngScale, radiusMeters, heap);
+
+        int[] order = heap.sortedIndexes();
+        List<GeoNeighborDto> result = new ArrayList<>(order.length);
+        for (int i : order) {
+            result.add(new GeoNeighborDto(
+                    index.ids[i], index.lat[i], index.lng[i],
+                    Math.round(distanceMeters(lat, lng, lngScale, index.lat[i], index.lng[i]) * 10.0) / 10.0,
+                    riskLabel(index.probability[i]),
+                    Double.isNaN(index.fee[i]) ? 0.0 : index.fee[i]));
+        }
+        return result;
+    }
+
+    private KdTree tree() {
+        if (tree == null) {
+            rebuild();
+        }
+        KdTree index = tree;
+        if (index == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Índice espacial no disponible");
+        }
+        return index;
+    }
+
+    private static double distanceMeters(double lat, double lng, double lngScale, double otherLat, double otherLng) {
+        double dy = (otherLat - lat) * METERS_PER_DEGREE;
+        double dx = (otherLng - lng) * METERS_PER_DEGREE * lngScale;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // Mismos umbrales que ai_predictions.nivel_riesgo (y que MapTileService); sin predicción → Low
+    private static String riskLabel(double probability) {
+        if (Double.isNaN(probability)) {
+            return "Low";
+        }
+        return switch (AiPrediction.riskLevelFor(probability)) {
+            case "Alto" -> "High";
+            case "Medio" -> "Medium";
+            default -> "Low";
+        };
+    }
+
+    /**
+     * KD-tree implícito: arrays paralelos reordenados por medianas
+     * (NaN = sin predicción / sin cuota)
+     */
+    private static final class KdTree {
+        private final String[] ids;
+        private final double[] lat;
+        private final double[] lng;
+        private final double[] probability;
+        private final double[] fee;
+
+        private KdTree(String[] ids, double[] lat, double[] lng, double[] probability, double[] fee) {
+            this.ids = ids;
+            this.lat = lat;
+            this.lng = lng;
+            this.probability = probability;
+            this.fee = fee;
+            build(0, ids.length, 0);
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        private double coordinate(int i, int axis) {
+            return axis == 0 ? lat[i] : lng[i];
+        }
+
+        private void build(int lo, int hi, int axis) {
+            if (hi - lo <= 1) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axis);
+            build(lo, mid, axis ^ 1);
+            build(mid + 1, hi, axis ^ 1);
+        }
+
+        /**
+         * Quickselect: deja en k el elemento que le corresponde ordenando por
+         * axis, con los menores o iguales a la izquierda. Partición en tres
+         * (menores / iguales / mayores) para que muchas coordenadas repetidas
+         * no lo vuelvan cuadrático.
+         */
+        private void select(int left, int right, int k, int axis) {
+            while (right > left) {
+                double pivot = coordinate((left + right) >>> 1, axis);
+                int lt = left;
+                int gt = right;
+                int i = left;
+                while (i <= gt) {
+                    double value = coordinate(i, axis);
+                    if (value < pivot) {
+                        swap(lt++, i++);
+                    } else if (value > pivot) {
+                        swap(i, gt--);
+                    } else {
+                        i++;
+                    }
+                }
+                if (k < lt) {
+                    right = lt - 1;
+                } else if (k > gt) {
+                    left = gt + 1;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            if (a == b) {
+                return;
+            }
+            String id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double value = lat[a];
+            lat[a] = lat[b];
+            lat[b] = value;
+            value = lng[a];
+            lng[a] = lng[b];
+            lng[b] = value;
+            value = probability[a];
+            probability[a] = probability[b];
+            probability[b] = value;
+            value = fee[a];
+            fee[a] = fee[b];
+            fee[b] = value;
+        }
+
+        void rangeSearch(int lo, int hi, int axis, double minLat, double minLng, double maxLat, double maxLng,
+                int limit, List<GeoCustomerDto> result) {
+            if (lo >= hi || result.size() >= limit) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            double value = coordinate(mid, axis);
+            double min = axis == 0 ? minLat : minLng;
+            double max = axis == 0 ? maxLat : maxLng;
+
+            if (lat[mid] >= minLat && lat[mid] <= maxLat && lng[mid] >= minLng && lng[mid] <= maxLng) {
+                result.add(new GeoCustomerDto(ids[mid], lat[mid], lng[mid], riskLabel(probability[mid]),
+                        Double.isNaN(fee[mid]) ? 0.0 : fee[mid]));
+            }
+            if (min <= value) {
+                rangeSearch(lo, mid, axis ^ 1, minLat, minLng, maxLat, maxLng, limit, result);
+            }
+            if (max >= value) {
+                rangeSearch(mid + 1, hi, axis ^ 1, minLat, minLng, maxLat, maxLng, limit, result);
+            }
+        }
+
+        void nearestSearch(int lo, int hi, int axis, double qLat, double qLng, double lngScale,
+                double radiusMeters, NeighborHeap heap) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            double distance = distanceMeters(qLat, qLng, lngScale, lat[mid], lng[mid]);
+            if (distance <= radiusMeters) {
+                heap.offer(mid, distance);
+            }
+
+            double delta = axis == 0
+                    ? (qLat - lat[mid]) * METERS_PER_DEGREE
+                    : (qLng - lng[mid]) * METERS_PER_DEGREE * lngScale;
+            int nearLo = delta < 0 ? lo : mid + 1;
+            int nearHi = delta < 0 ? mid : hi;
+            int farLo = delta < 0 ? mid + 1 : lo;
+            int farHi = delta < 0 ? hi : mid;
+
+            nearestSearch(nearLo, nearHi, axis ^ 1, qLat, qLng, lngScale, radiusMeters, heap);
+            // La otra mitad solo si el plano de corte está más cerca que el peor candidato
+            double planeDistance = Math.abs(delta);
+            if (planeDistance <= radiusMeters && (!heap.isFull() || planeDistance < heap.worstDistance())) {
+                nearestSearch(farLo, farHi, axis ^ 1, qLat, qLng, lngScale, radiusMeters, heap);
+            }
+        }
+
+        /**
+         * Acumula los puntos leídos de la BD y construye el árbol
+         */
+        static final class Builder {
+            private String[] ids = new String[1024];
+            private double[] lat = new double[1024];
+            private double[] lng = new double[1024];
+            private double[] probability = new double[1024];
+            private double[] fee = new double[1024];
+            private int size;
+
+            void add(String id, Double latitude, Double longitude, Double churnProbability, Double monthlyFee) {
+                if (latitude == null || longitude == null) {
+                    return;
+                }
+                if (size == ids.length) {
+                    int capacity = size * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    lat = Arrays.copyOf(lat, capacity);
+                    lng = Arrays.copyOf(lng, capacity);
+                    probability = Arrays.copyOf(probability, capacity);
+                    fee = Arrays.copyOf(fee, capacity);
+                }
+                ids[size] = id;
+                lat[size] = latitude;
+                lng[size] = longitude;
+                probability[size] = churnProbability != null ? churnProbability : Double.NaN;
+                fee[size] = monthlyFee != null ? monthlyFee : Double.NaN;
+                size++;
+            }
+
+            KdTree build() {
+                return new KdTree(Arrays.copyOf(ids, size), Arrays.copyOf(lat, size), Arrays.copyOf(lng, size),
+                        Arrays.copyOf(probability, size), Arrays.copyOf(fee, size));
+            }
+        }
+    }
+
+    /**
+     * Max-heap acotado (índice, distancia) sobre arrays: guarda los
+     * capacity más cercanos vistos; la raíz es el peor de ellos
+     */
+    private static final class NeighborHeap {
+        private final int[] indexes;
+        private final double[] distances;
+        private int size;
+
+        NeighborHeap(int capacity) {
+            indexes = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size == indexes.length;
+        }
+
+        double worstDistance() {
+            return distances[0];
+        }
+
+        void offer(int index, double distance) {
+            if (indexes.length == 0) {
+                return;
+            }
+            if (!isFull()) {
+                indexes[size] = index;
+                distances[size] = distance;
+                siftUp(size++);
+            } else if (distance < distances[0]) {
+                indexes[0] = index;
+                distances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        int[] sortedIndexes() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = indexes[order[i]];
+            }
+            return result;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distances[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int right = left + 1;
+                int largest = i;
+                if (left < size && distances[left] > distances[largest]) {
+                    largest = left;
+                }
+                if (right < size && distances[right] > distances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int index = indexes[a];
+            indexes[a] = indexes[b];
+            indexes[b] = index;
+            double distance = distances[a];
+            distances[a] = distances[b];
+            distances[b] = distance;
+        }
+    }
+}
@@ -1,23 +1,33 @@
 package com.retainai.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.retainai.config.CacheConfig;
+import com.retainai.dto.CustomerDataChangedEvent;
 import com.retainai.dto.DashboardStatsDto;
 import com.retainai.dto.HeatmapPointDto;
-import com.retainai.model.AiPrediction;
-import com.retainai.model.Customer;
-import com.retainai.model.Subscription;
 import com.retainai.repository.CustomerRepository;
-import com.retainai.repository.PredictionRepository;
-import com.retainai.repository.SubscriptionRepository;
+import com.retainai.repository.HeatmapRepository;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.interceptor.SimpleKey;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -26,45 +36,106 @@ public class DashboardService {
 
     // Al ser 'final', Lombok genera el constructor automáticamente
     private final CustomerRepository customerRepository;
-    private final SubscriptionRepository subscriptionRepository;
-    private final PredictionRepository predictionRepository;
+    private final HeatmapRepository heatmapRepository;
+    private final ObjectMapper objectMapper;
+    private final CacheManager cacheManager;
+    private final BackgroundRefresher backgroundRefresher;
+
+    @Value("${app.cache.dashboard-stats.refresh-interval:PT5M}")
+    private Duration statsRefreshInterval;
+
+    // 🔄 Recalcula dashboardStats en segundo plano (al arrancar, periódico y
+    // bajo demanda; las peticiones que llegan mientras hay uno en cola se agrupan)
+    private BackgroundRefresher.Task statsRefreshTask;
+
+    @PostConstruct
+    void init() {
+        statsRefreshTask = backgroundRefresher.register("dashboard-stats-refresh", this::refreshDashboardStats)
+                .every(statsRefreshInterval);
+    }
 
+    /**
+     * KPIs del dashboard. La caché dashboardStats se mantiene caliente en
+     * segundo plano (al arrancar, cada app.cache.dashboard-stats.refresh-interval
+     * y tras importaciones, limpiezas y jobs masivos): ninguna petición paga
+     * el cálculo salvo si la caché aún no se ha llenado nunca.
+     */
     @Cacheable(value = "dashboardStats", unless = "#result == null")
     @Transactional(readOnly = true)
     public DashboardStatsDto getDashboardStats() {
         try {
-            // Usamos tu método personalizado del repo
-            long totalCustomers = customerRepository.countAll();
+            return aggregateStats();
+        } catch (Exception e) {
+            log.error("Error calculando estadísticas del dashboard", e);
+            return createEmptyStats();
+        }
+    }
 
-            if (totalCustomers == 0) {
-                log.warn("No hay clientes en la base de datos.");
-                return createEmptyStats();
-            }
+    /**
+     * Recalcula y reemplaza la entrada de la caché (sin evict: mientras
+     * tanto se sigue sirviendo el valor anterior). Si falla se conserva el
+     * valor anterior.
+     */
+    public void refreshDashboardStats() {
+        Cache cache = cacheManager.getCache(CacheConfig.DASHBOARD_STATS);
+        if (cache == null) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            cache.put(SimpleKey.EMPTY, aggregateStats());
+            log.debug("🔄 dashboardStats recalculado en {} ms", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo recalcular dashboardStats (se mantiene el anterior): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Encola un recálculo en segundo plano (no bloquea al llamador)
+     */
+    public void requestStatsRefresh() {
+        statsRefreshTask.request();
+    }
 
-            long abandonedCustomers = customerRepository.countAbandonedCustomers();
-            Double churnRate = calculateChurnRate(abandonedCustomers, totalCustomers);
+    /**
+     * Importaciones, limpiezas y jobs masivos: recálculo tras el commit
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        log.debug("🔄 Datos de clientes modificados ({}): recalculando dashboardStats", event.source());
+        requestStatsRefresh();
+    }
 
-            BigDecimal totalRevenue = subscriptionRepository.totalRevenue();
-            BigDecimal churnRevenue = customerRepository.churnRevenue();
+    /**
+     * Todos los KPIs en una sola consulta agregada (CustomerRepository.getDashboardAggregates)
+     */
+    private DashboardStatsDto aggregateStats() {
+        List<Object[]> rows = customerRepository.getDashboardAggregates();
+        Object[] row = rows.isEmpty() ? null : rows.get(0);
+        long totalCustomers = row != null ? ((Number) row[0]).longValue() : 0;
 
-            // Calcular NPS promedio
-            Double avgNpsScore = customerRepository.avgNpsScore();
+        if (totalCustomers == 0) {
+            log.warn("No hay clientes en la base de datos.");
+            return createEmptyStats();
+        }
 
-            // NOTA: Eliminamos 'activeSubscriptionsRevenue' porque no se usaba en el DTO
-            // y consumía recursos de la DB innecesariamente.
+        long abandonedCustomers = ((Number) row[1]).longValue();
+        Double churnRate = calculateChurnRate(abandonedCustomers, totalCustomers);
 
-            return new DashboardStatsDto(
-                    totalCustomers,
-                    abandonedCustomers, // Incluir cantidad absoluta
-                    churnRate,
-                    totalRevenue,
-                    churnRevenue,
-                    avgNpsScore);
+        return new DashboardStatsDto(
+                totalCustomers,
+                abandonedCustomers, // Incluir cantidad absoluta
+                churnRate,
+                toBigDecimal(row[2]),
+                toBigDecimal(row[3]),
+                row[4] != null ? ((Number) row[4]).doubleValue() : null);
+    }
 
-        } catch (Exception e) {
-            log.error("Error calculando estadísticas del dashboard", e);
-            return createEmptyStats();
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
         }
+        return value instanceof BigDecimal decimal ? decimal : new BigDecimal(value.toString());
     }
 
     private Double calculateChurnRate(Long abandonedCustomers, Long totalCustomers) {
@@ -87,120 +158,64 @@ public class DashboardService {
     }
 
     /**
-     * Obtiene puntos geográficos para el mapa de calor de churn
-     * Solo incluye clientes con coordenadas válidas
-     * 🚀 OPTIMIZADO: Usa Map para lookup eficiente de predicciones (evita N+1)
+     * Escribe el mapa de calor de churn como array JSON directamente en
+     * {@code out}, punto a punto según llegan de la BD (HeatmapRepository):
+     * ni entidades JPA ni la lista completa en memoria. Solo clientes con
+     * coordenadas; de una ciudad si city no es null (drill-down del chatbot).
+     *
+     * @return número de puntos escritos
      */
-    @Transactional(readOnly = true)
-    public List<HeatmapPointDto> getHeatmapData() {
-        try {
-            log.info("📍 Generando datos para heatmap geográfico...");
-
-            // 1. Obtener todos los clientes con coordenadas
-            List<Customer> customersWithCoords = customerRepository.findCustomersWithCoordinates();
-            log.info("✅ Encontrados {} clientes con coordenadas", customersWithCoords.size());
-
-            // TEMPORAL: Deshabilitado para evitar timeout
-            // TODO: Optimizar query de predicciones o usar caché
-            /*
-             * // 2. Obtener SOLO la última predicción de cada cliente (query optimizada)
-             * List<AiPrediction> latestPredictions =
-             * predictionRepository.findLatestPredictionForEachCustomer();
-             * log.info("✅ Encontradas {} predicciones", latestPredictions.size());
-             * 
-             * // 3. Crear Map para lookup O(1) - customerId -> AiPrediction
-             * Map<String, AiPrediction> predictionMap = latestPredictions.stream()
-             * .collect(Collectors.toMap(
-             * p -> p.getCustomer().getId(),
-             * p -> p,
-             * (p1, p2) -> p1.getFechaAnalisis().isAfter(p2.getFechaAnalisis()) ? p1 : p2));
-             * 
-             * // 4. Mapear a HeatmapPointDto usando el Map
-             * return customersWithCoords.stream()
-             * .map(customer -> mapToHeatmapPoint(customer,
-             * predictionMap.get(customer.getId())))
-             * .collect(Collectors.toList());
-             */
-
-            // TEMPORAL: Usar valores por defecto (sin predicciones)
-            return customersWithCoords.stream()
-                    .map(customer -> mapToHeatmapPoint(customer, null))
-                    .collect(Collectors.toList());
-
-        } catch (Exception e) {
-            log.error("❌ Error generando heatmap data", e);
-            return List.of();
+    public long writeHeatmap(String city, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        ObjectWriter writer = objectMapper.writerFor(HeatmapPointDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            long count = heatmapRepository.streamPoints(city, point -> {
+                try {
+                    writer.writeValue(generator, withDefaults(point));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+            log.info("📍 Heatmap{}: {} puntos en {} ms", city != null ? " (" + city + ")" : "",
+                    count, System.currentTimeMillis() - start);
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     /**
-     * Filtrar clientes por ciudad (para drill-down geográfico desde el chatbot)
-     * Solo retorna clientes de la ciudad especificada
+     * Número de clientes con coordenadas
      */
-    public List<HeatmapPointDto> getHeatmapDataByCity(String city) {
-        try {
-            log.info("📍 Filtrando heatmap por ciudad: {}", city);
-
-            // Buscar clientes de esa ciudad que tengan coordenadas
-            List<Customer> customers = customerRepository.findByCiudad(city);
-
-            // Filtrar solo los que tienen coordenadas
-            List<Customer> customersWithCoords = customers.stream()
-                    .filter(c -> c.getLatitud() != null && c.getLongitud() != null)
-                    .toList();
-
-            log.info("✅ Encontrados {} clientes en {} con coordenadas", customersWithCoords.size(), city);
-
-            // Obtener predicciones y crear Map
-            List<AiPrediction> latestPredictions = predictionRepository.findLatestPredictionForEachCustomer();
-            Map<String, AiPrediction> predictionMap = latestPredictions.stream()
-                    .collect(Collectors.toMap(
-                            p -> p.getCustomer().getId(),
-                            p -> p,
-                            (p1, p2) -> p1.getFechaAnalisis().isAfter(p2.getFechaAnalisis()) ? p1 : p2));
-
-            // Mapear a HeatmapPointDto
-            return customersWithCoords.stream()
-                    .map(customer -> mapToHeatmapPoint(customer, predictionMap.get(customer.getId())))
-                    .collect(Collectors.toList());
-
-        } catch (Exception e) {
-            log.error("❌ Error filtrando heatmap por ciudad: {}", city, e);
-            return List.of();
-        }
+    public long countHeatmapPoints() {
+        return heatmapRepository.countPoints();
     }
 
     /**
-     * Mapea un Customer a HeatmapPointDto
-     * 🚀 OPTIMIZADO: Recibe la predicción directamente (ya no busca en la lista)
+     * Riesgo normalizado a inglés y valores por defecto de lo que falte
+     * (sin predicción: 0.5 / "Medium"; sin suscripción: "N/A", 0.0, 0)
      */
-    private HeatmapPointDto mapToHeatmapPoint(Customer customer, AiPrediction prediction) {
-        Subscription sub = customer.getSubscription();
-
-        // Usar predicción si existe, valores por defecto si no
-        String riskLevel = "Medium"; // Valor por defecto
-        Double churnProbability = 0.5; // Valor por defecto (50%)
-
-        if (prediction != null) {
-            churnProbability = prediction.getProbabilidadFuga();
-            riskLevel = normalizeRiskLevel(prediction.getNivelRiesgo());
+    private HeatmapPointDto withDefaults(HeatmapPointDto point) {
+        if (point.getChurnProbability() != null) {
+            point.setRiskLevel(normalizeRiskLevel(point.getRiskLevel()));
+        } else {
+            point.setChurnProbability(0.5);
+            point.setRiskLevel("Medium");
         }
-
-        return HeatmapPointDto.builder()
-                .customerId(customer.getId())
-                .nombre(customer.getNombre()) // ✅ Nombre Real del Negocio desde la BD
-                .latitude(customer.getLatitud()) // Coordenada exacta (sin jitter)
-                .longitude(customer.getLongitud()) // ya que son únicas por negocio
-                .churnProbability(churnProbability)
-                .riskLevel(riskLevel)
-                // Metadata
-                .segmento(customer.getSegmento())
-                .tipoContrato(sub != null ? sub.getTipoContrato() : "N/A")
-                .cargoMensual(sub != null ? sub.getCuotaMensual() : 0.0)
-                .antiguedad(sub != null ? sub.getMesesPermanencia() : 0)
-                .ciudad(customer.getCiudad())
-                .borough(customer.getBorough()) // ✅ Borough real de la BD
-                .build();
+        if (point.getTipoContrato() == null) {
+            point.setTipoContrato("N/A");
+        }
+        if (point.getCargoMensual() == null) {
+            point.setCargoMensual(0.0);
+        }
+        if (point.getAntiguedad() == null) {
+            point.setAntiguedad(0);
+        }
+        return point;
     }
 
     /**
@@ -1,7 +1,9 @@
 package com.retainai.service;
 
+import com.retainai.dto.CustomerDataChangedEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -12,10 +14,14 @@ import org.springframework.transaction.annotation.Transactional;
 public class DatabaseCleanupService {
 
     private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Limpia TODA la base de datos respetando foreign keys
-     * Orden: ai_predictions → customer_context → customer_metrics → subscriptions → customers
+     * Orden: customer_latest_prediction → ai_predictions → customer_context → customer_metrics → subscriptions → customers
+     * Las estructuras en memoria (ranking, contadores, cubo) se vacían al
+     * recibir CustomerDataChangedEvent después del commit, no aquí: antes del
+     * commit una lectura concurrente las recargaría con los datos sin borrar.
      */
     @Transactional
     public void deleteAllData() {
@@ -26,6 +32,7 @@ public class DatabaseCleanupService {
             jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0");
 
             // Borrar en orden inverso a las dependencias (de hijos a padres)
+            long latestPredictions = deleteTable("customer_latest_prediction");
             long predictions = deleteTable("ai_predictions");
             long context = deleteTable("customer_context");
             long metrics = deleteTable("customer_metrics");
@@ -34,6 +41,7 @@ public class DatabaseCleanupService {
 
             // Reactivar verificación de foreign keys
             jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 1");
+            eventPublisher.publishEvent(new CustomerDataChangedEvent(CustomerDataChangedEvent.DATABASE_CLEANUP));
 
             log.warn("✅ BASE DE DATOS LIMPIADA EXITOSAMENTE");
             log.info("📊 Registros eliminados:");
@@ -42,6 +50,7 @@ public class DatabaseCleanupService {
             log.info("   - Customer Metrics: {}", metrics);
             log.info("   - Customer Context: {}", context);
             log.info("   - AI Predictions: {}", predictions);
+            log.info("   - Latest Predictions: {}", latestPredictions);
 
         } catch (Exception e) {
             log.error("❌ Error al limpiar la base de datos", e);
@@ -79,7 +88,8 @@ public class DatabaseCleanupService {
                 (SELECT COUNT(*) FROM subscriptions) +
                 (SELECT COUNT(*) FROM customer_metrics) +
                 (SELECT COUNT(*) FROM customer_context) +
-                (SELECT COUNT(*) FROM ai_predictions)
+                (SELECT COUNT(*) FROM ai_predictions) +
+                (SELECT COUNT(*) FROM customer_latest_prediction)
             """, Long.class);
 
         return totalRecords != null && totalRecords == 0;
@@ -1,9 +1,8 @@
 package com.retainai.service;
 
 import com.retainai.dto.ChatMessageDto;
-import com.retainai.model.AiPrediction;
 import com.retainai.model.Customer;
-import com.retainai.repository.PredictionRepository;
+import com.retainai.model.CustomerLatestPrediction;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -35,7 +34,7 @@ public class GeminiService {
     private final RestTemplate restTemplate;
     private final DashboardService dashboardService;
     private final CustomerService customerService;
-    private final PredictionRepository predictionRepository;
+    private final RiskLeaderboardService riskLeaderboardService;
 
     public String chat(String userMessage, List<ChatMessageDto> conversationHistory) {
         log.info("🤖 Enviando mensaje a Gemini: {}", userMessage);
@@ -138,17 +137,15 @@ public class GeminiService {
             var stats = dashboardService.getDashboardStats();
 
             // Obtener top 3 clientes de alto riesgo para contexto
-            List<AiPrediction> allPredictions = predictionRepository.findTop3HighRiskCustomers();
-            List<AiPrediction> highRiskCustomers = allPredictions.stream()
-                    .limit(3)
-                    .toList();
+            // 🏆 Ranking en memoria (última predicción por cliente); solo se leen esos 3 clientes
+            List<CustomerLatestPrediction> highRiskCustomers = riskLeaderboardService.topWithCustomers(3);
 
             StringBuilder topRiskContext = new StringBuilder();
 
             if (!highRiskCustomers.isEmpty()) {
                 topRiskContext.append("\n\nCLIENTES DE MAYOR RIESGO (para drill-down):\n");
                 for (int i = 0; i < highRiskCustomers.size(); i++) {
-                    AiPrediction pred = highRiskCustomers.get(i);
+                    CustomerLatestPrediction pred = highRiskCustomers.get(i);
                     Customer customer = pred.getCustomer();
                     String location = customer.getBorough() != null
                             ? customer.getBorough() + ", " + customer.getCiudad()
@@ -266,10 +263,10 @@ public class GeminiService {
                 log.info("🔍 [SQL QUERY] Detectada pregunta por cliente de MAYOR riesgo");
 
                 // Query SQL: Obtener el cliente con MAYOR probabilidad de churn
-                List<AiPrediction> topPrediction = predictionRepository.findTop3HighRiskCustomers();
+                List<CustomerLatestPrediction> topPrediction = riskLeaderboardService.topWithCustomers(1);
 
                 if (!topPrediction.isEmpty()) {
-                    AiPrediction pred = topPrediction.get(0); // El primero es el de mayor riesgo
+                    CustomerLatestPrediction pred = topPrediction.get(0); // El primero es el de mayor riesgo
                     Customer customer = pred.getCustomer();
 
                     String location = customer.getBorough() != null
@@ -280,7 +277,7 @@ public class GeminiService {
 
                             📊 RESULTADO DE CONSULTA SQL A LA BASE DE DATOS (en tiempo real):
 
-                            Query ejecutada: SELECT * FROM ai_predictions JOIN customers ORDER BY probabilidad_fuga DESC LIMIT 1
+                            Query ejecutada: SELECT * FROM customer_latest_prediction JOIN customers ORDER BY probabilidad_fuga DESC LIMIT 1
 
                             CLIENTE DE MAYOR RIESGO HOY:
                             - Nombre: %s
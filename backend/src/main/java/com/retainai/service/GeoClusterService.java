@@ -0,0 +1,328 @@
+package com.retainai.service;
+
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.GeoClusterDto;
+import com.retainai.dto.HeatmapPointDto;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.AiPrediction;
+import com.retainai.repository.HeatmapRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🗺️ Agregación espacial del mapa por niveles de zoom (pirámide quadtree)
+ *
+ * En vez de mandar cada cliente al navegador, el mapa pide las celdas de un
+ * zoom y un bounding box. Las celdas son las de la rejilla de teselas Web
+ * Mercator (las de Mapbox / Leaflet) subdividida en 4×4: unos 64 px de lado
+ * en pantalla a cualquier zoom, así que la respuesta está acotada por el
+ * tamaño del viewport y no por el número de clientes.
+ *
+ * Precálculo: se recorren los clientes una vez (HeatmapRepository, en
+ * streaming) acumulando en el nivel más fino, y cada nivel superior se
+ * obtiene sumando los 4 hijos de cada celda. Todas las celdas de todos los
+ * niveles quedan como GeoClusterDto inmutables: una consulta solo filtra y
+ * copia.
+ *
+ * Se reconstruye al arrancar, cada app.geo.clusters.refresh-interval y, como
+ * mucho cada app.geo.clusters.rebuild-delay, después de escrituras de
+ * predicciones o clientes.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GeoClusterService {
+
+    // 4×4 celdas por tesela de 256 px
+    private static final int CELL_BITS = 2;
+    private static final double MAX_MERCATOR_LAT = 85.05112878;
+
+    private final HeatmapRepository heatmapRepository;
+    private final BackgroundRefresher backgroundRefresher;
+
+    @Value("${app.geo.clusters.max-zoom:14}")
+    private int maxZoom;
+
+    // Índice = zoom; celdas por clave (x << nivel) | y
+    private volatile List<Map<Long, GeoClusterDto>> pyramid;
+    private volatile LocalDateTime builtAt;
+    // Se incrementa en cada reconstrucción (versiona lo que se derive de la pirámide)
+    private volatile long version;
+    private volatile long buildMillis;
+
+    @Value("${app.geo.clusters.refresh-interval:PT30M}")
+    private Duration refreshInterval;
+
+    @Value("${app.geo.clusters.rebuild-delay:PT30S}")
+    private Duration rebuildDelay;
+
+    // 🔄 Reconstrucción en segundo plano (al arrancar, periódica y tras escrituras)
+    private BackgroundRefresher.Task rebuildTask;
+
+    @PostConstruct
+    void init() {
+        rebuildTask = backgroundRefresher.register("geo-cluster-rebuild", this::rebuild)
+                .every(refreshInterval)
+                .checkDirtyEvery(rebuildDelay);
+    }
+
+    /**
+     * Celdas de un zoom dentro del bounding box (todo el mapa si algún
+     * límite es null). Por encima de app.geo.clusters.max-zoom se usa el
+     * nivel más fino.
+     */
+    public List<GeoClusterDto> clusters(int zoom, Double minLat, Double minLng, Double maxLat, Double maxLng) {
+        if (zoom < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "zoom debe ser >= 0");
+        }
+        List<Map<Long, GeoClusterDto>> levels = pyramid();
+        int z = Math.min(zoom, maxZoom);
+        Map<Long, GeoClusterDto> cells = levels.get(z);
+        int level = z + CELL_BITS;
+
+        if (minLat == null || minLng == null || maxLat == null || maxLng == null) {
+            return new ArrayList<>(cells.values());
+        }
+
+        long minX = cellX(minLng, level);
+        long maxX = cellX(maxLng, level);
+        long minY = cellY(maxLat, level); // y crece hacia el sur
+        long maxY = cellY(minLat, level);
+
+        List<GeoClusterDto> result = new ArrayList<>();
+        long rangeSize = (maxX - minX + 1) * (maxY - minY + 1);
+        if (minX <= maxX && rangeSize < cells.size()) {
+            // Viewport pequeño respecto al nivel: se buscan sus claves
+            for (long x = minX; x <= maxX; x++) {
+                for (long y = minY; y <= maxY; y++) {
+                    GeoClusterDto cell = cells.get(key(x, y, level));
+                    if (cell != null) {
+                        result.add(cell);
+                    }
+                }
+            }
+        } else {
+            long mask = (1L << level) - 1;
+            for (Map.Entry<Long, GeoClusterDto> entry : cells.entrySet()) {
+                long x = entry.getKey() >>> level;
+                long y = entry.getKey() & mask;
+                boolean insideX = minX <= maxX ? x >= minX && x <= maxX : x >= minX || x <= maxX; // antimeridiano
+                if (insideX && y >= minY && y <= maxY) {
+                    result.add(entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Versión de la pirámide actual (cambia con cada reconstrucción)
+     */
+    public long version() {
+        pyramid();
+        return version;
+    }
+
+    /**
+     * Recalcula la pirámide desde la BD y la sustituye
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        int finest = maxZoom + CELL_BITS;
+
+        Map<Long, CellAccumulator> leaves = new HashMap<>();
+        long points;
+        try {
+            points = heatmapRepository.streamPoints(null, point -> accumulate(leaves, point, finest));
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo recalcular la agregación del mapa: {}", e.getMessage());
+            return;
+        }
+
+        List<Map<Long, GeoClusterDto>> levels = new ArrayList<>(maxZoom + 1);
+        Map<Long, CellAccumulator> current = leaves;
+        for (int z = maxZoom; z >= 0; z--) {
+            int level = z + CELL_BITS;
+            levels.add(0, freeze(current, level));
+            if (z > 0) {
+                current = parents(current, level);
+            }
+        }
+
+        pyramid = List.copyOf(levels);
+        version++;
+        builtAt = LocalDateTime.now();
+        buildMillis = System.currentTimeMillis() - start;
+        log.info("🗺️ Agregación del mapa: {} clientes, {} celdas en el nivel más fino, {} ms",
+                points, leaves.size(), buildMillis);
+    }
+
+    /**
+     * Encola una reconstrucción en segundo plano (no bloquea al llamador)
+     */
+    public void requestRebuild() {
+        rebuildTask.request();
+    }
+
+    /**
+     * Predicciones o clientes nuevos: se marca para reconstruir (agrupa las
+     * escrituras de un job en una sola reconstrucción)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPredictionsWritten(PredictionsWrittenEvent event) {
+        rebuildTask.markDirty();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        rebuildTask.markDirty();
+    }
+
+    /**
+     * Estado para el endpoint: niveles, celdas por nivel y última reconstrucción
+     */
+    public Map<String, Object> status() {
+        List<Map<Long, GeoClusterDto>> levels = pyramid;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("maxZoom", maxZoom);
+        status.put("cellsPerZoom", levels == null ? null : levels.stream().map(Map::size).toList());
+        status.put("builtAt", builtAt);
+        status.put("buildMillis", buildMillis);
+        status.put("stale", rebuildTask.isDirty());
+        return status;
+    }
+
+    private List<Map<Long, GeoClusterDto>> pyramid() {
+        if (pyramid == null) {
+            rebuild();
+        }
+        List<Map<Long, GeoClusterDto>> levels = pyramid;
+        if (levels == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Agregación del mapa no disponible");
+        }
+        return levels;
+    }
+
+    private static void accumulate(Map<Long, CellAccumulator> leaves, HeatmapPointDto point, int level) {
+        if (point.getLatitude() == null || point.getLongitude() == null) {
+            return;
+        }
+        long key = key(cellX(point.getLongitude(), level), cellY(point.getLatitude(), level), level);
+        leaves.computeIfAbsent(key, k -> new CellAccumulator()).add(point);
+    }
+
+    private static Map<Long, CellAccumulator> parents(Map<Long, CellAccumulator> children, int level) {
+        Map<Long, CellAccumulator> parents = new HashMap<>();
+        long mask = (1L << level) - 1;
+        for (Map.Entry<Long, CellAccumulator> entry : children.entrySet()) {
+            long x = entry.getKey() >>> level;
+            long y = entry.getKey() & mask;
+            parents.computeIfAbsent(key(x >>> 1, y >>> 1, level - 1), k -> new CellAccumulator())
+                    .merge(entry.getValue());
+        }
+        return parents;
+    }
+
+    private static Map<Long, GeoClusterDto> freeze(Map<Long, CellAccumulator> cells, int level) {
+        Map<Long, GeoClusterDto> frozen = new HashMap<>(cells.size() * 2);
+        long mask = (1L << level) - 1;
+        for (Map.Entry<Long, CellAccumulator> entry : cells.entrySet()) {
+            String cellId = level + "/" + (entry.getKey() >>> level) + "/" + (entry.getKey() & mask);
+            frozen.put(entry.getKey(), entry.getValue().toDto(cellId));
+        }
+        return Map.copyOf(frozen);
+    }
+
+    private static long key(long x, long y, int level) {
+        return (x << level) | y;
+    }
+
+    static long cellX(double lng, int level) {
+        double n = 1L << level;
+        long x = (long) Math.floor((lng + 180.0) / 360.0 * n);
+        return Math.max(0, Math.min((long) n - 1, x));
+    }
+
+    static long cellY(double lat, int level) {
+        double n = 1L << level;
+        double latRad = Math.toRadians(Math.max(-MAX_MERCATOR_LAT, Math.min(MAX_MERCATOR_LAT, lat)));
+        long y = (long) Math.floor((1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * n);
+        return Math.max(0, Math.min((long) n - 1, y));
+    }
+
+    /**
+     * Sumas de una celda mientras se construye la pirámide
+     */
+    private static final class CellAccumulator {
+        private long count;
+        private double sumLat;
+        private double sumLng;
+        private long withPrediction;
+        private double sumProbability;
+        private double revenueAtRisk;
+        private long low;
+        private long medium;
+        private long high;
+
+        void add(HeatmapPointDto point) {
+            count++;
+            sumLat += point.getLatitude();
+            sumLng += point.getLongitude();
+            Double probability = point.getChurnProbability();
+            if (probability == null) {
+                return;
+            }
+            withPrediction++;
+            sumProbability += probability;
+            if (point.getCargoMensual() != null) {
+                revenueAtRisk += point.getCargoMensual() * probability;
+            }
+            switch (AiPrediction.riskLevelFor(probability)) {
+                case "Alto" -> high++;
+                case "Medio" -> medium++;
+                default -> low++;
+            }
+        }
+
+        void merge(CellAccumulator other) {
+            count += other.count;
+            sumLat += other.sumLat;
+            sumLng += other.sumLng;
+            withPrediction += other.withPrediction;
+            sumProbability += other.sumProbability;
+            revenueAtRisk += other.revenueAtRisk;
+            low += other.low;
+            medium += other.medium;
+            high += other.high;
+        }
+
+        GeoClusterDto toDto(String cellId) {
+            String dominant = null;
+            if (withPrediction > 0) {
+                dominant = high >= medium && high >= low ? "High" : medium >= low ? "Medium" : "Low";
+            }
+            return new GeoClusterDto(
+                    cellId,
+                    sumLat / count,
+                    sumLng / count,
+                    count,
+                    withPrediction > 0 ? sumProbability / withPrediction : null,
+                    Math.round(revenueAtRisk * 100.0) / 100.0,
+                    dominant);
+        }
+    }
+}
@@ -1,22 +1,28 @@
 package com.retainai.service;
 
+import com.retainai.dto.CustomerDataChangedEvent;
 import com.retainai.dto.GeoCustomerDto;
 import com.retainai.model.AiPrediction;
 import com.retainai.model.Customer;
 import com.retainai.repository.CustomerRepository;
-import com.retainai.repository.PredictionRepository;
+import com.retainai.repository.PredictionWriter;
 import com.retainai.util.NyRealData;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -24,13 +30,24 @@ import java.util.Map;
 import java.util.Random;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class GeoLocationService {
 
     private final CustomerRepository customerRepository;
-    private final PredictionRepository predictionRepository;
+    private final PredictionWriter predictionWriter;
+    private final PredictionCacheService predictionCacheService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
     private final Random random = new Random();
 
+    // Clientes por bloque (una transacción corta por bloque)
+    @Value("${app.geo.populate.chunk-size:1000}")
+    private int chunkSize;
+
+    private volatile LocationCatalog catalog;
+
     // 🎯 ZONAS ESTRATÉGICAS (Epicentros de la historia)
     private static final double ZONE_BRONX_LAT = 40.8256;
     private static final double ZONE_BRONX_LNG = -73.9250;
@@ -41,133 +58,248 @@ public class GeoLocationService {
     private static final double ZONE_HIPSTER_LAT = 40.7145;
     private static final double ZONE_HIPSTER_LNG = -73.9553;
 
-    public GeoLocationService(CustomerRepository customerRepository, PredictionRepository predictionRepository) {
+    public GeoLocationService(CustomerRepository customerRepository, PredictionWriter predictionWriter,
+            PredictionCacheService predictionCacheService, JdbcTemplate jdbcTemplate,
+            ApplicationEventPublisher eventPublisher, PlatformTransactionManager transactionManager) {
         this.customerRepository = customerRepository;
-        this.predictionRepository = predictionRepository;
+        this.predictionWriter = predictionWriter;
+        this.predictionCacheService = predictionCacheService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
-    private static class LocationData {
-        String borough;
-        String name;
-        double lat;
-        double lng;
-
-        public LocationData(String borough, String name, double lat, double lng) {
-            this.borough = borough;
-            this.name = name;
-            this.lat = lat;
-            this.lng = lng;
+    /**
+     * Resultado de un bloque de populateChunk
+     *
+     * @param lastCustomerId último id leído (null si no quedaban clientes)
+     * @param updated clientes con coordenadas y predicción nuevas
+     * @param skipped clientes fuera de Nueva York o sin ubicaciones disponibles
+     */
+    public record CoordinateChunk(String lastCustomerId, int updated, int skipped) {
+
+        public boolean isEmpty() {
+            return lastCustomerId == null;
         }
     }
 
     /**
-     * Carga ubicaciones desde CSV y las asigna a los clientes
+     * 📂 Ubicaciones del CSV por borough en arrays paralelos (se parsea una
+     * sola vez por proceso)
      */
-    @Transactional
-    public int populateAllCoordinates() {
-        List<Customer> allCustomers = customerRepository.findAll();
-        int updatedCount = 0;
-
-        // 1. Cargar datos del CSV
-        Map<String, List<LocationData>> boroughLocations = loadLocationsFromCSV();
+    private static final class LocationCatalog {
+        private final Map<String, double[]> lat = new HashMap<>();
+        private final Map<String, double[]> lng = new HashMap<>();
+        private final Map<String, String[]> names = new HashMap<>();
+
+        int size(String borough) {
+            double[] values = lat.get(borough);
+            return values != null ? values.length : 0;
+        }
 
-        // Barajar las listas para asignación aleatoria
-        for (List<LocationData> list : boroughLocations.values()) {
-            Collections.shuffle(list);
+        int total() {
+            return lat.values().stream().mapToInt(values -> values.length).sum();
         }
+    }
 
-        // Indices para rastrear uso
-        Map<String, Integer> usageIndex = new HashMap<>();
+    /**
+     * Estado de una ejecución: orden aleatorio de las ubicaciones de cada
+     * borough (permutación de índices) y cuántas se han usado. Se comparte
+     * entre bloques para que las ubicaciones no se repitan hasta agotarse.
+     */
+    public final class CoordinateRun {
+        private final Map<String, int[]> order = new HashMap<>();
+        private final Map<String, Integer> used = new HashMap<>();
+
+        private CoordinateRun() {
+            for (Map.Entry<String, double[]> entry : catalog().lat.entrySet()) {
+                int[] permutation = new int[entry.getValue().length];
+                for (int i = 0; i < permutation.length; i++) {
+                    permutation[i] = i;
+                }
+                for (int i = permutation.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int tmp = permutation[i];
+                    permutation[i] = permutation[j];
+                    permutation[j] = tmp;
+                }
+                order.put(entry.getKey(), permutation);
+            }
+        }
 
-        for (Customer customer : allCustomers) {
-            String targetBorough = "MANHATTAN"; // Default
+        /**
+         * Siguiente ubicación del borough (vuelve a empezar si se acaban)
+         */
+        private int next(String borough) {
+            int[] permutation = order.get(borough);
+            int idx = used.getOrDefault(borough, 0);
+            used.put(borough, idx + 1);
+            return permutation[idx % permutation.length];
+        }
+    }
 
-            // Detectar borough preferido
-            if (customer.getBorough() != null && !customer.getBorough().isEmpty()) {
-                targetBorough = normalizeBorough(customer.getBorough());
-            } else if (customer.getCiudad() != null && customer.getCiudad().toLowerCase().contains("new york")) {
-                targetBorough = "MANHATTAN";
-            } else {
-                continue; // Skip si no es NY
+    /**
+     * Carga ubicaciones desde CSV y las asigna a TODOS los clientes, por
+     * bloques (cada uno en su transacción). Para ver el progreso usar el job
+     * POST /api/batch-jobs/populate-coordinates.
+     */
+    public int populateAllCoordinates() {
+        CoordinateRun run = startCoordinateRun();
+        String lastId = "";
+        int updatedCount = 0;
+        while (true) {
+            String afterId = lastId;
+            // Llamada interna: sin proxy, la transacción del bloque se abre aquí
+            CoordinateChunk chunk = transactionTemplate.execute(status -> populateChunk(run, afterId));
+            if (chunk.isEmpty()) {
+                break;
             }
+            lastId = chunk.lastCustomerId();
+            updatedCount += chunk.updated();
+            log.info("📍 Coordenadas: {} clientes actualizados (hasta {})", updatedCount, lastId);
+        }
 
-            // Obtener lista de ubicaciones disponibles
-            List<LocationData> available = boroughLocations.getOrDefault(targetBorough,
-                    boroughLocations.get("MANHATTAN"));
+        eventPublisher.publishEvent(new CustomerDataChangedEvent("populate-coordinates"));
+        log.info("✅ REAL DATA POBLADA: {} clientes con Nombres y Ubicaciones Reales.", updatedCount);
+        return updatedCount;
+    }
 
-            if (available == null || available.isEmpty())
-                continue;
+    public CoordinateRun startCoordinateRun() {
+        return new CoordinateRun();
+    }
 
-            // Obtener siguiente ubicación única
-            int idx = usageIndex.getOrDefault(targetBorough, 0);
-            LocationData loc = available.get(idx % available.size()); // Loop si se acaban (pero tenemos 17k para 9k
-                                                                      // clientes)
-            usageIndex.put(targetBorough, idx + 1);
+    /**
+     * Un bloque keyset de clientes (id > afterCustomerId): coordenadas,
+     * borough y nombre con un UPDATE por lotes y predicciones sintéticas con
+     * PredictionWriter.insertAll, todo en una transacción corta
+     */
+    @Transactional
+    public CoordinateChunk populateChunk(CoordinateRun run, String afterCustomerId) {
+        List<String[]> customers = jdbcTemplate.query(
+                "SELECT id, borough, ciudad FROM customers WHERE id > ? ORDER BY id LIMIT ?",
+                (rs, rowNum) -> new String[] { rs.getString(1), rs.getString(2), rs.getString(3) },
+                afterCustomerId, chunkSize);
+        if (customers.isEmpty()) {
+            return new CoordinateChunk(null, 0, 0);
+        }
 
-            // Asignar datos
-            customer.setLatitud(loc.lat);
-            customer.setLongitud(loc.lng);
-            customer.setBorough(loc.borough); // Normalizar nombre de borough
-            customer.setNombre(loc.name); // ✅ Nombre Real del Negocio
+        LocationCatalog locations = catalog();
+        List<Object[]> updates = new ArrayList<>(customers.size());
+        List<PredictionWriter.NewPrediction> predictions = new ArrayList<>(customers.size());
+        for (String[] customer : customers) {
+            String targetBorough; // Detectar borough preferido
+            if (customer[1] != null && !customer[1].isEmpty()) {
+                targetBorough = normalizeBorough(customer[1]);
+            } else if (customer[2] != null && customer[2].toLowerCase().contains("new york")) {
+                targetBorough = "MANHATTAN";
+            } else {
+                continue; // Skip si no es NY
+            }
+            if (locations.size(targetBorough) == 0) {
+                targetBorough = "MANHATTAN";
+                if (locations.size(targetBorough) == 0) {
+                    continue;
+                }
+            }
 
-            // Generar Predicción basada en nueva ubicación
-            generateAiPrediction(customer, loc.lat, loc.lng);
+            int loc = run.next(targetBorough);
+            double lat = locations.lat.get(targetBorough)[loc];
+            double lng = locations.lng.get(targetBorough)[loc];
+            // ✅ Nombre Real del Negocio y borough normalizado
+            updates.add(new Object[] { lat, lng, targetBorough, locations.names.get(targetBorough)[loc], customer[0] });
+            predictions.add(generateAiPrediction(customer[0], lat, lng));
+        }
 
-            updatedCount++;
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE customers SET latitud = ?, longitud = ?, borough = ?, nombre = ? WHERE id = ?",
+                    updates);
+            // Predicción basada en la nueva ubicación (+ proyección de última predicción)
+            predictionWriter.insertAll(predictions, LocalDateTime.now());
         }
+        String lastId = customers.get(customers.size() - 1)[0];
+        return new CoordinateChunk(lastId, updates.size(), customers.size() - updates.size());
+    }
 
-        customerRepository.saveAll(allCustomers);
-        System.out.println("✅ REAL DATA POBLADA: " + updatedCount + " clientes con Nombres y Ubicaciones Reales.");
-        return updatedCount;
+    private LocationCatalog catalog() {
+        LocationCatalog loaded = catalog;
+        if (loaded == null) {
+            synchronized (this) {
+                if (catalog == null) {
+                    catalog = loadLocationsFromCSV();
+                }
+                loaded = catalog;
+            }
+        }
+        return loaded;
     }
 
-    private Map<String, List<LocationData>> loadLocationsFromCSV() {
-        Map<String, List<LocationData>> map = new HashMap<>();
-        try {
-            ClassPathResource resource = new ClassPathResource("nyc_business_locations.csv");
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8));
-
-            String line;
-            boolean header = true;
-            while ((line = reader.readLine()) != null) {
-                if (header) {
-                    header = false;
+    private LocationCatalog loadLocationsFromCSV() {
+        Map<String, List<double[]>> coordinates = new HashMap<>();
+        Map<String, List<String>> names = new HashMap<>();
+        ClassPathResource resource = new ClassPathResource("nyc_business_locations.csv");
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+
+            String line = reader.readLine(); // Cabecera
+            while (line != null && (line = reader.readLine()) != null) {
+                // CSV columns: Address Borough, Business Name, License Type, Latitude, Longitude
+                List<String> parts = splitCsvLine(line);
+                if (parts.size() < 5) {
                     continue;
                 }
-
-                // CSV columns: Address Borough, Business Name, License Type, Latitude,
-                // Longitude
-                // Usamos split simple por coma (asumiendo que los nombres no tienen comas o
-                // están entre comillas,
-                // pero nuestro script python usó to_csv standard. Para mayor robustez en java
-                // simple:)
-                String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                if (parts.length >= 5) {
-                    try {
-                        String borough = parts[0].replace("\"", "").trim();
-                        String name = parts[1].replace("\"", "").trim() + " (" + parts[2].replace("\"", "").trim()
-                                + ")"; // Nombre + Tipo
-                        double lat = Double.parseDouble(parts[3]);
-                        double lng = Double.parseDouble(parts[4]);
-
-                        String normalizedBorough = normalizeBorough(borough);
-
-                        map.putIfAbsent(normalizedBorough, new ArrayList<>());
-                        map.get(normalizedBorough).add(new LocationData(normalizedBorough, name, lat, lng));
-                    } catch (Exception e) {
-                        // Skip bad lines
-                    }
+                try {
+                    double lat = Double.parseDouble(parts.get(3));
+                    double lng = Double.parseDouble(parts.get(4));
+                    String borough = normalizeBorough(parts.get(0));
+                    coordinates.computeIfAbsent(borough, key -> new ArrayList<>()).add(new double[] { lat, lng });
+                    names.computeIfAbsent(borough, key -> new ArrayList<>())
+                            .add(parts.get(1) + " (" + parts.get(2) + ")"); // Nombre + Tipo
+                } catch (NumberFormatException e) {
+                    // Skip bad lines
                 }
             }
-            System.out.println(
-                    "📂 CSV Cargado. Ubicaciones disponibles: " + map.values().stream().mapToInt(List::size).sum());
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("❌ Error cargando CSV de ubicaciones: " + e.getMessage());
+            log.error("❌ Error cargando CSV de ubicaciones: {}", e.getMessage());
+        }
+
+        LocationCatalog catalog = new LocationCatalog();
+        for (Map.Entry<String, List<double[]>> entry : coordinates.entrySet()) {
+            List<double[]> points = entry.getValue();
+            double[] lat = new double[points.size()];
+            double[] lng = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                lat[i] = points.get(i)[0];
+                lng[i] = points.get(i)[1];
+            }
+            catalog.lat.put(entry.getKey(), lat);
+            catalog.lng.put(entry.getKey(), lng);
+            catalog.names.put(entry.getKey(), names.get(entry.getKey()).toArray(String[]::new));
         }
-        return map;
+        log.info("📂 CSV Cargado. Ubicaciones disponibles: {}", catalog.total());
+        return catalog;
+    }
+
+    /**
+     * Separa una línea CSV por comas respetando comillas (sin regex)
+     */
+    private static List<String> splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
     }
 
     private String normalizeBorough(String input) {
@@ -193,47 +325,44 @@ public class GeoLocationService {
      * se llama específicamente,
      * o podemos deprecarlo. Lo dejaré minimalista.
      */
-    @Transactional
     public int populateManhattanCoordinates() {
         return populateAllCoordinates(); // Ahora todo usa la lógica unificada de alta calidad
     }
 
-    private void generateAiPrediction(Customer c, double lat, double lng) {
+    private PredictionWriter.NewPrediction generateAiPrediction(String customerId, double lat, double lng) {
         // Calcular distancias a los epicentros
         double distToBronx = Math.sqrt(Math.pow(lat - ZONE_BRONX_LAT, 2) + Math.pow(lng - ZONE_BRONX_LNG, 2));
         double distToRich = Math.sqrt(Math.pow(lat - ZONE_RICH_LAT, 2) + Math.pow(lng - ZONE_RICH_LNG, 2));
         double distToHipster = Math.sqrt(Math.pow(lat - ZONE_HIPSTER_LAT, 2) + Math.pow(lng - ZONE_HIPSTER_LNG, 2));
 
-        AiPrediction prediction = new AiPrediction();
-        prediction.setCustomer(c);
-        prediction.setFechaAnalisis(LocalDateTime.now());
+        double probability;
+        String motivo;
 
         // 🔴 EL BRONX -> INFRAESTRUCTURA FALLIDA -> RIESGO ALTO
         if (distToBronx < 0.05) {
-            prediction.setProbabilidadFuga(0.85 + (random.nextDouble() * 0.14)); // 85% - 99%
-            prediction.setMotivoPrincipal("Fallas Recurrentes de Red");
+            probability = 0.85 + (random.nextDouble() * 0.14); // 85% - 99%
+            motivo = "Fallas Recurrentes de Red";
         }
 
         // 🟢 UPPER EAST SIDE -> ZONA VIP -> RIESGO BAJO
         else if (distToRich < 0.03) {
-            prediction.setProbabilidadFuga(0.01 + (random.nextDouble() * 0.10)); // 1% - 11%
-            prediction.setMotivoPrincipal("Cliente Satisfecho");
+            probability = 0.01 + (random.nextDouble() * 0.10); // 1% - 11%
+            motivo = "Cliente Satisfecho";
         }
 
         // 🟠 WILLIAMSBURG -> COMPETENCIA -> RIESGO MEDIO
         else if (distToHipster < 0.03) {
-            prediction.setProbabilidadFuga(0.40 + (random.nextDouble() * 0.25)); // 40% - 65%
-            prediction.setMotivoPrincipal("Oferta Competencia Agresiva");
+            probability = 0.40 + (random.nextDouble() * 0.25); // 40% - 65%
+            motivo = "Oferta Competencia Agresiva";
         }
 
         // ⚪ RESTO DE LA CIUDAD -> RIESGO BAJO/NORMAL
         else {
-            prediction.setProbabilidadFuga(random.nextDouble() * 0.30); // 0% - 30%
-            prediction.setMotivoPrincipal("Sin Riesgo Aparente");
+            probability = random.nextDouble() * 0.30; // 0% - 30%
+            motivo = "Sin Riesgo Aparente";
         }
 
-        // Guardamos la predicción en la base de datos
-        predictionRepository.save(prediction);
+        return new PredictionWriter.NewPrediction(customerId, probability, motivo, null);
     }
 
     // --- Mapeo para el Frontend (ULTRA-OPTIMIZADO) ---
@@ -250,22 +379,19 @@ public class GeoLocationService {
                 .map(GeoCustomerDto::id)
                 .collect(Collectors.toList());
 
-        List<AiPrediction> predictions = predictionRepository.findLatestByCustomerIds(customerIds);
-
-        // Crear mapa de customerID -> risk calculado
-        var riskMap = predictions.stream()
+        // 📌 Última predicción (multi-get: caché + lectura por PK para los fallos)
+        var riskMap = predictionCacheService.getPredictions(customerIds).entrySet().stream()
+                .filter(e -> e.getValue().getProbability() != null)
                 .collect(Collectors.toMap(
-                        p -> p.getCustomer().getId(),
-                        p -> {
-                            double prob = p.getProbabilidadFuga();
+                        Map.Entry::getKey,
+                        e -> {
+                            double prob = e.getValue().getProbability();
                             if (prob > 0.70)
                                 return "High";
                             if (prob > 0.35)
                                 return "Medium";
                             return "Low";
-                        },
-                        (r1, r2) -> r1 // Si hay duplicados, tomar el primero
-                ));
+                        }));
 
         // Reemplazar "Low" default con el risk real
         return lightDtos.stream()
@@ -1,5 +1,6 @@
 package com.retainai.service;
 
+import com.retainai.dto.BiCubeSliceRow;
 import com.retainai.dto.ContractAnalysisDTO;
 import com.retainai.dto.CustomerSegmentDTO;
 import com.retainai.dto.PredictionResponseDto;
@@ -17,6 +18,7 @@ import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,6 +29,7 @@ public class InsightsService {
     private final CustomerRepository customerRepository;
     private final PythonIntegrationService pythonService;
     private final PredictionCacheService predictionCacheService;
+    private final BiCubeService biCubeService;
 
     /**
      * Genera insights prioritarios analizando CLIENTES ACTIVOS en riesgo de
@@ -51,6 +54,17 @@ public class InsightsService {
 
         log.info("📋 Encontrados {} candidatos de alto riesgo", highRiskCustomers.size());
 
+        // ⚡ Predicciones de todos los candidatos de una vez (caché + una lectura
+        // por PK para los fallos), en lugar de una consulta por cliente
+        Map<String, PredictionResponseDto> predictions;
+        try {
+            predictions = predictionCacheService.getPredictions(
+                    highRiskCustomers.stream().map(Customer::getId).toList());
+        } catch (Exception mlError) {
+            log.warn("⚠️ Error leyendo predicciones de candidatos: {}", mlError.getMessage());
+            return List.of();
+        }
+
         // 2. Analizar cada cliente con IA (con caché y early break)
         List<PriorityInsightDto> insights = new ArrayList<>();
         int processedCount = 0;
@@ -78,15 +92,7 @@ public class InsightsService {
                     continue; // Skip clientes que ya abandonaron
                 }
 
-                // Llamar a IA para análisis (CON CACHÉ)
-                PredictionResponseDto prediction = null;
-                try {
-                    prediction = predictionCacheService.getPrediction(customer.getId());
-                } catch (Exception mlError) {
-                    // Si falla ML, continuar con siguiente cliente en lugar de romper todo
-                    log.warn("⚠️ Error ML para cliente {}: {}", customer.getId(), mlError.getMessage());
-                    continue;
-                }
+                PredictionResponseDto prediction = predictions.get(customer.getId());
 
                 // Solo incluir si el riesgo es Medio o Alto (en ESPAÑOL, como está en BD)
                 if (prediction != null &&
@@ -177,55 +183,54 @@ public class InsightsService {
 
     /**
      * Obtiene análisis de contratos (Mensual vs Anual vs Bienal)
+     * Corte del cubo BI por contrato (sin consultar MySQL)
      */
     public List<ContractAnalysisDTO> getContractAnalysis() {
-        log.info("📊 Obteniendo análisis de contratos desde MySQL");
+        log.debug("📊 Obteniendo análisis de contratos desde el cubo BI");
 
-        List<Object[]> results = customerRepository.getContractAnalysis();
-
-        return results.stream()
+        return biCubeService.slice(List.of(BiCubeService.Dimension.CONTRACT), Map.of()).stream()
                 .map(row -> ContractAnalysisDTO.builder()
-                        .contractType((String) row[0])
-                        .customers(((Number) row[1]).intValue())
-                        .churnRate(((Number) row[2]).doubleValue())
-                        .avgRevenue(((Number) row[3]).doubleValue())
+                        .contractType((String) row.dimensions().get("contract"))
+                        .customers((int) row.customers())
+                        .churnRate(row.churnRate())
+                        .avgRevenue(row.avgMonthlyFee() != null ? row.avgMonthlyFee() : 0.0)
                         .build())
                 .collect(Collectors.toList());
     }
 
     /**
      * Obtiene análisis de soporte por tickets
+     * Corte del cubo BI por rango de tickets ('0', '1-2', '3-5', '6+')
      */
     public List<SupportAnalysisDTO> getSupportAnalysis() {
-        log.info("🎫 Obteniendo análisis de soporte desde MySQL");
-
-        List<Object[]> results = customerRepository.getSupportAnalysis();
+        log.debug("🎫 Obteniendo análisis de soporte desde el cubo BI");
 
-        return results.stream()
+        return biCubeService.slice(List.of(BiCubeService.Dimension.TICKETS), Map.of()).stream()
                 .map(row -> SupportAnalysisDTO.builder()
-                        .ticketRange((String) row[0])
-                        .customers(((Number) row[1]).intValue())
-                        .churnRate(((Number) row[2]).doubleValue())
+                        .ticketRange((String) row.dimensions().get("tickets"))
+                        .customers((int) row.customers())
+                        .churnRate(row.churnRate())
                         .build())
                 .collect(Collectors.toList());
     }
 
     /**
      * Obtiene segmentación de clientes por revenue y riesgo
+     * Corte del cubo BI por segmento, ordenado por ingreso medio
      */
     public List<CustomerSegmentDTO> getCustomerSegmentation() {
-        log.info("🎯 Obteniendo segmentación de clientes desde MySQL");
-
-        List<Object[]> results = customerRepository.getCustomerSegmentation();
+        log.debug("🎯 Obteniendo segmentación de clientes desde el cubo BI");
 
-        return results.stream()
+        return biCubeService.slice(List.of(BiCubeService.Dimension.SEGMENT), Map.of()).stream()
+                .sorted(Comparator.comparing(BiCubeSliceRow::avgTotalRevenue,
+                        Comparator.nullsFirst(Comparator.naturalOrder())))
                 .map(row -> {
-                    String segment = (String) row[0];
+                    String segment = (String) row.dimensions().get("segment");
                     return CustomerSegmentDTO.builder()
                             .segment(segment)
-                            .customers(((Number) row[1]).intValue())
-                            .avgRevenue(((Number) row[2]).doubleValue())
-                            .churnRate(((Number) row[3]).doubleValue())
+                            .customers((int) row.customers())
+                            .avgRevenue(row.avgTotalRevenue() != null ? row.avgTotalRevenue() : 0.0)
+                            .churnRate(row.churnRate())
                             .riskLevel(getRiskLevel(segment))
                             .strategy(getStrategy(segment))
                             .build();
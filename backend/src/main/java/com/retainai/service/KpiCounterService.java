@@ -0,0 +1,249 @@
+package com.retainai.service;
+
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.KpiCounts;
+import com.retainai.dto.KpiDeltaEvent;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.AiPrediction;
+import com.retainai.repository.KpiCounterRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 🔢 Contadores en memoria de las alertas críticas
+ *
+ * AlertsService lee de aquí en vez de lanzar tres COUNT por petición. Los
+ * contadores se actualizan con cada escritura:
+ * - predicciones (PredictionsWrittenEvent): el evento trae el nivel anterior
+ *   de cada cliente; solo los que entran o salen de Alto/Medio se cruzan con
+ *   subscriptions para saber si su contrato es mensual
+ * - importación CSV (KpiDeltaEvent): el importador calcula la variación por
+ *   lote comparando con el estado previo de cada cliente
+ * - limpieza de la BD: reset() a cero
+ *
+ * La reconciliación (al arrancar, cada app.kpi.reconcile-interval y cuando
+ * una escritura no se puede calcular, p. ej. el backfill de la última
+ * predicción) recuenta desde la BD y corrige la deriva, que queda en el log
+ * y en GET /api/dashboard/kpi-counters. Si llega una variación mientras se
+ * recuenta no se sabe si el recuento ya la incluye: se descarta el resultado
+ * (salvo en la carga inicial) y se encola otra reconciliación.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class KpiCounterService {
+
+    private static final Set<String> AT_RISK = Set.copyOf(KpiCounterRepository.AT_RISK_LEVELS);
+
+    private final KpiCounterRepository kpiCounterRepository;
+    private final BackgroundRefresher backgroundRefresher;
+
+    @Value("${app.kpi.reconcile-interval:PT10M}")
+    private Duration reconcileInterval;
+
+    // Una reconciliación a la vez (programada, en cola o desde current())
+    private final Object reconcileLock = new Object();
+
+    private KpiCounts counts = KpiCounts.ZERO;
+    private boolean initialized;
+
+    // Recuento en curso y si ha llegado alguna variación durante él
+    private boolean reconciling;
+    private boolean changedDuringReconcile;
+
+    private LocalDateTime lastReconciledAt;
+    private KpiCounts lastDrift = KpiCounts.ZERO;
+    private long reconciliations;
+    private long incrementalUpdates;
+
+    // 🔄 Reconciliación en segundo plano (al arrancar, periódica y bajo demanda)
+    private BackgroundRefresher.Task reconcileTask;
+
+    @PostConstruct
+    void init() {
+        reconcileTask = backgroundRefresher.register("kpi-reconcile", this::reconcile).every(reconcileInterval);
+    }
+
+    /**
+     * Valores actuales. Solo la primera llamada antes de la carga inicial va a la BD.
+     */
+    public KpiCounts current() {
+        synchronized (this) {
+            if (initialized) {
+                return counts;
+            }
+        }
+        reconcile();
+        synchronized (this) {
+            return counts;
+        }
+    }
+
+    /**
+     * Recuenta desde la BD y sustituye los contadores, registrando la deriva
+     */
+    public void reconcile() {
+        synchronized (reconcileLock) {
+            reconcileExclusively();
+        }
+    }
+
+    private void reconcileExclusively() {
+        synchronized (this) {
+            reconciling = true;
+            changedDuringReconcile = false;
+        }
+        KpiCounts fromDb;
+        try {
+            fromDb = kpiCounterRepository.countAll();
+        } catch (Exception e) {
+            synchronized (this) {
+                reconciling = false;
+            }
+            log.warn("⚠️ No se pudieron reconciliar los contadores de alertas: {}", e.getMessage());
+            return;
+        }
+
+        boolean retry;
+        synchronized (this) {
+            reconciling = false;
+            // El recuento puede incluir o no la variación: se conservan los
+            // incrementales y se repite (en la carga inicial no hay otros)
+            retry = changedDuringReconcile;
+            if (!retry || !initialized) {
+                if (initialized) {
+                    lastDrift = fromDb.minus(counts);
+                    if (!lastDrift.isZero()) {
+                        log.info("🔢 Contadores de alertas corregidos (deriva {})", lastDrift);
+                    }
+                }
+                counts = fromDb;
+                initialized = true;
+                lastReconciledAt = LocalDateTime.now();
+                reconciliations++;
+            }
+        }
+        if (retry) {
+            log.debug("🔢 Variaciones durante la reconciliación: se repite");
+            requestReconcile();
+        }
+    }
+
+    /**
+     * Encola una reconciliación en segundo plano (no bloquea al llamador)
+     */
+    public void requestReconcile() {
+        reconcileTask.request();
+    }
+
+    /**
+     * BD vaciada (después del commit): todos los contadores a cero
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        if (event.isDatabaseCleanup()) {
+            reset();
+        }
+    }
+
+    private synchronized void reset() {
+        counts = KpiCounts.ZERO;
+        initialized = true;
+        if (reconciling) {
+            changedDuringReconcile = true;
+        }
+    }
+
+    /**
+     * Predicciones nuevas (después del commit): contratos mensuales en riesgo
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPredictionsWritten(PredictionsWrittenEvent event) {
+        if (!event.hasProbabilities() || event.previousRiskLevels() == null) {
+            requestReconcile();
+            return;
+        }
+
+        // Solo importan los clientes que entran o salen de Alto/Medio
+        List<String> entering = new ArrayList<>();
+        List<String> leaving = new ArrayList<>();
+        List<String> customerIds = event.customerIds();
+        for (int i = 0; i < customerIds.size(); i++) {
+            boolean wasAtRisk = AT_RISK.contains(event.previousRiskLevels().get(i));
+            Double probability = event.probabilities().get(i);
+            boolean isAtRisk = probability != null && AT_RISK.contains(AiPrediction.riskLevelFor(probability));
+            if (isAtRisk && !wasAtRisk) {
+                entering.add(customerIds.get(i));
+            } else if (wasAtRisk && !isAtRisk) {
+                leaving.add(customerIds.get(i));
+            }
+        }
+        if (entering.isEmpty() && leaving.isEmpty()) {
+            return;
+        }
+
+        List<String> changed = new ArrayList<>(entering);
+        changed.addAll(leaving);
+        Set<String> monthly;
+        try {
+            monthly = kpiCounterRepository.findMonthlyContracts(changed);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo actualizar el contador de contratos mensuales: {}", e.getMessage());
+            requestReconcile();
+            return;
+        }
+        long delta = entering.stream().filter(monthly::contains).count()
+                - leaving.stream().filter(monthly::contains).count();
+        apply(new KpiCounts(0, delta, 0));
+    }
+
+    /**
+     * Clientes importados (después del commit)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onKpiDelta(KpiDeltaEvent event) {
+        apply(event.delta());
+        if (event.reconcile()) {
+            requestReconcile();
+        }
+    }
+
+    /**
+     * Estado para el endpoint: contadores, última reconciliación y su deriva
+     */
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("initialized", initialized);
+        status.put("counts", counts);
+        status.put("lastReconciledAt", lastReconciledAt);
+        status.put("lastDrift", lastDrift);
+        status.put("reconciliations", reconciliations);
+        status.put("incrementalUpdates", incrementalUpdates);
+        return status;
+    }
+
+    private synchronized void apply(KpiCounts delta) {
+        if (delta.isZero()) {
+            return;
+        }
+        if (reconciling) {
+            changedDuringReconcile = true;
+        }
+        if (initialized) {
+            counts = counts.plus(delta);
+        }
+        incrementalUpdates++;
+    }
+}
@@ -0,0 +1,236 @@
+package com.retainai.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.retainai.config.CacheConfig;
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.GeoClusterDto;
+import com.retainai.dto.HeatmapPointDto;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.AiPrediction;
+import com.retainai.repository.HeatmapRepository;
+import com.retainai.util.MvtEncoder;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 🧱 Vector tiles (MVT) del mapa de churn: GET /api/geo/tiles/{z}/{x}/{y}
+ *
+ * - z >= app.geo.tiles.points-min-zoom: capa "customers", un punto por
+ *   cliente del tile (lectura por rango de idx_customers_lat_lng) con su
+ *   riesgo de la última predicción
+ * - z menor: capa "clusters" con las celdas de GeoClusterService de ese zoom
+ *   (un tile de la ciudad entera no lleva miles de puntos)
+ *
+ * Los tiles codificados se guardan en la caché mapTiles por z/x/y. Se
+ * renderizan fuera de la caché (getIfPresent / put) para no bloquear a otras
+ * lecturas durante la consulta y la codificación.
+ *
+ * Al escribirse predicciones se invalidan solo los tiles de puntos que
+ * contienen a esos clientes (todas las escalas, incluido el margen). El
+ * evento solo apunta los ids: la localización y la invalidación van en
+ * segundo plano (BackgroundRefresher), fuera del hilo que persiste el lote.
+ * Los de clusters llevan la versión de la pirámide en la clave y caducan
+ * solos cuando esta se reconstruye. Una importación o limpieza los vacía todos.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MapTileService {
+
+    // Margen (unidades sobre 4096) para que los marcadores del borde no se corten
+    private static final int BUFFER = 64;
+
+    // Clientes por consulta de coordenadas al invalidar
+    private static final int INVALIDATION_CHUNK = 1000;
+    // Con más clientes pendientes sale más barato vaciar la caché entera
+    private static final int INVALIDATE_ALL_THRESHOLD = 20_000;
+
+    private final HeatmapRepository heatmapRepository;
+    private final GeoClusterService geoClusterService;
+    private final CacheManager cacheManager;
+    private final BackgroundRefresher backgroundRefresher;
+
+    // Clientes con predicciones nuevas cuyos tiles aún no se han invalidado
+    private final Set<String> pendingInvalidations = ConcurrentHashMap.newKeySet();
+    // Cambia con cada invalidación: un tile renderizado antes no se guarda
+    private final AtomicLong invalidations = new AtomicLong();
+    private BackgroundRefresher.Task invalidationTask;
+
+    @Value("${app.geo.tiles.points-min-zoom:12}")
+    private int pointsMinZoom;
+
+    @Value("${app.geo.tiles.max-zoom:20}")
+    private int maxZoom;
+
+    @PostConstruct
+    void init() {
+        invalidationTask = backgroundRefresher.register("map-tile-invalidation", this::invalidatePending);
+    }
+
+    /**
+     * Tile codificado (protobuf MVT), desde la caché si está
+     */
+    public byte[] getTile(int z, long x, long y) {
+        if (z < 0 || z > maxZoom) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "z debe estar entre 0 y " + maxZoom);
+        }
+        long n = 1L << z;
+        if (x < 0 || x >= n || y < 0 || y >= n) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Tile fuera de rango: " + z + "/" + x + "/" + y);
+        }
+
+        String key = z >= pointsMinZoom
+                ? pointTileKey(z, x, y)
+                : "clusters/" + geoClusterService.version() + "/" + z + "/" + x + "/" + y;
+        Cache<Object, Object> tiles = tiles();
+        byte[] cached = (byte[]) tiles.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Sin compute de Caffeine: la consulta y la codificación no retienen su lock
+        long generation = invalidations.get();
+        byte[] tile = z >= pointsMinZoom ? renderPoints(z, x, y) : renderClusters(z, x, y);
+        if (invalidations.get() == generation) {
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Predicciones nuevas (después del commit): se apuntan los clientes y se
+     * invalidan sus tiles en segundo plano (el hilo que persiste no consulta nada)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPredictionsWritten(PredictionsWrittenEvent event) {
+        if (tiles().estimatedSize() == 0) {
+            invalidations.incrementAndGet(); // Ni siquiera un render en curso se guarda
+            return;
+        }
+        pendingInvalidations.addAll(event.customerIds());
+        invalidationTask.request();
+    }
+
+    /**
+     * Importaciones, limpiezas y jobs masivos: se descartan todos los tiles
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        invalidations.incrementAndGet();
+        pendingInvalidations.clear();
+        tiles().invalidateAll();
+    }
+
+    /**
+     * Fuera los tiles de puntos que contienen a los clientes pendientes
+     */
+    private void invalidatePending() {
+        List<String> customerIds = new ArrayList<>(pendingInvalidations);
+        if (customerIds.isEmpty()) {
+            return;
+        }
+        pendingInvalidations.removeAll(customerIds);
+        invalidations.incrementAndGet();
+
+        Cache<Object, Object> tiles = tiles();
+        if (customerIds.size() > INVALIDATE_ALL_THRESHOLD) {
+            tiles.invalidateAll();
+            return;
+        }
+        List<double[]> coordinates = new ArrayList<>(customerIds.size());
+        try {
+            for (int from = 0; from < customerIds.size(); from += INVALIDATION_CHUNK) {
+                coordinates.addAll(heatmapRepository.findCoordinates(
+                        customerIds.subList(from, Math.min(from + INVALIDATION_CHUNK, customerIds.size()))));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudieron localizar los tiles a invalidar, se vacía la caché: {}", e.getMessage());
+            tiles.invalidateAll();
+            return;
+        }
+
+        Set<String> keys = new HashSet<>();
+        double margin = (double) BUFFER / MvtEncoder.EXTENT;
+        for (double[] point : coordinates) {
+            double worldX = MvtEncoder.worldX(point[1]);
+            double worldY = MvtEncoder.worldY(point[0]);
+            for (int z = pointsMinZoom; z <= maxZoom; z++) {
+                double n = 1L << z;
+                // Tiles que lo contienen, incluido su margen
+                for (long x = (long) Math.floor(worldX * n - margin); x <= (long) Math.floor(worldX * n + margin); x++) {
+                    for (long y = (long) Math.floor(worldY * n - margin); y <= (long) Math.floor(worldY * n + margin); y++) {
+                        keys.add(pointTileKey(z, x, y));
+                    }
+                }
+            }
+        }
+        tiles.invalidateAll(keys);
+    }
+
+    private byte[] renderPoints(int z, long x, long y) {
+        double[] bounds = MvtEncoder.bounds(z, x, y, BUFFER);
+        MvtEncoder encoder = new MvtEncoder(z, x, y);
+        MvtEncoder.Layer layer = encoder.layer("customers");
+        heatmapRepository.streamPointsInBox(bounds[0], bounds[1], bounds[2], bounds[3], point -> {
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            attributes.put("id", point.getCustomerId());
+            attributes.put("risk", riskLabel(point));
+            attributes.put("probability", point.getChurnProbability());
+            attributes.put("monthlyFee", point.getCargoMensual());
+            attributes.put("borough", point.getBorough());
+            layer.addPoint(point.getLatitude(), point.getLongitude(), attributes);
+        });
+        return encoder.encode();
+    }
+
+    private byte[] renderClusters(int z, long x, long y) {
+        double[] bounds = MvtEncoder.bounds(z, x, y, BUFFER);
+        MvtEncoder encoder = new MvtEncoder(z, x, y);
+        MvtEncoder.Layer layer = encoder.layer("clusters");
+        for (GeoClusterDto cell : geoClusterService.clusters(z, bounds[0], bounds[1], bounds[2], bounds[3])) {
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            attributes.put("count", cell.count());
+            attributes.put("avgChurnProbability", cell.avgChurnProbability());
+            attributes.put("revenueAtRisk", cell.revenueAtRisk());
+            attributes.put("risk", cell.dominantRiskLevel());
+            layer.addPoint(cell.lat(), cell.lng(), attributes);
+        }
+        return encoder.encode();
+    }
+
+    private static String riskLabel(HeatmapPointDto point) {
+        if (point.getChurnProbability() == null) {
+            return null;
+        }
+        return switch (AiPrediction.riskLevelFor(point.getChurnProbability())) {
+            case "Alto" -> "High";
+            case "Medio" -> "Medium";
+            default -> "Low";
+        };
+    }
+
+    private static String pointTileKey(int z, long x, long y) {
+        return z + "/" + x + "/" + y;
+    }
+
+    private Cache<Object, Object> tiles() {
+        return ((CaffeineCache) cacheManager.getCache(CacheConfig.MAP_TILES)).getNativeCache();
+    }
+}
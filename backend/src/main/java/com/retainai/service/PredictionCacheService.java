@@ -1,35 +1,53 @@
 package com.retainai.service;
 
+import com.retainai.config.CacheConfig;
 import com.retainai.dto.PredictionResponseDto;
-import com.retainai.model.AiPrediction;
-import com.retainai.repository.PredictionRepository;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.model.CustomerLatestPrediction;
+import com.retainai.repository.LatestPredictionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ⚡ Servicio de lectura de predicciones DESDE LA BD (ai_predictions)
  *
  * IMPORTANTE: Este servicio YA NO llama a Python
- * - Lee predicciones guardadas en la tabla ai_predictions
+ * - Lee la última predicción de customer_latest_prediction (una fila por
+ *   cliente, mantenida al escribir en ai_predictions)
  * - Predicciones generadas por batch prediction masivo
  * - Python solo se usa para batch predictions, NO para consultas individuales
+ *
+ * 🗄️ Caché "predictions" (CacheConfig): near-cache Caffeine acotada por
+ * tamaño y TTL delante de la BD. Se invalida por cliente al escribir
+ * predicciones nuevas (PredictionsWrittenEvent).
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PredictionCacheService {
 
-    private final PredictionRepository predictionRepository;
+    private final LatestPredictionRepository latestPredictionRepository;
+    private final CacheManager cacheManager;
+    // Cambia con cada invalidación: lo leído de la BD antes de una no se queda en la caché
+    private final AtomicLong invalidations = new AtomicLong();
 
     /**
      * Obtiene la predicción MÁS RECIENTE para un cliente desde la BD
-     * NO llama a Python - solo lee de ai_predictions
+     * NO llama a Python - solo lee de customer_latest_prediction
      *
      * @param customerId ID del cliente
      * @return Predicción más reciente o null si no existe
@@ -38,46 +56,94 @@ public class PredictionCacheService {
     public PredictionResponseDto getPrediction(String customerId) {
         log.debug("📊 Buscando predicción en BD para cliente: {}", customerId);
 
-        // Buscar TODAS las predicciones del cliente (puede haber historial)
-        List<AiPrediction> predictions = predictionRepository.findByCustomerId(customerId);
-
-        if (predictions == null || predictions.isEmpty()) {
-            log.warn("⚠️  No hay predicción para cliente: {} - Debe ejecutar batch prediction", customerId);
-            return null;
-        }
-
-        // Obtener la predicción MÁS RECIENTE (por fecha)
-        AiPrediction latest = predictions.stream()
-                .max(Comparator.comparing(AiPrediction::getFechaAnalisis))
-                .orElse(null);
+        // Última predicción por PK (sin cargar el historial del cliente)
+        CustomerLatestPrediction latest = latestPredictionRepository.findById(customerId).orElse(null);
 
         if (latest == null) {
+            log.warn("⚠️  No hay predicción para cliente: {} - Debe ejecutar batch prediction", customerId);
             return null;
         }
 
         log.debug("✅ Predicción encontrada en BD para cliente: {} (fecha: {})",
                 customerId, latest.getFechaAnalisis());
 
-        // Mapear AiPrediction → PredictionResponseDto
+        // Mapear CustomerLatestPrediction → PredictionResponseDto
         return mapToPredictionResponseDto(latest);
     }
 
     /**
-     * Mapea AiPrediction (BD) a PredictionResponseDto (API)
+     * Multi-get: última predicción de varios clientes en una sola pasada
+     * - Los aciertos salen de la caché "predictions"
+     * - Todos los fallos se leen juntos de customer_latest_prediction (por PK,
+     *   en bloques de LatestPredictionRepository.LOOKUP_CHUNK_SIZE) y se
+     *   guardan en la caché, también los clientes sin predicción
+     * - Si hubo una invalidación durante la lectura, lo guardado se vuelve a
+     *   quitar: pudo leerse antes del commit de la predicción nueva
+     *
+     * @param customerIds IDs de clientes (los repetidos se ignoran)
+     * @return customerId → predicción (los clientes sin predicción no aparecen)
+     */
+    public Map<String, PredictionResponseDto> getPredictions(Collection<String> customerIds) {
+        Map<String, PredictionResponseDto> result = new HashMap<>(customerIds.size() * 2);
+        Cache cache = cacheManager.getCache(CacheConfig.PREDICTIONS);
+
+        Collection<String> distinctIds = new LinkedHashSet<>(customerIds);
+        List<String> misses = new ArrayList<>();
+        for (String customerId : distinctIds) {
+            Cache.ValueWrapper cached = cache != null ? cache.get(customerId) : null;
+            if (cached == null) {
+                misses.add(customerId);
+            } else if (cached.get() != null) {
+                result.put(customerId, (PredictionResponseDto) cached.get());
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            long generation = invalidations.get();
+            Map<String, CustomerLatestPrediction> loaded = latestPredictionRepository.findMapByCustomerIds(misses);
+            for (String customerId : misses) {
+                CustomerLatestPrediction latest = loaded.get(customerId);
+                PredictionResponseDto prediction = latest != null ? mapToPredictionResponseDto(latest) : null;
+                if (cache != null) {
+                    cache.put(customerId, prediction);
+                }
+                if (prediction != null) {
+                    result.put(customerId, prediction);
+                }
+            }
+            // Se comprueba DESPUÉS del put: una invalidación posterior ya borra lo guardado
+            if (cache != null && invalidations.get() != generation) {
+                misses.forEach(cache::evict);
+            }
+        }
+
+        log.debug("📊 Multi-get de predicciones: {} clientes, {} desde caché, {} desde BD",
+                distinctIds.size(), distinctIds.size() - misses.size(), misses.size());
+        return result;
+    }
+
+    /**
+     * Mapea la última predicción (BD) a PredictionResponseDto (API)
      */
-    private PredictionResponseDto mapToPredictionResponseDto(AiPrediction prediction) {
+    private PredictionResponseDto mapToPredictionResponseDto(CustomerLatestPrediction prediction) {
         // Generar nextBestAction basado en el motivoPrincipal
         String nextBestAction = generateNextBestAction(prediction.getMotivoPrincipal());
 
         // Usar AllArgsConstructor: probability, nivelRiesgo, mainFactor, nextBestAction
+        // Riesgo y motivo tienen pocos valores distintos: intern() evita una
+        // copia de cada String por entrada cacheada
         return new PredictionResponseDto(
                 prediction.getProbabilidadFuga(),
-                prediction.getNivelRiesgo(),
-                prediction.getMotivoPrincipal(),
+                intern(prediction.getNivelRiesgo()),
+                intern(prediction.getMotivoPrincipal()),
                 nextBestAction
         );
     }
 
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+
     /**
      * Genera sugerencia de acción basada en el motivo principal
      */
@@ -102,15 +168,34 @@ public class PredictionCacheService {
      */
     @CacheEvict(value = "predictions", key = "#customerId")
     public void invalidate(String customerId) {
+        invalidations.incrementAndGet();
         log.info("🗑️  Cache invalidado para cliente: {}", customerId);
     }
 
+    /**
+     * Predicciones nuevas: invalida solo a esos clientes (después del commit,
+     * o al momento si se publicó fuera de una transacción)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPredictionsWritten(PredictionsWrittenEvent event) {
+        Cache cache = cacheManager.getCache(CacheConfig.PREDICTIONS);
+        if (cache == null) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        for (String customerId : event.customerIds()) {
+            cache.evict(customerId);
+        }
+        log.debug("🗑️  Cache invalidado para {} clientes con predicción nueva", event.customerIds().size());
+    }
+
     /**
      * Limpia todo el caché de predicciones
      * Útil después de ejecutar batch prediction masivo
      */
     @CacheEvict(value = "predictions", allEntries = true)
     public void invalidateAll() {
+        invalidations.incrementAndGet();
         log.info("🗑️  Cache completo de predicciones invalidado");
     }
 }
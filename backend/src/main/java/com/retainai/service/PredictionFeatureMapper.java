@@ -0,0 +1,63 @@
+package com.retainai.service;
+
+import com.retainai.dto.PredictionInputDtoV2;
+import com.retainai.dto.RawCustomerFeatures;
+import com.retainai.model.Customer;
+import com.retainai.model.CustomerMetrics;
+import com.retainai.model.Subscription;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Mapeo único Customer → PredictionInputDtoV2 (23 features calculadas)
+ *
+ * Antes vivía duplicado en PythonIntegrationService y AnalysisService; ahora
+ * lo comparten la predicción individual, el análisis completo y la etapa de
+ * mapeo del pipeline batch.
+ */
+@Component
+public class PredictionFeatureMapper {
+
+    /**
+     * Mapea Customer a PredictionInputDtoV2 (las 23 features de
+     * FeatureMatrix.COLUMNS; score_riesgo queda null). Defaults y derivadas:
+     * RawCustomerFeatures.
+     */
+    public PredictionInputDtoV2 toInputV2(Customer c) {
+        // Validación: Necesitamos al menos la suscripción y métricas
+        if (c.getSubscription() == null) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "El cliente no tiene suscripción asociada");
+        }
+
+        Subscription sub = c.getSubscription();
+        CustomerMetrics metrics = c.getMetrics(); // Puede ser null
+
+        RawCustomerFeatures.RawCustomerFeaturesBuilder raw = RawCustomerFeatures.builder()
+                .cuotaMensual(sub.getCuotaMensual())
+                .ingresosTotales(sub.getIngresosTotales())
+                .erroresPago(sub.getErroresPago())
+                .mesesPermanencia(sub.getMesesPermanencia())
+                .latitud(c.getLatitud())
+                .longitud(c.getLongitud())
+                .codigoPostal(c.getCodigoPostal())
+                .edad(c.getEdad());
+        if (metrics != null) {
+            raw.diasActivosSemanales(metrics.getDiasActivosSemanales())
+                    .promedioConeccion(metrics.getPromedioConeccion())
+                    .coneccionesMensuales(metrics.getConeccionesMensuales())
+                    .caracteristicasUsadas(metrics.getCaracteristicasUsadas())
+                    .diasUltimaConeccion(metrics.getDiasUltimaConeccion())
+                    .ticketsSoporte(metrics.getTicketsSoporte())
+                    .scoreNps(metrics.getScoreNps())
+                    .tasaCrecimientoUso(metrics.getTasaCrecimientoUso())
+                    .scoreCsat(metrics.getScoreCsat())
+                    .tasaAperturaEmail(metrics.getTasaAperturaEmail())
+                    .tiempoResolucion(metrics.getTiempoResolucion())
+                    .tiempoSesionPromedio(metrics.getTiempoSesionPromedio())
+                    .ultimoContactoSoporte(metrics.getUltimoContactoSoporte());
+        }
+        return raw.build().toRow(c.getId()).features();
+    }
+}
@@ -0,0 +1,145 @@
+package com.retainai.service;
+
+import com.retainai.repository.PredictionRetentionRepository;
+import com.retainai.repository.PredictionRetentionRepository.CompactionChunk;
+import com.retainai.repository.PredictionRetentionRepository.RetentionPolicy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🧹 Política de retención del historial de predicciones
+ *
+ * Cada batch-all añade una fila por cliente a ai_predictions y nada la
+ * borraba. La compactación (job COMPACT_HISTORY de BatchJobService, a mano
+ * o programado con app.retention.cron) conserva:
+ * - las últimas app.retention.keep-last predicciones de cada cliente
+ * - con más de daily-after-days días, una por día
+ * - con más de weekly-after-days días, una por semana
+ * Una fila se borra solo si no la conserva ninguna de estas reglas; la
+ * última predicción de cada cliente se conserva siempre.
+ *
+ * Con app.retention.partitioning.enabled la tabla se particiona por mes y
+ * cada ejecución crea los meses siguientes y, si drop-after-months > 0,
+ * elimina los meses completos más antiguos. keep-last manda: un mes que aún
+ * tiene alguna de las últimas keep-last predicciones de un cliente (al menos
+ * la última) no se elimina hasta que deje de tenerlas.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PredictionRetentionService {
+
+    private final PredictionRetentionRepository retentionRepository;
+
+    @Value("${app.retention.keep-last:30}")
+    private int keepLast;
+
+    @Value("${app.retention.daily-after-days:30}")
+    private int dailyAfterDays;
+
+    @Value("${app.retention.weekly-after-days:180}")
+    private int weeklyAfterDays;
+
+    @Value("${app.retention.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${app.retention.partitioning.enabled:false}")
+    private boolean partitioningEnabled;
+
+    @Value("${app.retention.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${app.retention.partitioning.drop-after-months:0}")
+    private int dropAfterMonths;
+
+    /**
+     * Política con los cortes calculados respecto a hoy (0 desactiva cada regla)
+     */
+    public RetentionPolicy currentPolicy() {
+        LocalDate today = LocalDate.now();
+        return new RetentionPolicy(
+                keepLast,
+                dailyAfterDays > 0 ? today.minusDays(dailyAfterDays).atStartOfDay() : null,
+                weeklyAfterDays > 0 ? today.minusDays(weeklyAfterDays).atStartOfDay() : null);
+    }
+
+    /**
+     * Un bloque de clientes compactado en su propia transacción
+     */
+    public CompactionChunk compactChunk(String afterCustomerId, RetentionPolicy policy) {
+        return retentionRepository.compactChunk(afterCustomerId, chunkSize, policy);
+    }
+
+    /**
+     * Mantenimiento de particiones (si está activado): particiona la tabla la
+     * primera vez, añade los meses siguientes y elimina los caducados.
+     *
+     * @return particiones creadas y eliminadas (vacío si está desactivado)
+     */
+    public Map<String, Object> maintainPartitions() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!partitioningEnabled) {
+            return result;
+        }
+
+        YearMonth current = YearMonth.now();
+        YearMonth lastNeeded = current.plusMonths(Math.max(monthsAhead, 1));
+        List<String> partitionNames = retentionRepository.findPartitionNames();
+
+        if (partitionNames.isEmpty()) {
+            YearMonth oldest = retentionRepository.findOldestAnalysisMonth();
+            YearMonth from = oldest != null && oldest.isBefore(current) ? oldest : current;
+            log.info("🧹 Particionando ai_predictions por mes ({} → {})", from, lastNeeded);
+            retentionRepository.partitionByMonth(from, lastNeeded);
+            result.put("partitionedFrom", from.toString());
+            partitionNames = retentionRepository.findPartitionNames();
+        }
+
+        Map<String, YearMonth> months = PredictionRetentionRepository.monthlyPartitions(partitionNames);
+        YearMonth newest = months.values().stream().max(YearMonth::compareTo).orElse(current.minusMonths(1));
+
+        List<String> added = new ArrayList<>();
+        for (YearMonth month = newest.plusMonths(1); !month.isAfter(lastNeeded); month = month.plusMonths(1)) {
+            retentionRepository.addMonthPartition(month);
+            added.add(PredictionRetentionRepository.partitionName(month));
+        }
+
+        List<String> dropped = new ArrayList<>();
+        List<String> retained = new ArrayList<>();
+        if (dropAfterMonths > 0) {
+            YearMonth firstKept = current.minusMonths(dropAfterMonths);
+            int protectedRows = Math.max(keepLast, 1);
+            months.forEach((name, month) -> {
+                if (!month.isBefore(firstKept)) {
+                    return;
+                }
+                if (retentionRepository.holdsLatestRows(name, month, protectedRows)) {
+                    retained.add(name);
+                } else {
+                    retentionRepository.dropPartition(name);
+                    dropped.add(name);
+                }
+            });
+        }
+        if (!retained.isEmpty()) {
+            log.info("🧹 Particiones caducadas conservadas por keep-last={}: {}", keepLast, retained);
+        }
+
+        if (!added.isEmpty() || !dropped.isEmpty()) {
+            log.info("🧹 Particiones de ai_predictions: añadidas {}, eliminadas {}", added, dropped);
+        }
+        result.put("added", added);
+        result.put("dropped", dropped);
+        result.put("retainedByKeepLast", retained);
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package com.retainai.service;
+
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.PredictionInputDtoV2;
+import com.retainai.dto.PredictionResponseDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 📡 Cliente de Python /predict/batch con varias peticiones en vuelo
+ *
+ * Con app.scoring.engine=jvm los lotes se puntúan dentro de la JVM
+ * (TreeEnsembleScorer) con el mismo contrato de respuesta, sin HTTP.
+ *
+ * - score(): llamada bloqueante (un lote = un POST)
+ * - score(FeatureMatrix): lote columnar a /predict/batch/compact (float64 en bruto,
+ *   sin JSON por cliente)
+ * - scoreAsync(): envía el lote en un pool propio y devuelve un CompletableFuture.
+ * Como máximo hay app.python-service.batch.max-in-flight peticiones abiertas;
+ * si el cupo está lleno, el llamador espera (backpressure natural).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PythonBatchClient {
+
+    private final RestTemplate restTemplate;
+    private final TreeEnsembleScorer treeEnsembleScorer;
+
+    @Value("${app.python-service.url}")
+    private String pythonUrl;
+
+    @Value("${app.python-service.batch.max-in-flight:4}")
+    private int maxInFlight;
+
+    // Orden de columnas del payload compacto (Python lo valida)
+    private static final String COLUMNS_HEADER = "X-Feature-Columns";
+
+    private ExecutorService executor;
+    private Semaphore inFlight;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "python-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        inFlight = new Semaphore(maxInFlight);
+        log.info("📡 Cliente batch de Python listo: {} peticiones en vuelo como máximo", maxInFlight);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Envía un lote a Python y valida que vuelva una predicción por cliente
+     */
+    public PredictionResponseDto[] score(List<PredictionInputDtoV2> batch) {
+        if (treeEnsembleScorer.getDefaultEngine() == ScoringEngine.JVM) {
+            return treeEnsembleScorer.scoreBatch(batch);
+        }
+
+        PredictionResponseDto[] responses = restTemplate.postForObject(
+                pythonUrl + "/predict/batch",
+                batch,
+                PredictionResponseDto[].class);
+
+        return requireOnePerRow(responses, batch.size());
+    }
+
+    /**
+     * Envía un lote columnar a /predict/batch/compact (8 bytes por feature)
+     */
+    public PredictionResponseDto[] score(FeatureMatrix batch) {
+        if (treeEnsembleScorer.getDefaultEngine() == ScoringEngine.JVM) {
+            return treeEnsembleScorer.scoreMatrix(batch);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(COLUMNS_HEADER, FeatureMatrix.COLUMNS_HEADER_VALUE);
+
+        PredictionResponseDto[] responses = restTemplate.postForObject(
+                pythonUrl + "/predict/batch/compact",
+                new HttpEntity<>(batch.toLittleEndianBytes(), headers),
+                PredictionResponseDto[].class);
+
+        return requireOnePerRow(responses, batch.size());
+    }
+
+    /**
+     * Envía un lote de forma asíncrona. Bloquea solo si ya hay maxInFlight
+     * peticiones abiertas.
+     */
+    public CompletableFuture<PredictionResponseDto[]> scoreAsync(List<PredictionInputDtoV2> batch)
+            throws InterruptedException {
+        return submit(() -> score(batch));
+    }
+
+    public CompletableFuture<PredictionResponseDto[]> scoreAsync(FeatureMatrix batch)
+            throws InterruptedException {
+        return submit(() -> score(batch));
+    }
+
+    private CompletableFuture<PredictionResponseDto[]> submit(Supplier<PredictionResponseDto[]> call)
+            throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return CompletableFuture.supplyAsync(call, executor)
+                    .whenComplete((responses, error) -> inFlight.release());
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private static PredictionResponseDto[] requireOnePerRow(PredictionResponseDto[] responses, int expected) {
+        if (responses == null || responses.length != expected) {
+            throw new IllegalStateException(String.format(
+                    "Respuesta inválida del servicio de IA: se esperaban %d predicciones, llegaron %d",
+                    expected, responses == null ? 0 : responses.length));
+        }
+        return responses;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
@@ -0,0 +1,273 @@
+package com.retainai.service;
+
+import com.retainai.repository.CustomerRepository;
+import com.retainai.repository.PredictionRepository;
+import com.retainai.repository.SubscriptionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Parameter;
+import jakarta.persistence.Query;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🔍 EXPLAIN de cada @Query de los repositorios calientes
+ *
+ * Al arrancar (después de las migraciones) se obtiene el SQL de cada
+ * consulta y se pasa por EXPLAIN. Las tablas leídas con type = ALL (full
+ * scan) se avisan en el log; el informe completo está en
+ * GET /api/benchmarks/query-plans.
+ *
+ * - Nativas: el SQL de la anotación, con cada parámetro sustituido por '1'
+ * - JPQL: Hibernate genera el SQL y SQL_CAPTURE (StatementInspector) lo
+ *   intercepta antes de ejecutarlo, así que no llega a la BD
+ *
+ * Los parámetros se sustituyen por '1' (comillas: una columna VARCHAR
+ * comparada con un número no usaría su índice) y LIMIT por 10. Los informes
+ * agregados sobre toda la tabla (GROUP BY sin WHERE) aparecen como full
+ * scan por naturaleza.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QueryPlanChecker {
+
+    public static final SqlCapture SQL_CAPTURE = new SqlCapture();
+
+    private static final List<Class<?>> REPOSITORIES = List.of(
+            CustomerRepository.class, PredictionRepository.class, SubscriptionRepository.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.schema.explain-check.on-startup:true}")
+    private boolean checkOnStartup;
+
+    /**
+     * Plan de una consulta: tablas con full scan y filas EXPLAIN
+     */
+    public record QueryPlan(String query, boolean nativeQuery, List<String> fullScans,
+            List<Map<String, Object>> plan, String error) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    void explainOnStartup() {
+        if (!checkOnStartup) {
+            return;
+        }
+        try {
+            List<QueryPlan> plans = checkAll();
+            long flagged = plans.stream().filter(plan -> !plan.fullScans().isEmpty()).count();
+            log.info("🔍 EXPLAIN de {} consultas: {} con full scan", plans.size(), flagged);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo revisar el plan de las consultas: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * EXPLAIN de todas las @Query de CustomerRepository, PredictionRepository
+     * y SubscriptionRepository
+     */
+    public List<QueryPlan> checkAll() {
+        List<QueryPlan> plans = new ArrayList<>();
+        for (Class<?> repository : REPOSITORIES) {
+            Method[] methods = repository.getDeclaredMethods();
+            Arrays.sort(methods, Comparator.comparing(Method::getName));
+            for (Method method : methods) {
+                org.springframework.data.jpa.repository.Query query =
+                        method.getAnnotation(org.springframework.data.jpa.repository.Query.class);
+                if (query == null) {
+                    continue;
+                }
+                String name = repository.getSimpleName() + "." + method.getName();
+                QueryPlan plan = explain(name, method, query);
+                if (plan.error() != null) {
+                    log.warn("⚠️ EXPLAIN {}: {}", name, plan.error());
+                } else if (!plan.fullScans().isEmpty()) {
+                    log.warn("🐢 {}: full scan de {}", name, plan.fullScans());
+                }
+                plans.add(plan);
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * Informe para el endpoint: resumen y planes
+     */
+    public Map<String, Object> report() {
+        List<QueryPlan> plans = checkAll();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queries", plans.size());
+        result.put("withFullScan", plans.stream().filter(plan -> !plan.fullScans().isEmpty())
+                .map(QueryPlan::query).toList());
+        result.put("errors", plans.stream().filter(plan -> plan.error() != null)
+                .map(QueryPlan::query).toList());
+        result.put("plans", plans);
+        return result;
+    }
+
+    private QueryPlan explain(String name, Method method, org.springframework.data.jpa.repository.Query query) {
+        try {
+            String sql = query.nativeQuery() ? query.value() : captureSql(method, query.value());
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("EXPLAIN " + withLiterals(sql));
+            List<String> fullScans = rows.stream()
+                    .filter(row -> "ALL".equals(String.valueOf(row.get("type"))))
+                    .map(row -> String.valueOf(row.get("table")))
+                    .filter(table -> !table.startsWith("<")) // tablas derivadas / temporales
+                    .distinct()
+                    .toList();
+            return new QueryPlan(name, query.nativeQuery(), fullScans, rows, null);
+        } catch (Exception e) {
+            return new QueryPlan(name, query.nativeQuery(), List.of(), List.of(), e.getMessage());
+        }
+    }
+
+    /**
+     * SQL generado por Hibernate para una consulta JPQL, sin ejecutarla
+     */
+    private String captureSql(Method method, String jpql) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            Query query = entityManager.createQuery(jpql);
+            bindSampleParameters(query, method);
+            if (Arrays.stream(method.getParameterTypes()).anyMatch(Pageable.class::isAssignableFrom)) {
+                query.setMaxResults(10);
+            }
+            return SQL_CAPTURE.capture(query::getResultList);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private void bindSampleParameters(Query query, Method method) {
+        Map<String, Class<?>> methodParameters = new HashMap<>();
+        for (java.lang.reflect.Parameter parameter : method.getParameters()) {
+            Param param = parameter.getAnnotation(Param.class);
+            methodParameters.put(param != null ? param.value() : parameter.getName(), parameter.getType());
+        }
+
+        for (Parameter<?> parameter : query.getParameters()) {
+            Class<?> type = parameter.getName() != null ? methodParameters.get(parameter.getName()) : null;
+            if (type == null) {
+                type = parameter.getParameterType();
+            }
+            Object value = sampleValue(type);
+            if (parameter.getName() != null) {
+                query.setParameter(parameter.getName(), value);
+            } else {
+                query.setParameter(parameter.getPosition(), value);
+            }
+        }
+    }
+
+    private static Object sampleValue(Class<?> type) {
+        if (type == null || type == String.class) {
+            return "1";
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return List.of("1");
+        }
+        if (type == int.class || type == Integer.class) {
+            return 1;
+        }
+        if (type == long.class || type == Long.class) {
+            return 1L;
+        }
+        if (type == double.class || type == Double.class) {
+            return 1.0;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return Boolean.TRUE;
+        }
+        if (type == BigDecimal.class) {
+            return BigDecimal.ONE;
+        }
+        if (type == LocalDateTime.class) {
+            return LocalDateTime.now();
+        }
+        if (type == LocalDate.class) {
+            return LocalDate.now();
+        }
+        return "1";
+    }
+
+    /**
+     * Sustituye los parámetros (? y :nombre) por literales para EXPLAIN
+     */
+    static String withLiterals(String sql) {
+        return sql
+                .replaceAll("(?i)\\blimit\\s+\\?\\s*,\\s*\\?", "limit 0, 10")
+                .replaceAll("(?i)\\blimit\\s+\\?", "limit 10")
+                .replaceAll("(?i)\\boffset\\s+\\?", "offset 0")
+                .replaceAll("(?<![:\\w]):\\w+", "'1'")
+                .replace("?", "'1'");
+    }
+
+    /**
+     * StatementInspector que, solo en el hilo que está capturando, guarda el
+     * SQL y aborta la ejecución; en el resto de casos lo deja pasar intacto
+     */
+    public static final class SqlCapture implements StatementInspector {
+
+        private final ThreadLocal<List<String>> captured = new ThreadLocal<>();
+
+        @Override
+        public String inspect(String sql) {
+            List<String> statements = captured.get();
+            if (statements == null) {
+                return sql;
+            }
+            statements.add(sql);
+            throw new CapturedException();
+        }
+
+        String capture(Runnable execution) {
+            List<String> statements = new ArrayList<>();
+            captured.set(statements);
+            try {
+                execution.run();
+            } catch (RuntimeException e) {
+                if (statements.isEmpty()) {
+                    throw e;
+                }
+            } finally {
+                captured.remove();
+            }
+            if (statements.isEmpty()) {
+                throw new IllegalStateException("Hibernate no generó SQL");
+            }
+            return statements.get(0);
+        }
+    }
+
+    private static final class CapturedException extends RuntimeException {
+        CapturedException() {
+            super("SQL capturado", null, false, false);
+        }
+    }
+}
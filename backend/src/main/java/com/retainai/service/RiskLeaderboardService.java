@@ -0,0 +1,194 @@
+package com.retainai.service;
+
+import com.retainai.dto.CustomerDataChangedEvent;
+import com.retainai.dto.PredictionsWrittenEvent;
+import com.retainai.dto.RiskEntry;
+import com.retainai.model.CustomerLatestPrediction;
+import com.retainai.repository.LatestPredictionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 🏆 Ranking en memoria de los clientes de mayor riesgo (top-K)
+ *
+ * Guarda los clientes con mayor probabilidad de su ÚLTIMA predicción,
+ * ordenados (TreeSet: el mínimo es el primero en salir, como un min-heap,
+ * pero con borrado de cualquier cliente en O(log n)). Se actualiza con cada
+ * PredictionsWrittenEvent, así que leer el top no toca la BD salvo para
+ * cargar los clientes pedidos.
+ *
+ * Invariante: todo cliente fuera del ranking tiene una probabilidad <= la
+ * menor del ranking (floor). Por eso:
+ * - un cliente de fuera que supera el floor entra (y si sobra, sale el menor)
+ * - un cliente del ranking que baja del floor sale: puede haber otros por
+ *   encima que no conocemos
+ * Si quedan menos de app.leaderboard.size clientes se recarga desde
+ * customer_latest_prediction (consulta limitada por idx_latest_probabilidad).
+ * Se guarda el doble de size como holgura para no recargar en cada bajada.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RiskLeaderboardService {
+
+    private static final Comparator<RiskEntry> HIGHEST_FIRST = Comparator
+            .comparing(RiskEntry::probability, Comparator.reverseOrder())
+            .thenComparing(RiskEntry::customerId);
+
+    private final LatestPredictionRepository latestPredictionRepository;
+
+    @Value("${app.leaderboard.size:100}")
+    private int size;
+
+    private final TreeSet<RiskEntry> ranking = new TreeSet<>(HIGHEST_FIRST);
+    private final Map<String, RiskEntry> members = new HashMap<>();
+
+    // El ranking contiene a TODOS los clientes con predicción (hay menos que la capacidad)
+    private boolean complete;
+    private boolean loaded;
+
+    /**
+     * Los {@code n} clientes de mayor riesgo (id y probabilidad)
+     */
+    public List<RiskEntry> top(int n) {
+        if (n > size) {
+            return latestPredictionRepository.findTopRisk(PageRequest.of(0, n));
+        }
+        synchronized (this) {
+            ensureLoaded();
+            return ranking.stream().limit(n).toList();
+        }
+    }
+
+    /**
+     * Los {@code n} clientes de mayor riesgo con su Customer cargado (un
+     * SELECT por PK de esos n). Mismo orden que top(n).
+     */
+    @Transactional(readOnly = true)
+    public List<CustomerLatestPrediction> topWithCustomers(int n) {
+        List<RiskEntry> top = top(n);
+        if (top.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, CustomerLatestPrediction> byId = latestPredictionRepository
+                .findWithCustomerByCustomerIdIn(top.stream().map(RiskEntry::customerId).toList())
+                .stream()
+                .collect(Collectors.toMap(CustomerLatestPrediction::getCustomerId, Function.identity()));
+
+        List<CustomerLatestPrediction> result = new ArrayList<>(top.size());
+        for (RiskEntry entry : top) {
+            CustomerLatestPrediction prediction = byId.get(entry.customerId());
+            if (prediction != null) {
+                result.add(prediction);
+            }
+        }
+        if (result.size() < top.size()) {
+            // Clientes borrados desde la última carga: se reconstruye y se usa la BD
+            invalidate();
+            return latestPredictionRepository.findHighestRisk(PageRequest.of(0, n));
+        }
+        result.sort(Comparator.comparing(CustomerLatestPrediction::getProbabilidadFuga,
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        return result;
+    }
+
+    /**
+     * Predicciones nuevas (después del commit): actualiza el ranking
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onPredictionsWritten(PredictionsWrittenEvent event) {
+        if (!loaded) {
+            return; // Se cargará entero en la próxima lectura
+        }
+        if (!event.hasProbabilities()) {
+            loaded = false;
+            return;
+        }
+
+        List<String> customerIds = event.customerIds();
+        for (int i = 0; i < customerIds.size(); i++) {
+            update(customerIds.get(i), event.probabilities().get(i));
+        }
+        if (!complete && ranking.size() < size) {
+            loaded = false;
+        }
+    }
+
+    /**
+     * BD vaciada (después del commit): se descarta el ranking
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCustomerDataChanged(CustomerDataChangedEvent event) {
+        if (event.isDatabaseCleanup()) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Descarta el ranking: se recarga desde la BD en la próxima lectura
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+        ranking.clear();
+        members.clear();
+    }
+
+    private void update(String customerId, Double probability) {
+        RiskEntry previous = members.remove(customerId);
+        double floor = ranking.isEmpty() ? Double.NEGATIVE_INFINITY : ranking.last().probability();
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+        if (probability == null) {
+            return;
+        }
+        if (!complete && probability < floor) {
+            return; // Por debajo del floor: puede haber clientes de fuera por encima
+        }
+
+        RiskEntry entry = new RiskEntry(customerId, probability);
+        ranking.add(entry);
+        members.put(customerId, entry);
+
+        if (ranking.size() > capacity()) {
+            RiskEntry lowest = ranking.pollLast();
+            members.remove(lowest.customerId());
+            complete = false;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        List<RiskEntry> entries = latestPredictionRepository.findTopRisk(PageRequest.of(0, capacity()));
+        ranking.clear();
+        members.clear();
+        for (RiskEntry entry : entries) {
+            ranking.add(entry);
+            members.put(entry.customerId(), entry);
+        }
+        complete = entries.size() < capacity();
+        loaded = true;
+        log.debug("🏆 Ranking de riesgo cargado: {} clientes (completo: {})", entries.size(), complete);
+    }
+
+    private int capacity() {
+        return size * 2;
+    }
+}
@@ -0,0 +1,28 @@
+package com.retainai.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Locale;
+
+/**
+ * Motor de scoring: servicio Python (HTTP) o Random Forest exportado dentro de
+ * la JVM (TreeEnsembleScorer). Por defecto app.scoring.engine; la predicción
+ * individual acepta ?engine=python|jvm.
+ */
+public enum ScoringEngine {
+    PYTHON,
+    JVM;
+
+    public static ScoringEngine from(String value, ScoringEngine fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return ScoringEngine.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Motor de scoring desconocido: " + value + " (usar python o jvm)");
+        }
+    }
+}
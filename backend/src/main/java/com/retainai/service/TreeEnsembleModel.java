@@ -0,0 +1,168 @@
+package com.retainai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 🌲 Random Forest exportado desde Python (ai-ml/src/export_tree_model.py)
+ *
+ * Todos los árboles van concatenados en arrays primitivos planos (un índice
+ * global por nodo), sin objetos por nodo: recorrer un árbol son unos pocos
+ * accesos a arrays contiguos.
+ *
+ * Reproduce predict_proba de sklearn: StandardScaler en double, comparación
+ * del valor convertido a float32 contra el umbral (sklearn castea X a float32
+ * antes de recorrer los árboles) y media de la probabilidad de hoja por árbol.
+ */
+public final class TreeEnsembleModel {
+
+    private final String[] features;
+    private final double[] mean;
+    private final double[] scale;
+    private final double[] importances;
+
+    private final int[] treeRoots;
+    private final int[] feature;
+    private final double[] threshold;
+    private final int[] left;
+    private final int[] right;
+    private final double[] value;
+    private final boolean[] missingLeft;
+
+    private TreeEnsembleModel(String[] features, double[] mean, double[] scale, double[] importances,
+            int[] treeRoots, int[] feature, double[] threshold, int[] left, int[] right, double[] value,
+            boolean[] missingLeft) {
+        this.features = features;
+        this.mean = mean;
+        this.scale = scale;
+        this.importances = importances;
+        this.treeRoots = treeRoots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.left = left;
+        this.right = right;
+        this.value = value;
+        this.missingLeft = missingLeft;
+    }
+
+    /**
+     * Construye el modelo desde el JSON del exportador (formato retainai-tree-ensemble v1)
+     */
+    public static TreeEnsembleModel fromJson(JsonNode root) {
+        if (!"retainai-tree-ensemble".equals(root.path("format").asText())) {
+            throw new IllegalArgumentException("Formato de modelo no reconocido: " + root.path("format").asText());
+        }
+
+        String[] features = toStringArray(root.get("features"));
+        double[] importances = toDoubleArray(root.get("feature_importances"));
+        JsonNode scaler = root.get("scaler");
+        double[] mean = scaler != null && !scaler.isNull() ? toDoubleArray(scaler.get("mean")) : null;
+        double[] scale = scaler != null && !scaler.isNull() ? toDoubleArray(scaler.get("scale")) : null;
+
+        JsonNode trees = root.get("trees");
+        int totalNodes = 0;
+        for (JsonNode tree : trees) {
+            totalNodes += tree.get("feature").size();
+        }
+
+        int[] treeRoots = new int[trees.size()];
+        int[] feature = new int[totalNodes];
+        double[] threshold = new double[totalNodes];
+        int[] left = new int[totalNodes];
+        int[] right = new int[totalNodes];
+        double[] value = new double[totalNodes];
+        boolean[] missingLeft = new boolean[totalNodes];
+
+        int offset = 0;
+        int treeIndex = 0;
+        for (JsonNode tree : trees) {
+            int nodes = tree.get("feature").size();
+            treeRoots[treeIndex++] = offset;
+            JsonNode missing = tree.get("missing_left");
+            for (int i = 0; i < nodes; i++) {
+                int node = offset + i;
+                feature[node] = tree.get("feature").get(i).asInt();
+                threshold[node] = tree.get("threshold").get(i).asDouble();
+                int l = tree.get("left").get(i).asInt();
+                int r = tree.get("right").get(i).asInt();
+                // Hijos a índice global; -1 = hoja
+                left[node] = l < 0 ? -1 : offset + l;
+                right[node] = r < 0 ? -1 : offset + r;
+                value[node] = tree.get("value").get(i).asDouble();
+                missingLeft[node] = missing != null && missing.get(i).asInt() == 1;
+            }
+            offset += nodes;
+        }
+
+        if (importances.length != features.length) {
+            throw new IllegalArgumentException("feature_importances no coincide con el número de features");
+        }
+        return new TreeEnsembleModel(features, mean, scale, importances, treeRoots, feature, threshold,
+                left, right, value, missingLeft);
+    }
+
+    /**
+     * Probabilidad de churn para un vector en el orden de getFeatures()
+     *
+     * @param raw     valores sin escalar (NaN = faltante)
+     * @param scratch buffer de trabajo de longitud >= features (evita asignar por llamada)
+     */
+    public double predictProba(double[] raw, double[] scratch) {
+        for (int f = 0; f < features.length; f++) {
+            double x = scale != null ? (raw[f] - mean[f]) / scale[f] : raw[f];
+            // sklearn convierte X a float32 antes de comparar con los umbrales
+            scratch[f] = (float) x;
+        }
+
+        double sum = 0.0;
+        for (int root : treeRoots) {
+            int node = root;
+            while (left[node] != -1) {
+                double x = scratch[feature[node]];
+                if (Double.isNaN(x)) {
+                    node = missingLeft[node] ? left[node] : right[node];
+                } else {
+                    node = x <= threshold[node] ? left[node] : right[node];
+                }
+            }
+            sum += value[node];
+        }
+        return sum / treeRoots.length;
+    }
+
+    public double predictProba(double[] raw) {
+        return predictProba(raw, new double[features.length]);
+    }
+
+    public String[] getFeatures() {
+        return features;
+    }
+
+    public double[] getImportances() {
+        return importances;
+    }
+
+    public int getTreeCount() {
+        return treeRoots.length;
+    }
+
+    public int getNodeCount() {
+        return feature.length;
+    }
+
+    private static String[] toStringArray(JsonNode node) {
+        List<String> values = new ArrayList<>(node.size());
+        node.forEach(item -> values.add(item.asText()));
+        return values.toArray(new String[0]);
+    }
+
+    private static double[] toDoubleArray(JsonNode node) {
+        double[] values = new double[node.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = node.get(i).asDouble();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,463 @@
+package com.retainai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.PredictionInputDtoV2;
+import com.retainai.dto.PredictionResponseDto;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * ⚡ Motor de scoring dentro de la JVM (sin salto HTTP a Python)
+ *
+ * Carga el Random Forest exportado por ai-ml/src/export_tree_model.py y
+ * reproduce la respuesta de Python /predict: probability (redondeada a 4
+ * decimales), main_factor y next_best_action (misma lógica XAI de main.py y
+ * xai_utils.py, mismos formatos de texto).
+ *
+ * Al cargar ejecuta las parity fixtures del JSON (salidas reales de Python):
+ * si alguna probabilidad no coincide el motor queda deshabilitado.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TreeEnsembleScorer {
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.scoring.engine:python}")
+    private String configuredEngine;
+
+    @Value("${app.scoring.model-path:../ai-ml/models/champion/tree_ensemble.json}")
+    private String modelPath;
+
+    @Value("${app.scoring.parity-tolerance:1e-9}")
+    private double parityTolerance;
+
+    private volatile TreeEnsembleModel model;
+    private volatile String unavailableReason = "Modelo no cargado";
+    private volatile Map<String, Object> parityReport = Map.of();
+    private List<JsonNode> fixtures = List.of();
+
+    // Prioridades de select_best_actionable_factor (main.py)
+    private static final Map<String, Integer> PRIORITY = Map.ofEntries(
+            Map.entry("puntuacion_nps", 100),
+            Map.entry("puntuacion_csat", 100),
+            Map.entry("tickets_soporte", 90),
+            Map.entry("tiempo_resolucion", 90),
+            Map.entry("dias_ultima_conexion", 80),
+            Map.entry("dias_activos_semanales", 80),
+            Map.entry("tasa_apertura_email", 70),
+            Map.entry("conexiones_mensuales", 70),
+            Map.entry("cargo_mensual", 60),
+            Map.entry("ratio_carga_financiera", 60),
+            Map.entry("errores_pago", 60),
+            Map.entry("dias_desde_ultimo_contacto", 80),
+            Map.entry("tiempo_sesion_promedio", 70));
+
+    // Feature del modelo (snake_case) → valor del DTO
+    private static final Map<String, Function<PredictionInputDtoV2, Object>> DTO_FEATURES = Map.ofEntries(
+            Map.entry("score_riesgo", PredictionInputDtoV2::getScoreRiesgo),
+            Map.entry("dias_activos_semanales", PredictionInputDtoV2::getDiasActivosSemanales),
+            Map.entry("promedio_conexion", PredictionInputDtoV2::getPromedioConexion),
+            Map.entry("conexiones_mensuales", PredictionInputDtoV2::getConexionesMensuales),
+            Map.entry("caracteristicas_usadas", PredictionInputDtoV2::getCaracteristicasUsadas),
+            Map.entry("dias_ultima_conexion", PredictionInputDtoV2::getDiasUltimaConexion),
+            Map.entry("intensidad_uso", PredictionInputDtoV2::getIntensidadUso),
+            Map.entry("tickets_soporte", PredictionInputDtoV2::getTicketsSoporte),
+            Map.entry("puntuacion_nps", PredictionInputDtoV2::getPuntuacionNps),
+            Map.entry("tasa_crecimiento_uso", PredictionInputDtoV2::getTasaCrecimientoUso),
+            Map.entry("puntuacion_csat", PredictionInputDtoV2::getPuntuacionCsat),
+            Map.entry("ratio_carga_financiera", PredictionInputDtoV2::getRatioCargaFinanciera),
+            Map.entry("tasa_apertura_email", PredictionInputDtoV2::getTasaAperturaEmail),
+            Map.entry("errores_pago", PredictionInputDtoV2::getErroresPago),
+            Map.entry("antiguedad", PredictionInputDtoV2::getAntiguedad),
+            Map.entry("ingresos_totales", PredictionInputDtoV2::getIngresosTotales),
+            Map.entry("latitud", PredictionInputDtoV2::getLatitud),
+            Map.entry("cargo_mensual", PredictionInputDtoV2::getCargoMensual),
+            Map.entry("tiempo_resolucion", PredictionInputDtoV2::getTiempoResolucion),
+            Map.entry("longitud", PredictionInputDtoV2::getLongitud),
+            Map.entry("codigo_postal", PredictionInputDtoV2::getCodigoPostal),
+            Map.entry("edad", PredictionInputDtoV2::getEdad),
+            Map.entry("dias_desde_ultimo_contacto", PredictionInputDtoV2::getDiasDesdeUltimoContacto),
+            Map.entry("tiempo_sesion_promedio", PredictionInputDtoV2::getTiempoSesionPromedio));
+
+    @PostConstruct
+    void init() {
+        ScoringEngine engine = ScoringEngine.from(configuredEngine, ScoringEngine.PYTHON);
+        Path path = Path.of(modelPath);
+        if (!Files.exists(path)) {
+            unavailableReason = "No existe " + path.toAbsolutePath()
+                    + " (generarlo con: python -m src.export_tree_model)";
+            if (engine == ScoringEngine.JVM) {
+                log.error("❌ [SCORING] app.scoring.engine=jvm pero {}", unavailableReason);
+            } else {
+                log.info("ℹ️ [SCORING] Motor JVM no disponible: {}", unavailableReason);
+            }
+            return;
+        }
+
+        try {
+            load(path);
+        } catch (Exception e) {
+            unavailableReason = "Error cargando " + path + ": " + e.getMessage();
+            log.error("❌ [SCORING] {}", unavailableReason, e);
+        }
+    }
+
+    /**
+     * Carga el modelo y solo lo publica si pasa la verificación de paridad
+     */
+    private void load(Path path) throws IOException {
+        long start = System.nanoTime();
+        JsonNode root = objectMapper.readTree(path.toFile());
+        TreeEnsembleModel candidate = TreeEnsembleModel.fromJson(root);
+
+        List<JsonNode> loadedFixtures = new ArrayList<>();
+        root.path("parity_fixtures").forEach(loadedFixtures::add);
+
+        Map<String, Object> report = checkParity(candidate, loadedFixtures);
+        long probabilityMismatches = (long) report.get("probabilityMismatches");
+
+        log.info("🌲 [SCORING] Modelo {} cargado en {}ms: {} árboles, {} nodos, {} features",
+                root.path("model_type").asText(), (System.nanoTime() - start) / 1_000_000,
+                candidate.getTreeCount(), candidate.getNodeCount(), candidate.getFeatures().length);
+
+        parityReport = report;
+        fixtures = loadedFixtures;
+        if (loadedFixtures.isEmpty()) {
+            unavailableReason = "El modelo exportado no trae parity_fixtures";
+            log.error("❌ [SCORING] {}: motor JVM deshabilitado", unavailableReason);
+        } else if (probabilityMismatches > 0) {
+            unavailableReason = probabilityMismatches + " fixtures con probabilidad distinta a Python";
+            log.error("❌ [SCORING] Paridad fallida ({}): motor JVM deshabilitado", report);
+        } else {
+            model = candidate;
+            log.info("✅ [SCORING] Paridad OK con Python: {}", report);
+        }
+    }
+
+    public boolean isAvailable() {
+        return model != null;
+    }
+
+    public Map<String, Object> getParityReport() {
+        return parityReport;
+    }
+
+    /**
+     * Predicción individual: mismo contrato que Python /predict
+     */
+    public PredictionResponseDto score(PredictionInputDtoV2 input) {
+        TreeEnsembleModel current = requireModel();
+        return score(current, toRawVector(current, input), new double[current.getFeatures().length]);
+    }
+
+    /**
+     * Predicción por lotes: mismo contrato que Python /predict/batch
+     */
+    public PredictionResponseDto[] scoreBatch(List<PredictionInputDtoV2> inputs) {
+        TreeEnsembleModel current = requireModel();
+        double[] scratch = new double[current.getFeatures().length];
+        PredictionResponseDto[] responses = new PredictionResponseDto[inputs.size()];
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = score(current, toRawVector(current, inputs.get(i)), scratch);
+        }
+        return responses;
+    }
+
+    /**
+     * Predicción de un lote columnar: mismo contrato que Python /predict/batch/compact
+     */
+    public PredictionResponseDto[] scoreMatrix(FeatureMatrix matrix) {
+        TreeEnsembleModel current = requireModel();
+        int[] columns = FeatureMatrix.columnIndexes(current.getFeatures());
+        double[] raw = new double[columns.length];
+        double[] scratch = new double[columns.length];
+        PredictionResponseDto[] responses = new PredictionResponseDto[matrix.size()];
+        for (int row = 0; row < responses.length; row++) {
+            for (int f = 0; f < columns.length; f++) {
+                raw[f] = columns[f] >= 0 ? matrix.get(row, columns[f]) : Double.NaN;
+            }
+            responses[row] = score(current, raw, scratch);
+        }
+        return responses;
+    }
+
+    /**
+     * Latencia media por predicción individual (reproduce las fixtures N veces)
+     */
+    public Map<String, Object> benchmark(int iterations) {
+        TreeEnsembleModel current = requireModel();
+        List<double[]> vectors = fixtures.stream()
+                .map(fixture -> toRawVector(current, fixture.get("input")))
+                .toList();
+        double[] scratch = new double[current.getFeatures().length];
+
+        // Calentamiento del JIT
+        for (int i = 0; i < Math.min(iterations, 10_000); i++) {
+            score(current, vectors.get(i % vectors.size()), scratch);
+        }
+
+        long start = System.nanoTime();
+        double checksum = 0.0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += score(current, vectors.get(i % vectors.size()), scratch).getProbability();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("iterations", iterations);
+        result.put("nanosPerPrediction", elapsed / Math.max(iterations, 1));
+        result.put("predictionsPerSecond", Math.round(iterations * 1_000_000_000.0 / Math.max(elapsed, 1)));
+        result.put("checksum", checksum);
+        return result;
+    }
+
+    // ========== SCORING + XAI ==========
+
+    static PredictionResponseDto score(TreeEnsembleModel current, double[] raw, double[] scratch) {
+        double probability = current.predictProba(raw, scratch);
+        String mainFactor = mainFactor(current, raw);
+        return new PredictionResponseDto(roundHalfEven(probability, 4), null, mainFactor,
+                generateAction(mainFactor));
+    }
+
+    /**
+     * select_best_actionable_factor + generate_explanation_simple (main.py)
+     */
+    private static String mainFactor(TreeEnsembleModel current, double[] raw) {
+        String[] features = current.getFeatures();
+        double[] importances = current.getImportances();
+
+        // Python: feature_importance_list.sort(key=importance, reverse=True) → top 10 (orden estable)
+        List<Integer> byImportance = new ArrayList<>(features.length);
+        for (int i = 0; i < features.length; i++) {
+            byImportance.add(i);
+        }
+        byImportance.sort(Comparator.comparingDouble((Integer i) -> importances[i]).reversed());
+
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int rank = 0; rank < Math.min(10, byImportance.size()); rank++) {
+            int f = byImportance.get(rank);
+            double value = xaiValue(raw[f]);
+            double combined = importances[f] * PRIORITY.getOrDefault(features[f], 10) * Math.abs(value);
+            // Primer máximo (sort estable descendente en Python)
+            if (combined > bestScore) {
+                bestScore = combined;
+                best = f;
+            }
+        }
+        if (best < 0) {
+            return "";
+        }
+        return explanation(features[best], xaiValue(raw[best]));
+    }
+
+    // En Python input_dict.get(feat, 0): los faltantes cuentan como 0
+    private static double xaiValue(double raw) {
+        return Double.isNaN(raw) ? 0.0 : raw;
+    }
+
+    private static String explanation(String feature, double v) {
+        return switch (feature) {
+            case "dias_activos_semanales" -> "Días activos por semana: " + (long) v;
+            case "promedio_conexion" -> "Promedio de conexión: " + fixed(v, 1);
+            case "conexiones_mensuales" -> "Conexiones mensuales: " + (long) v;
+            case "caracteristicas_usadas" -> "Características usadas: " + (long) v;
+            case "dias_ultima_conexion" -> "Días desde última conexión: " + (long) v;
+            case "intensidad_uso" -> "Intensidad de uso: " + fixed(v, 2);
+            case "tickets_soporte" -> "Tickets de soporte: " + (long) v;
+            case "puntuacion_nps" -> "NPS Score: " + fixed(v, 0) + "/100";
+            case "tasa_crecimiento_uso" -> "Crecimiento de uso: " + fixed(v, 1) + "%";
+            case "puntuacion_csat" -> "CSAT Score: " + fixed(v, 1) + "/5";
+            case "ratio_carga_financiera" -> "Carga financiera: " + fixed(v * 100, 2) + "%";
+            case "tasa_apertura_email" -> "Apertura de emails: " + fixed(v * 100, 0) + "%";
+            case "errores_pago" -> "Errores de pago: " + (long) v;
+            case "antiguedad" -> "Antigüedad: " + (long) v + " meses";
+            case "ingresos_totales" -> "Ingresos totales: $" + grouped(fixed(v, 2));
+            case "cargo_mensual" -> "Cargo mensual: $" + fixed(v, 2);
+            case "tiempo_resolucion" -> "Tiempo de resolución: " + fixed(v, 1) + " horas";
+            case "edad" -> "Edad: " + (long) v + " años";
+            case "dias_desde_ultimo_contacto" -> "Días desde último contacto: " + (long) v;
+            case "tiempo_sesion_promedio" -> "Tiempo sesión promedio: " + fixed(v, 1) + " min";
+            default -> feature + ": " + fixed(v, 2);
+        };
+    }
+
+    /**
+     * generate_action (xai_utils.py). La entrada V2 no trae SegmentoCliente,
+     * así que el caso por defecto es siempre "Residencial".
+     */
+    private static String generateAction(String mainFactor) {
+        String factor = mainFactor.toLowerCase();
+        if (factor.contains("nps") && factor.contains("bajo")) {
+            return "Contacto prioritario por baja satisfacción: " + mainFactor;
+        } else if (factor.contains("csat") && factor.contains("bajo")) {
+            return "Escalación por experiencia negativa: " + mainFactor;
+        } else if (factor.contains("tickets") && factor.contains("alto")) {
+            return "Revisión urgente de soporte: " + mainFactor;
+        } else if (factor.contains("queja")) {
+            return "Atención inmediata a queja (No especificada): " + mainFactor;
+        } else if (factor.contains("precio") && factor.contains("alto")) {
+            return "Revisión comercial de pricing: " + mainFactor;
+        } else if (factor.contains("contrato") && factor.contains("mensual")) {
+            return "Propuesta de fidelización con contrato anual: " + mainFactor;
+        } else if (factor.contains("antigüedad") && factor.contains("baja")) {
+            return "Programa de onboarding intensivo: " + mainFactor;
+        } else if (factor.contains("engagement") && factor.contains("bajo")) {
+            return "Campaña de reactivación: " + mainFactor;
+        }
+        return "Contacto proactivo de retención: " + mainFactor;
+    }
+
+    // ========== VECTORES DE ENTRADA ==========
+
+    private static double[] toRawVector(TreeEnsembleModel current, PredictionInputDtoV2 input) {
+        String[] features = current.getFeatures();
+        double[] raw = new double[features.length];
+        for (int f = 0; f < features.length; f++) {
+            Function<PredictionInputDtoV2, Object> getter = DTO_FEATURES.get(features[f]);
+            raw[f] = toDouble(getter != null ? getter.apply(input) : null);
+        }
+        return raw;
+    }
+
+    // Entrada de una parity fixture (también la usa TreeEnsembleParityTest)
+    static double[] toRawVector(TreeEnsembleModel current, JsonNode input) {
+        String[] features = current.getFeatures();
+        double[] raw = new double[features.length];
+        for (int f = 0; f < features.length; f++) {
+            JsonNode value = input.get(features[f]);
+            raw[f] = value == null || value.isNull() ? Double.NaN
+                    : value.isTextual() ? toDouble(value.asText()) : value.asDouble();
+        }
+        return raw;
+    }
+
+    private static double toDouble(Object value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        return FeatureMatrix.codigoPostalToNumeric(value.toString());
+    }
+
+    // ========== FORMATO ESTILO PYTHON ==========
+
+    /**
+     * f"{v:.Nf}" de Python: redondeo half-even sobre el valor binario exacto
+     * (String.format redondea half-up y difiere en los empates)
+     */
+    private static String fixed(double v, int decimals) {
+        String formatted = new BigDecimal(v).setScale(decimals, RoundingMode.HALF_EVEN).toPlainString();
+        boolean negative = v < 0 || (v == 0.0 && 1.0 / v < 0);
+        // Python conserva el signo aunque el redondeo dé cero: f"{-0.04:.1f}" → "-0.0"
+        return negative && !formatted.startsWith("-") ? "-" + formatted : formatted;
+    }
+
+    // f"{v:,.2f}": separador de miles en la parte entera
+    private static String grouped(String fixed) {
+        boolean negative = fixed.startsWith("-");
+        String unsigned = negative ? fixed.substring(1) : fixed;
+        int dot = unsigned.indexOf('.');
+        String integer = dot >= 0 ? unsigned.substring(0, dot) : unsigned;
+        String fraction = dot >= 0 ? unsigned.substring(dot) : "";
+
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < integer.length(); i++) {
+            if (i > 0 && (integer.length() - i) % 3 == 0) {
+                out.append(',');
+            }
+            out.append(integer.charAt(i));
+        }
+        return (negative ? "-" : "") + out + fraction;
+    }
+
+    // round(x, 4) de Python (correctamente redondeado, half-even)
+    private static double roundHalfEven(double v, int decimals) {
+        return new BigDecimal(v).setScale(decimals, RoundingMode.HALF_EVEN).doubleValue();
+    }
+
+    // ========== PARIDAD ==========
+
+    private Map<String, Object> checkParity(TreeEnsembleModel candidate, List<JsonNode> parityFixtures) {
+        double[] scratch = new double[candidate.getFeatures().length];
+        long probabilityMismatches = 0;
+        long textMismatches = 0;
+        double maxAbsDiff = 0.0;
+        Map<String, Object> firstMismatch = null;
+
+        for (JsonNode fixture : parityFixtures) {
+            double[] raw = toRawVector(candidate, fixture.get("input"));
+            double expected = fixture.path("probability_raw").asDouble();
+            double actual = candidate.predictProba(raw, scratch);
+            double diff = Math.abs(expected - actual);
+            maxAbsDiff = Math.max(maxAbsDiff, diff);
+
+            PredictionResponseDto response = score(candidate, raw, scratch);
+            boolean textOk = fixture.path("main_factor").asText().equals(response.getMainFactor())
+                    && fixture.path("next_best_action").asText().equals(response.getNextBestAction());
+
+            if (diff > parityTolerance) {
+                probabilityMismatches++;
+            }
+            if (!textOk) {
+                textMismatches++;
+            }
+            if ((diff > parityTolerance || !textOk) && firstMismatch == null) {
+                firstMismatch = new HashMap<>();
+                firstMismatch.put("expectedProbability", expected);
+                firstMismatch.put("actualProbability", actual);
+                firstMismatch.put("expectedMainFactor", fixture.path("main_factor").asText());
+                firstMismatch.put("actualMainFactor", response.getMainFactor());
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("fixtures", (long) parityFixtures.size());
+        report.put("probabilityMismatches", probabilityMismatches);
+        report.put("textMismatches", textMismatches);
+        report.put("maxAbsDiff", maxAbsDiff);
+        report.put("tolerance", parityTolerance);
+        if (firstMismatch != null) {
+            report.put("firstMismatch", firstMismatch);
+        }
+        return report;
+    }
+
+    private TreeEnsembleModel requireModel() {
+        TreeEnsembleModel current = model;
+        if (current == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Motor de scoring JVM no disponible: " + unavailableReason);
+        }
+        return current;
+    }
+
+    public ScoringEngine getDefaultEngine() {
+        return ScoringEngine.from(configuredEngine, ScoringEngine.PYTHON);
+    }
+}
@@ -0,0 +1,240 @@
+package com.retainai.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🧱 Codificador mínimo de Mapbox Vector Tiles (MVT 2.1, protobuf) para
+ * capas de puntos
+ *
+ * Solo lo que necesita el mapa: capas con features de tipo POINT y
+ * atributos string / double / entero. Escribe el formato de cable de
+ * protobuf directamente (varints, campos con longitud, arrays empaquetados),
+ * sin dependencias. Las claves y valores de atributos se deduplican por capa
+ * como pide la especificación.
+ *
+ * Uso: layer(nombre) → addPoint(lat, lng, atributos) por punto → encode()
+ */
+public class MvtEncoder {
+
+    public static final int EXTENT = 4096;
+    public static final String CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_64BIT = 1;
+    private static final int WIRE_LENGTH = 2;
+    private static final double MAX_MERCATOR_LAT = 85.05112878;
+
+    private final int z;
+    private final long x;
+    private final long y;
+    private final List<Layer> layers = new ArrayList<>();
+
+    public MvtEncoder(int z, long x, long y) {
+        this.z = z;
+        this.x = x;
+        this.y = y;
+    }
+
+    public Layer layer(String name) {
+        Layer layer = new Layer(name);
+        layers.add(layer);
+        return layer;
+    }
+
+    /**
+     * Tile serializado (Tile.layers = campo 3). Las capas vacías se omiten.
+     */
+    public byte[] encode() {
+        ProtoWriter tile = new ProtoWriter();
+        for (Layer layer : layers) {
+            if (!layer.features.isEmpty()) {
+                tile.writeBytes(3, layer.encode());
+            }
+        }
+        return tile.toByteArray();
+    }
+
+    /**
+     * Límites del tile en grados ampliados con un margen de buffer unidades
+     * (sobre EXTENT): minLat, minLng, maxLat, maxLng
+     */
+    public static double[] bounds(int z, long x, long y, int buffer) {
+        double n = 1L << z;
+        double margin = (double) buffer / EXTENT;
+        double minLng = (x - margin) / n * 360.0 - 180.0;
+        double maxLng = (x + 1 + margin) / n * 360.0 - 180.0;
+        double maxLat = tileLat(y - margin, n);
+        double minLat = tileLat(y + 1 + margin, n);
+        return new double[] { minLat, minLng, maxLat, maxLng };
+    }
+
+    /**
+     * Coordenada mundial Web Mercator en [0, 1): x desde -180°, y desde el norte
+     */
+    public static double worldX(double lng) {
+        return (lng + 180.0) / 360.0;
+    }
+
+    public static double worldY(double lat) {
+        double latRad = Math.toRadians(Math.max(-MAX_MERCATOR_LAT, Math.min(MAX_MERCATOR_LAT, lat)));
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2;
+    }
+
+    private static double tileLat(double tileY, double n) {
+        double mercator = Math.PI * (1 - 2 * tileY / n);
+        return Math.toDegrees(Math.atan(Math.sinh(mercator)));
+    }
+
+    /**
+     * Una capa del tile (Tile.Layer)
+     */
+    public final class Layer {
+        private final String name;
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final Map<Object, Integer> values = new LinkedHashMap<>();
+        private final List<byte[]> features = new ArrayList<>();
+
+        private Layer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Añade un punto con sus atributos (los null se omiten). Valores
+         * admitidos: String, Double/Float, Integer/Long, Boolean.
+         */
+        public void addPoint(double lat, double lng, Map<String, Object> attributes) {
+            double n = 1L << z;
+            long px = Math.round((worldX(lng) * n - x) * EXTENT);
+            long py = Math.round((worldY(lat) * n - y) * EXTENT);
+
+            List<Integer> tags = new ArrayList<>(attributes.size() * 2);
+            for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                if (attribute.getValue() == null) {
+                    continue;
+                }
+                tags.add(keys.computeIfAbsent(attribute.getKey(), key -> keys.size()));
+                tags.add(values.computeIfAbsent(normalize(attribute.getValue()), value -> values.size()));
+            }
+
+            ProtoWriter feature = new ProtoWriter();
+            feature.writePackedVarints(2, tags.stream().mapToLong(Integer::longValue).toArray());
+            feature.writeVarintField(3, 1); // GeomType.POINT
+            // MoveTo (id 1) con un punto, coordenadas en zigzag relativas a (0, 0)
+            feature.writePackedVarints(4, new long[] { (1 << 3) | 1, zigZag(px), zigZag(py) });
+            features.add(feature.toByteArray());
+        }
+
+        public int size() {
+            return features.size();
+        }
+
+        private byte[] encode() {
+            ProtoWriter layer = new ProtoWriter();
+            layer.writeVarintField(15, 2); // version
+            layer.writeString(1, name);
+            for (byte[] feature : features) {
+                layer.writeBytes(2, feature);
+            }
+            for (String key : keys.keySet()) {
+                layer.writeString(3, key);
+            }
+            for (Object value : values.keySet()) {
+                layer.writeBytes(4, encodeValue(value));
+            }
+            layer.writeVarintField(5, EXTENT);
+            return layer.toByteArray();
+        }
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof Float f) {
+            return f.doubleValue();
+        }
+        if (value instanceof Integer i) {
+            return i.longValue();
+        }
+        return value;
+    }
+
+    /**
+     * Tile.Value: string = 1, double = 3, sint = 6, bool = 7
+     */
+    private static byte[] encodeValue(Object value) {
+        ProtoWriter writer = new ProtoWriter();
+        if (value instanceof String s) {
+            writer.writeString(1, s);
+        } else if (value instanceof Double d) {
+            writer.writeDouble(3, d);
+        } else if (value instanceof Long l) {
+            writer.writeVarintField(6, zigZag(l));
+        } else if (value instanceof Boolean b) {
+            writer.writeVarintField(7, b ? 1 : 0);
+        } else {
+            writer.writeString(1, String.valueOf(value));
+        }
+        return writer.toByteArray();
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Escritura de campos protobuf sobre un buffer
+     */
+    private static final class ProtoWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeVarintField(int field, long value) {
+            writeTag(field, WIRE_VARINT);
+            writeVarint(value);
+        }
+
+        void writeDouble(int field, double value) {
+            writeTag(field, WIRE_64BIT);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (bits >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeString(int field, String value) {
+            writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(int field, byte[] bytes) {
+            writeTag(field, WIRE_LENGTH);
+            writeVarint(bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        void writePackedVarints(int field, long[] values) {
+            ProtoWriter packed = new ProtoWriter();
+            for (long value : values) {
+                packed.writeVarint(value);
+            }
+            writeBytes(field, packed.toByteArray());
+        }
+
+        private void writeTag(int field, int wireType) {
+            writeVarint(((long) field << 3) | wireType);
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
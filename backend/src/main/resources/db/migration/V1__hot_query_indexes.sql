@@ -0,0 +1,31 @@
+-- ==============================================================
+-- Índices de las consultas calientes (las tablas las crea Hibernate con
+-- ddl-auto=update; esta migración se aplica después, ver SchemaMigrationConfig)
+-- ALGORITHM=INPLACE, LOCK=NONE: se crean sin bloquear lecturas ni escrituras
+-- ==============================================================
+
+-- Última predicción por cliente (ROW_NUMBER ... PARTITION BY customer_id
+-- ORDER BY fecha_analisis DESC), modo delta y compactación del historial
+CREATE INDEX idx_pred_customer_fecha ON ai_predictions (customer_id, fecha_analisis)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Ranking por probabilidad (findTop3HighRiskCustomers)
+CREATE INDEX idx_pred_probabilidad ON ai_predictions (probabilidad_fuga)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Clientes abandonados / activos (KPIs del dashboard, churnRevenue, insights).
+-- customer_id incluido: los semi-joins se resuelven solo con el índice
+CREATE INDEX idx_metrics_abandono ON customer_metrics (abandono_historico, customer_id)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Clientes con coordenadas (mapa y heatmap)
+CREATE INDEX idx_customers_lat_lng ON customers (latitud, longitud)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Drill-down por ciudad (findByCiudad)
+CREATE INDEX idx_customers_ciudad ON customers (ciudad)
+    ALGORITHM=INPLACE LOCK=NONE;
+
+-- Análisis y alertas por tipo de contrato
+CREATE INDEX idx_subscriptions_tipo_contrato ON subscriptions (tipo_contrato)
+    ALGORITHM=INPLACE LOCK=NONE;
@@ -0,0 +1,86 @@
+package com.retainai.repository;
+
+import com.retainai.repository.PredictionRetentionRepository.HistoryRow;
+import com.retainai.repository.PredictionRetentionRepository.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 🧹 Reglas de conservación de la compactación del historial
+ *
+ * Historial de un cliente de más reciente a más antigua, repartido entre el
+ * tramo reciente (desde el 1 de marzo), el diario (febrero) y el semanal
+ * (antes del 1 de febrero; el 1 de febrero de 2026 es domingo, así que su
+ * semana ISO empieza en enero).
+ */
+class PredictionRetentionPolicyTest {
+
+    private static final LocalDateTime DAILY_BEFORE = LocalDateTime.of(2026, 3, 1, 0, 0);
+    private static final LocalDateTime WEEKLY_BEFORE = LocalDateTime.of(2026, 2, 1, 0, 0);
+
+    private static final List<HistoryRow> HISTORY = List.of(
+            row(1, 2026, 3, 5, 10),   // reciente: entre las 2 últimas
+            row(2, 2026, 3, 5, 8),    // reciente: entre las 2 últimas
+            row(3, 2026, 3, 4, 10),   // reciente: fuera de keep-last
+            row(4, 2026, 2, 20, 18),  // diario: la más reciente del día
+            row(5, 2026, 2, 20, 9),   // diario: segunda del día
+            row(6, 2026, 2, 19, 12),  // diario: la más reciente del día
+            row(7, 2026, 2, 2, 7),    // diario: la más reciente del día (lunes)
+            row(8, 2026, 2, 1, 10),   // diario: la más reciente del día (domingo)
+            row(9, 2026, 1, 31, 20),  // semanal: su semana ya tiene la fila 8
+            row(10, 2026, 1, 28, 10), // semanal: misma semana
+            row(11, 2026, 1, 25, 10), // semanal: la más reciente de la semana
+            row(12, 2026, 1, 19, 10), // semanal: misma semana
+            row(13, 2026, 1, 18, 23), // semanal: la más reciente de la semana
+            new HistoryRow(14, null)); // fila antigua sin fecha
+
+    @Test
+    void deletesOnlyRowsNoRuleKeeps() {
+        RetentionPolicy policy = new RetentionPolicy(2, DAILY_BEFORE, WEEKLY_BEFORE);
+
+        assertEquals(List.of(3L, 5L, 9L, 10L, 12L, 14L), policy.rowsToDelete(HISTORY));
+    }
+
+    @Test
+    void keepLastProtectsRowsInAnyTier() {
+        RetentionPolicy policy = new RetentionPolicy(20, DAILY_BEFORE, WEEKLY_BEFORE);
+
+        assertEquals(List.of(), policy.rowsToDelete(HISTORY));
+    }
+
+    @Test
+    void latestRowSurvivesWithoutKeepLast() {
+        RetentionPolicy policy = new RetentionPolicy(0, null, WEEKLY_BEFORE);
+
+        List<Long> doomed = policy.rowsToDelete(HISTORY);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 12L, 14L), doomed);
+        assertEquals(List.of(1L, 11L, 13L), survivors(doomed));
+    }
+
+    @Test
+    void disabledDailyTierLeavesOnlyWeeklyRows() {
+        RetentionPolicy policy = new RetentionPolicy(2, null, WEEKLY_BEFORE);
+
+        assertEquals(List.of(1L, 2L, 11L, 13L), survivors(policy.rowsToDelete(HISTORY)));
+    }
+
+    private static List<Long> survivors(List<Long> doomed) {
+        List<Long> kept = new ArrayList<>();
+        for (HistoryRow row : HISTORY) {
+            if (!doomed.contains(row.id())) {
+                kept.add(row.id());
+            }
+        }
+        return kept;
+    }
+
+    private static HistoryRow row(long id, int year, int month, int day, int hour) {
+        return new HistoryRow(id, LocalDateTime.of(year, month, day, hour, 0));
+    }
+}
@@ -0,0 +1,125 @@
+package com.retainai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.retainai.dto.FeatureMatrix;
+import com.retainai.dto.PredictionResponseDto;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 🌲 Paridad del motor JVM (TreeEnsembleScorer) con las salidas de Python
+ *
+ * Cada parity fixture del JSON exportado trae la entrada y la respuesta de
+ * Python: la probabilidad debe coincidir dentro de app.scoring.parity-tolerance
+ * y main_factor / next_best_action exactamente.
+ *
+ * - scoring/tree_ensemble_parity.json (test resources): ensemble pequeño
+ *   generado por ai-ml/scripts/build_parity_fixture.py; cubre features
+ *   faltantes, valores en el umbral y códigos postales no numéricos
+ * - el modelo de producción (app.scoring.model-path o
+ *   -Dscoring.parity.model=...) si se ha exportado con
+ *   python -m src.export_tree_model; si no existe el test se omite
+ */
+class TreeEnsembleParityTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static Properties applicationProperties;
+    private static double tolerance;
+
+    @BeforeAll
+    static void loadProperties() throws IOException {
+        applicationProperties = new Properties();
+        try (InputStream in = TreeEnsembleParityTest.class.getResourceAsStream("/application.properties")) {
+            applicationProperties.load(in);
+        }
+        tolerance = Double.parseDouble(applicationProperties.getProperty("app.scoring.parity-tolerance"));
+    }
+
+    @Test
+    void fixtureModelMatchesPython() throws IOException {
+        assertParity(readFixtureModel());
+    }
+
+    @Test
+    void exportedModelMatchesPython() throws IOException {
+        Path path = Path.of(System.getProperty("scoring.parity.model",
+                applicationProperties.getProperty("app.scoring.model-path")));
+        assumeTrue(Files.exists(path), "No existe " + path.toAbsolutePath()
+                + " (generarlo con: python -m src.export_tree_model)");
+        assertParity(MAPPER.readTree(path.toFile()));
+    }
+
+    @Test
+    void nonNumericPostalCodesUseCrc32() throws IOException {
+        List<String> nonNumeric = new ArrayList<>();
+        for (JsonNode fixture : readFixtureModel().get("parity_fixtures")) {
+            String codigoPostal = fixture.get("input").path("codigo_postal").asText();
+            if (!codigoPostal.strip().matches("\\d+")) {
+                nonNumeric.add(codigoPostal);
+            }
+        }
+        assertFalse(nonNumeric.isEmpty(), "Las fixtures deben cubrir códigos postales no numéricos");
+
+        for (String codigoPostal : nonNumeric) {
+            CRC32 crc = new CRC32();
+            crc.update(codigoPostal.getBytes(StandardCharsets.UTF_8));
+            assertEquals(crc.getValue() % 100000, FeatureMatrix.codigoPostalToNumeric(codigoPostal),
+                    "codigo_postal '" + codigoPostal + "'");
+        }
+        // float() de Python: espacios alrededor y guiones bajos sí, sufijos de Java no
+        assertEquals(10002.0, FeatureMatrix.codigoPostalToNumeric(" 10002 "));
+        assertEquals(10002.0, FeatureMatrix.codigoPostalToNumeric("10_002"));
+        assertTrue(FeatureMatrix.codigoPostalToNumeric("10002d") != 10002.0);
+    }
+
+    private static JsonNode readFixtureModel() throws IOException {
+        try (InputStream in = TreeEnsembleParityTest.class.getResourceAsStream("/scoring/tree_ensemble_parity.json")) {
+            return MAPPER.readTree(in);
+        }
+    }
+
+    private static void assertParity(JsonNode root) {
+        TreeEnsembleModel model = TreeEnsembleModel.fromJson(root);
+        JsonNode fixtures = root.get("parity_fixtures");
+        assertTrue(fixtures != null && !fixtures.isEmpty(), "El modelo exportado no trae parity_fixtures");
+
+        double[] scratch = new double[model.getFeatures().length];
+        List<Executable> checks = new ArrayList<>();
+        int index = 0;
+        for (JsonNode fixture : fixtures) {
+            String name = "fixture " + index++ + " " + fixture.get("input");
+            double[] raw = TreeEnsembleScorer.toRawVector(model, fixture.get("input"));
+            double expected = fixture.get("probability_raw").asDouble();
+            double actual = model.predictProba(raw, scratch);
+            PredictionResponseDto response = TreeEnsembleScorer.score(model, raw, scratch);
+
+            checks.add(() -> assertEquals(expected, actual, tolerance, name + ": probability_raw"));
+            checks.add(() -> assertEquals(fixture.get("probability").asDouble(), response.getProbability(),
+                    tolerance, name + ": probability"));
+            checks.add(() -> assertEquals(fixture.get("main_factor").asText(), response.getMainFactor(),
+                    name + ": main_factor"));
+            checks.add(() -> assertEquals(fixture.get("next_best_action").asText(), response.getNextBestAction(),
+                    name + ": next_best_action"));
+        }
+        assertAll(checks);
+    }
+}
@@ -1,7 +1,7 @@
 // BatchPredictionModal - Modal para predicción masiva de todos los clientes
 'use client';
 
-import { useState } from 'react';
+import { useEffect, useRef, useState } from 'react';
 import { X, Loader2, CheckCircle2, AlertCircle, Zap } from 'lucide-react';
 
 interface BatchPredictionResult {
@@ -10,6 +10,21 @@ interface BatchPredictionResult {
     errorCount: number;
 }
 
+// Estado del job en /api/batch-jobs/{jobId}
+interface BatchJobStatus {
+    jobId: string;
+    status: 'QUEUED' | 'RUNNING' | 'CANCELLING' | 'COMPLETED' | 'CANCELLED' | 'FAILED';
+    processed: number;
+    successCount: number;
+    errorCount: number;
+    progressPercent: number | null;
+    itemsPerSecond: number | null;
+    message: string | null;
+}
+
+const JOBS_URL = 'http://localhost:8080/api/batch-jobs';
+const POLL_INTERVAL_MS = 1000;
+
 interface BatchPredictionModalProps {
     isOpen: boolean;
     onClose: () => void;
@@ -20,14 +35,72 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
     const [isProcessing, setIsProcessing] = useState(false);
     const [result, setResult] = useState<BatchPredictionResult | null>(null);
     const [error, setError] = useState<string | null>(null);
+    const [job, setJob] = useState<BatchJobStatus | null>(null);
+    const pollRef = useRef<ReturnType<typeof setInterval> | null>(null);
+
+    const stopPolling = () => {
+        if (pollRef.current) {
+            clearInterval(pollRef.current);
+            pollRef.current = null;
+        }
+    };
+
+    // Limpiar el polling si el componente se desmonta
+    useEffect(() => stopPolling, []);
+
+    const finishJob = (status: BatchJobStatus) => {
+        stopPolling();
+        setIsProcessing(false);
+
+        if (status.status === 'FAILED') {
+            setError(status.message || 'Error en la predicción masiva');
+            return;
+        }
+
+        setResult({
+            totalProcessed: status.processed,
+            successCount: status.successCount,
+            errorCount: status.errorCount,
+        });
+
+        // Llamar callback de completado para refrescar datos
+        if (onComplete) {
+            setTimeout(() => {
+                onComplete();
+            }, 1000);
+        }
+    };
+
+    const pollJob = async (jobId: string) => {
+        try {
+            const response = await fetch(`${JOBS_URL}/${jobId}`);
+            if (!response.ok) {
+                throw new Error(`Error ${response.status}: ${response.statusText}`);
+            }
+
+            const status: BatchJobStatus = await response.json();
+            setJob(status);
+
+            if (['COMPLETED', 'CANCELLED', 'FAILED'].includes(status.status)) {
+                finishJob(status);
+            }
+        } catch (err) {
+            stopPolling();
+            setIsProcessing(false);
+            setError(err instanceof Error ? err.message : 'Error desconocido');
+            console.error('Error consultando el job:', err);
+        }
+    };
 
     const handlePredictAll = async () => {
         setIsProcessing(true);
         setError(null);
         setResult(null);
+        setJob(null);
 
         try {
-            const response = await fetch('http://localhost:8080/api/customers/predict/batch-all', {
+            // El backend devuelve 202 + jobId al instante; el progreso se consulta por polling
+            const response = await fetch(`${JOBS_URL}/predict-all`, {
                 method: 'POST',
                 headers: {
                     'Content-Type': 'application/json',
@@ -38,20 +111,22 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
                 throw new Error(`Error ${response.status}: ${response.statusText}`);
             }
 
-            const data = await response.json();
-            setResult(data);
-
-            // Llamar callback de completado para refrescar datos
-            if (onComplete) {
-                setTimeout(() => {
-                    onComplete();
-                }, 1000);
-            }
+            const submitted: BatchJobStatus = await response.json();
+            setJob(submitted);
+            pollRef.current = setInterval(() => pollJob(submitted.jobId), POLL_INTERVAL_MS);
         } catch (err) {
+            setIsProcessing(false);
             setError(err instanceof Error ? err.message : 'Error desconocido');
             console.error('Error en batch prediction:', err);
-        } finally {
-            setIsProcessing(false);
+        }
+    };
+
+    const handleCancelJob = async () => {
+        if (!job) return;
+        try {
+            await fetch(`${JOBS_URL}/${job.jobId}`, { method: 'DELETE' });
+        } catch (err) {
+            console.error('Error cancelando el job:', err);
         }
     };
 
@@ -59,6 +134,7 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
         if (!isProcessing) {
             setResult(null);
             setError(null);
+            setJob(null);
             onClose();
         }
     };
@@ -109,9 +185,28 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
                         {isProcessing && (
                             <div className="text-center py-8">
                                 <Loader2 className="w-12 h-12 text-blue-600 animate-spin mx-auto mb-4" />
-                                <p className="text-gray-700 font-medium">Procesando predicciones...</p>
+                                <p className="text-gray-700 font-medium">
+                                    {job?.status === 'QUEUED' && 'En cola...'}
+                                    {job?.status === 'CANCELLING' && 'Cancelando...'}
+                                    {(!job || job.status === 'RUNNING') && 'Procesando predicciones...'}
+                                </p>
+                                {job && job.status !== 'QUEUED' && (
+                                    <div className="mt-4 space-y-2">
+                                        <div className="w-full bg-gray-200 rounded-full h-2">
+                                            <div
+                                                className="bg-blue-600 h-2 rounded-full transition-all"
+                                                style={{ width: `${job.progressPercent ?? 0}%` }}
+                                            />
+                                        </div>
+                                        <p className="text-gray-500 text-xs">
+                                            {job.processed} procesados
+                                            {job.progressPercent !== null && ` (${job.progressPercent}%)`}
+                                            {job.itemsPerSecond !== null && ` · ${job.itemsPerSecond} clientes/seg`}
+                                        </p>
+                                    </div>
+                                )}
                                 <p className="text-gray-500 text-sm mt-2">
-                                    Esto puede tardar unos minutos. Por favor no cierres esta ventana.
+                                    Esto puede tardar unos minutos. El proceso sigue en el servidor.
                                 </p>
                             </div>
                         )}
@@ -124,7 +219,7 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
 
                                 <div className="bg-green-50 border border-green-200 rounded-md p-4">
                                     <h3 className="font-semibold text-green-900 mb-2">
-                                        Predicción Completada
+                                        {job?.status === 'CANCELLED' ? 'Predicción Cancelada' : 'Predicción Completada'}
                                     </h3>
                                     <div className="space-y-2 text-sm">
                                         <div className="flex justify-between">
@@ -151,7 +246,9 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
                                             <div className="flex justify-between">
                                                 <span className="text-gray-700">Tasa de éxito:</span>
                                                 <span className="font-semibold text-gray-900">
-                                                    {((result.successCount / result.totalProcessed) * 100).toFixed(1)}%
+                                                    {result.totalProcessed > 0
+                                                        ? ((result.successCount / result.totalProcessed) * 100).toFixed(1)
+                                                        : '0.0'}%
                                                 </span>
                                             </div>
                                         </div>
@@ -200,6 +297,15 @@ export default function BatchPredictionModal({ isOpen, onClose, onComplete }: Ba
                             </>
                         )}
 
+                        {isProcessing && job && job.status !== 'CANCELLING' && (
+                            <button
+                                onClick={handleCancelJob}
+                                className="px-4 py-2 text-sm font-medium text-gray-700 bg-white border border-gray-300 rounded-md hover:bg-gray-50 transition-colors"
+                            >
+                                Cancelar Predicción
+                            </button>
+                        )}
+
                         {(result || error) && (
                             <button
                                 onClick={handleClose}